@@ -0,0 +1,40 @@
+package org.phinix.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of the benchmark jar. It accepts the usual JMH options (e.g. a benchmark regex or
+ * {@code -p objectCount=1000}) and adds two defaults: the GC profiler, which reports the bytes
+ * allocated per operation, and JSON results in {@code jmh-result.json}, so runs can be compared.
+ */
+public class BenchmarkRunner {
+    private static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.shouldHelp() || commandLine.shouldList()) {
+            new Runner(commandLine).list();
+            return;
+        }
+
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(commandLine);
+        builder.resultFormat(commandLine.getResultFormat().orElse(ResultFormatType.JSON));
+        builder.result(commandLine.getResult().orElse(DEFAULT_RESULT_FILE));
+
+        // Allocation profiling, unless the command line already asks for the GC profiler
+        boolean gcProfiled = commandLine.getProfilers().stream()
+                .anyMatch(profiler -> profiler.getKlass().equals("gc") || profiler.getKlass().equals(GCProfiler.class.getName()));
+        if (!gcProfiled) {
+            builder.addProfiler(GCProfiler.class);
+        }
+
+        Options options = builder.build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,159 @@
+package org.phinix.benchmarks;
+
+import org.exist.security.Account;
+import org.exist.xmldb.DatabaseImpl;
+import org.exist.xmldb.EXistUserManagementService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.phinix.lib.common.ParameterizedQuery;
+import org.phinix.lib.common.XMLFileUtil;
+import org.phinix.lib.common.XQueryFactory;
+import org.phinix.lib.dao.TheDao;
+import org.phinix.lib.dao.XQueryDao;
+import org.phinix.lib.service.ConnectionMode;
+import org.phinix.lib.service.ExistDB;
+import org.phinix.lib.service.ExistDBConfig;
+import org.w3c.dom.Document;
+import org.xmldb.api.base.Collection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * A query against an embedded eXist-db broker holding {@code objectCount} documents, from the
+ * execution on the broker to the mapped objects. The broker runs in the benchmark JVM, so the
+ * numbers leave out the network but include serialization, parsing and mapping.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EmbeddedQueryBenchmark {
+    private static final String USER = "admin";
+    private static final String PASSWORD = "benchmark";
+    private static final String COLLECTION_PATH = "/db/benchmark";
+
+    @Param({"100", "1000"})
+    private int objectCount;
+
+    @Param({"4", "16"})
+    private int fieldCount;
+
+    private Path directory;
+    private ExistDB existDB;
+    private XQueryDao queryDao;
+    private Class<Object> clazz;
+    private ParameterizedQuery query;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Throwable {
+        directory = Files.createTempDirectory("exist-benchmark-");
+        Path configuration = writeConfiguration(directory);
+        setAdminPassword(configuration, directory.resolve("data"));
+
+        existDB = ExistDB.create(ExistDBConfig.builder()
+                .name("benchmark")
+                .mode(ConnectionMode.EMBEDDED)
+                .configurationFile(configuration)
+                .dataDirectory(directory.resolve("data"))
+                .credentials(USER, PASSWORD)
+                .build());
+        queryDao = new XQueryDao(existDB);
+
+        // One document per object, as the examples store them
+        clazz = (Class<Object>) Fixtures.modelClass(fieldCount);
+        List<Map.Entry<String, Document>> documents = new ArrayList<>();
+        List<Object> objects = Fixtures.objects(clazz, objectCount);
+        for (int i = 0; i < objects.size(); i++) {
+            documents.add(new AbstractMap.SimpleImmutableEntry<>("record-" + i + ".xml", XMLFileUtil.toDocument(objects.get(i))));
+        }
+        TheDao dao = new TheDao(existDB);
+        dao.createCollection(COLLECTION_PATH);
+        dao.addFilesToCollection(COLLECTION_PATH, documents.iterator(), 100);
+
+        query = XQueryFactory.query(COLLECTION_PATH, clazz).build();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        existDB.shutdown();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public List<Object> executeQuery() throws Throwable {
+        return queryDao.executeQuery(query, clazz);
+    }
+
+    @Benchmark
+    public void streamQuery(Blackhole blackhole) throws Throwable {
+        try (Stream<Object> results = queryDao.streamQuery(query, clazz, XQueryDao.DEFAULT_FETCH_SIZE)) {
+            results.forEach(blackhole::consume);
+        }
+    }
+
+    /**
+     * Writes the broker configuration with its data directory.
+     *
+     * @param directory    the temporary directory of the run.
+     * @return             the path of the configuration file.
+     * @throws IOException if the file cannot be written.
+     */
+    private static Path writeConfiguration(Path directory) throws IOException {
+        String template;
+        try (InputStream in = EmbeddedQueryBenchmark.class.getResourceAsStream("/exist-benchmark-conf.xml")) {
+            template = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        Path configuration = directory.resolve("conf.xml");
+        Files.writeString(configuration, template.replace("${data.dir}", directory.resolve("data").toString()));
+        return configuration;
+    }
+
+    /**
+     * Starts the new broker and gives the admin account a password, which {@link ExistDBConfig}
+     * requires. The broker keeps running and is reused by the {@link ExistDB} instance.
+     *
+     * @param configuration the configuration file.
+     * @param dataDirectory the data directory.
+     * @throws Exception    if the broker cannot be started or the account updated.
+     */
+    private static void setAdminPassword(Path configuration, Path dataDirectory) throws Exception {
+        Files.createDirectories(dataDirectory);
+        DatabaseImpl database = new DatabaseImpl();
+        database.setProperty("create-database", "true");
+        database.setProperty("configuration", configuration.toString());
+        database.setProperty("data-dir", dataDirectory.toString());
+        try (Collection root = database.getCollection("exist:///db", USER, "")) {
+            EXistUserManagementService users = (EXistUserManagementService) root.getService("UserManagementService", "1.0");
+            Account admin = users.getAccount(USER);
+            admin.setPassword(PASSWORD);
+            users.updateAccount(admin);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package org.phinix.benchmarks;
+
+import org.phinix.benchmarks.model.Record16;
+import org.phinix.benchmarks.model.Record4;
+import org.phinix.lib.common.ModelMetadata;
+import org.phinix.lib.common.XMLFileUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixtures builds the inputs shared by the benchmarks: model objects with a given number of
+ * fields, filled with deterministic values, and their XML form.
+ */
+final class Fixtures {
+    static final String ROOT_ELEMENT = "records";
+
+    private Fixtures() {}
+
+    /**
+     * Selects the model class with a number of fields.
+     *
+     * @param fieldCount                the number of fields, 4 or 16.
+     * @return                          the model class.
+     * @throws IllegalArgumentException if there is no model with that many fields.
+     */
+    static Class<?> modelClass(int fieldCount) {
+        switch (fieldCount) {
+            case 4:
+                return Record4.class;
+            case 16:
+                return Record16.class;
+            default:
+                throw new IllegalArgumentException("No model with " + fieldCount + " fields.");
+        }
+    }
+
+    /**
+     * Creates model objects whose values depend on their index only.
+     *
+     * @param clazz the model class.
+     * @param count the number of objects.
+     * @param <T>   the model type.
+     * @return      the objects.
+     */
+    static <T> List<T> objects(Class<T> clazz, int count) {
+        ModelMetadata<T> metadata = ModelMetadata.of(clazz);
+        List<T> objects = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            T object = metadata.newInstance();
+            for (ModelMetadata.FieldMapping field : metadata.getFields()) {
+                field.set(object, value(field.getType(), i));
+            }
+            objects.add(object);
+        }
+        return objects;
+    }
+
+    /**
+     * Serializes objects the way query results are returned: one root element holding an element per object.
+     *
+     * @param clazz   the model class.
+     * @param objects the objects.
+     * @param <T>     the model type.
+     * @return        the XML document.
+     */
+    static <T> String toXml(Class<T> clazz, List<T> objects) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            XMLFileUtil.writeXmlFromObjects(clazz, objects.iterator(), out, ROOT_ELEMENT, false);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot serialize " + clazz.getSimpleName(), e);
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private static Object value(Class<?> type, int index) {
+        if (type == int.class) {
+            return 1900 + index % 200;
+        } else if (type == double.class) {
+            return index * 0.5;
+        } else if (type == boolean.class) {
+            return index % 2 == 0;
+        }
+        return "value-" + index;
+    }
+}
@@ -0,0 +1,65 @@
+package org.phinix.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.phinix.lib.common.XMLStreamMapper;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+import javax.xml.parsers.SAXParserFactory;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing and mapping a query result of {@code objectCount} objects, through the StAX path used
+ * for string content and the SAX path fed by {@code XMLResource.getContentAsSAX}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MappingBenchmark {
+    @Param({"100", "10000"})
+    private int objectCount;
+
+    @Param({"4", "16"})
+    private int fieldCount;
+
+    private Class<Object> clazz;
+    private String xml;
+    private SAXParserFactory saxParserFactory;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        clazz = (Class<Object>) Fixtures.modelClass(fieldCount);
+        xml = Fixtures.toXml(clazz, Fixtures.objects(clazz, objectCount));
+        saxParserFactory = SAXParserFactory.newInstance();
+        saxParserFactory.setNamespaceAware(true);
+    }
+
+    @Benchmark
+    public List<Object> stax() throws Exception {
+        return XMLStreamMapper.readObjects(xml, clazz);
+    }
+
+    @Benchmark
+    public void sax(Blackhole blackhole) throws Exception {
+        XMLReader reader = saxParserFactory.newSAXParser().getXMLReader();
+        reader.setContentHandler(XMLStreamMapper.contentHandler(clazz, blackhole::consume));
+        reader.parse(new InputSource(new StringReader(xml)));
+    }
+}
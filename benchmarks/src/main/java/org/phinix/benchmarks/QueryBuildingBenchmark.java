@@ -0,0 +1,62 @@
+package org.phinix.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.phinix.benchmarks.model.Record16;
+import org.phinix.lib.common.ParameterizedQuery;
+import org.phinix.lib.common.QueryOperator;
+import org.phinix.lib.common.XQueryBuilder;
+import org.phinix.lib.common.XQueryFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building a query with {@code conditionCount} conditions, as a string with inline filters and
+ * as a parameterized query with a sorted page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBuildingBenchmark {
+    private static final String COLLECTION_PATH = "/db/benchmark/records";
+    private static final String[] FIELDS = {"field1", "field5", "field9", "field13"}; // The int fields of Record16
+
+    @Param({"1", "4"})
+    private int conditionCount;
+
+    private String[] filters;
+
+    @Setup
+    public void setUp() {
+        filters = new String[conditionCount];
+        for (int i = 0; i < conditionCount; i++) {
+            filters[i] = FIELDS[i] + " < 1950";
+        }
+    }
+
+    @Benchmark
+    public String stringQuery() throws Throwable {
+        return XQueryFactory.buildQuery(COLLECTION_PATH, Record16.class, filters);
+    }
+
+    @Benchmark
+    public ParameterizedQuery parameterizedQuery() throws Throwable {
+        XQueryBuilder<Record16> builder = XQueryFactory.query(COLLECTION_PATH, Record16.class);
+        for (int i = 0; i < conditionCount; i++) {
+            builder.where(FIELDS[i], QueryOperator.LT, 1950);
+        }
+        return builder.orderBy("field0", true).page(2, 20).build();
+    }
+}
@@ -0,0 +1,75 @@
+package org.phinix.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.phinix.lib.common.XMLFileUtil;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializing {@code objectCount} models: the streaming writer, the file export built on it and
+ * the per-object DOM documents that {@code TheDao} stores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+    @Param({"100", "10000"})
+    private int objectCount;
+
+    @Param({"4", "16"})
+    private int fieldCount;
+
+    private Class<Object> clazz;
+    private List<Object> objects;
+    private Path file;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() throws IOException {
+        clazz = (Class<Object>) Fixtures.modelClass(fieldCount);
+        objects = Fixtures.objects(clazz, objectCount);
+        file = Files.createTempFile("benchmark-", ".xml");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public long streaming() throws Throwable {
+        return XMLFileUtil.writeXmlFromObjects(clazz, objects.iterator(), OutputStream.nullOutputStream(), Fixtures.ROOT_ELEMENT, false);
+    }
+
+    @Benchmark
+    public void file() throws Throwable {
+        XMLFileUtil.generateXmlFromObjects(objects, file.toString(), Fixtures.ROOT_ELEMENT);
+    }
+
+    @Benchmark
+    public void documents(Blackhole blackhole) throws Throwable {
+        for (Object object : objects) {
+            blackhole.consume(XMLFileUtil.toDocument(object));
+        }
+    }
+}
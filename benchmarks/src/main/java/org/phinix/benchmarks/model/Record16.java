@@ -0,0 +1,156 @@
+package org.phinix.benchmarks.model;
+
+import org.phinix.lib.common.XMLSerializableModel;
+
+/**
+ * A benchmark model with 16 fields of mixed types.
+ */
+@XMLSerializableModel
+public class Record16 {
+    private String field0;
+    private int field1;
+    private double field2;
+    private boolean field3;
+    private String field4;
+    private int field5;
+    private double field6;
+    private boolean field7;
+    private String field8;
+    private int field9;
+    private double field10;
+    private boolean field11;
+    private String field12;
+    private int field13;
+    private double field14;
+    private boolean field15;
+
+    public Record16() {}
+
+    public String getField0() {
+        return field0;
+    }
+
+    public void setField0(String field0) {
+        this.field0 = field0;
+    }
+
+    public int getField1() {
+        return field1;
+    }
+
+    public void setField1(int field1) {
+        this.field1 = field1;
+    }
+
+    public double getField2() {
+        return field2;
+    }
+
+    public void setField2(double field2) {
+        this.field2 = field2;
+    }
+
+    public boolean isField3() {
+        return field3;
+    }
+
+    public void setField3(boolean field3) {
+        this.field3 = field3;
+    }
+
+    public String getField4() {
+        return field4;
+    }
+
+    public void setField4(String field4) {
+        this.field4 = field4;
+    }
+
+    public int getField5() {
+        return field5;
+    }
+
+    public void setField5(int field5) {
+        this.field5 = field5;
+    }
+
+    public double getField6() {
+        return field6;
+    }
+
+    public void setField6(double field6) {
+        this.field6 = field6;
+    }
+
+    public boolean isField7() {
+        return field7;
+    }
+
+    public void setField7(boolean field7) {
+        this.field7 = field7;
+    }
+
+    public String getField8() {
+        return field8;
+    }
+
+    public void setField8(String field8) {
+        this.field8 = field8;
+    }
+
+    public int getField9() {
+        return field9;
+    }
+
+    public void setField9(int field9) {
+        this.field9 = field9;
+    }
+
+    public double getField10() {
+        return field10;
+    }
+
+    public void setField10(double field10) {
+        this.field10 = field10;
+    }
+
+    public boolean isField11() {
+        return field11;
+    }
+
+    public void setField11(boolean field11) {
+        this.field11 = field11;
+    }
+
+    public String getField12() {
+        return field12;
+    }
+
+    public void setField12(String field12) {
+        this.field12 = field12;
+    }
+
+    public int getField13() {
+        return field13;
+    }
+
+    public void setField13(int field13) {
+        this.field13 = field13;
+    }
+
+    public double getField14() {
+        return field14;
+    }
+
+    public void setField14(double field14) {
+        this.field14 = field14;
+    }
+
+    public boolean isField15() {
+        return field15;
+    }
+
+    public void setField15(boolean field15) {
+        this.field15 = field15;
+    }
+}
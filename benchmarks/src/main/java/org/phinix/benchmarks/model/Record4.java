@@ -0,0 +1,48 @@
+package org.phinix.benchmarks.model;
+
+import org.phinix.lib.common.XMLSerializableModel;
+
+/**
+ * A benchmark model with 4 fields of mixed types.
+ */
+@XMLSerializableModel
+public class Record4 {
+    private String field0;
+    private int field1;
+    private double field2;
+    private boolean field3;
+
+    public Record4() {}
+
+    public String getField0() {
+        return field0;
+    }
+
+    public void setField0(String field0) {
+        this.field0 = field0;
+    }
+
+    public int getField1() {
+        return field1;
+    }
+
+    public void setField1(int field1) {
+        this.field1 = field1;
+    }
+
+    public double getField2() {
+        return field2;
+    }
+
+    public void setField2(double field2) {
+        this.field2 = field2;
+    }
+
+    public boolean isField3() {
+        return field3;
+    }
+
+    public void setField3(boolean field3) {
+        this.field3 = field3;
+    }
+}
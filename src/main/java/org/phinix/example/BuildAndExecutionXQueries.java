@@ -2,12 +2,15 @@ package org.phinix.example;
 
 import org.phinix.example.model.Book;
 import org.phinix.example.model.Poem;
+import org.phinix.lib.common.ParameterizedQuery;
+import org.phinix.lib.common.QueryOperator;
 import org.phinix.lib.common.XMLSerializableNotFoundException;
 import org.phinix.lib.common.XQueryFactory;
 import org.phinix.lib.dao.XQueryDao;
 import org.phinix.lib.service.ExistDB;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * <p>The BuildAndExecutionXQueries class demonstrates the use of the XQueryFactory and XQueryDao utility
@@ -31,9 +34,12 @@ public class BuildAndExecutionXQueries {
         // Query 1
         System.out.println("Query 1");
 
-        String query1 = XQueryFactory.buildQuery(novelsPath, Book.class);
+        // Only the titles are printed, so only the titles are fetched
+        ParameterizedQuery query1 = XQueryFactory.query(novelsPath, Book.class)
+                .select("title")
+                .build();
 
-        List<Book> allBooksInNovels = dao.executeQuery(query1, novelsPath, Book.class);
+        List<Book> allBooksInNovels = dao.executeQuery(query1, Book.class);
 
         for (Book book : allBooksInNovels) {
             System.out.println(book.getTitle());
@@ -57,6 +63,23 @@ public class BuildAndExecutionXQueries {
             System.out.println(book.getAuthor());
         }
 
+        // Query 4: the same filter with the value bound as a variable
+        ParameterizedQuery query4 = XQueryFactory.query(novelsPath, Book.class)
+                .where("year", QueryOperator.LT, 1950)
+                .build();
+
+        List<Book> booksBoundBefore1950 = dao.executeQuery(query4, Book.class);
+
+        for (Book book : booksBoundBefore1950) {
+            System.out.println(book.getAuthor());
+        }
+
+        // Query 5: books per author, counted on the server
+        Map<String, Long> booksByAuthor = dao.executeGroupedCount(
+                XQueryFactory.query(novelsPath, Book.class).countBy("author"), String.class);
+
+        booksByAuthor.forEach((author, count) -> System.out.println(author + ": " + count));
+
         existDB.shutdown();
     }
 }
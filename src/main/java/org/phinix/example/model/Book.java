@@ -1,11 +1,14 @@
 package org.phinix.example.model;
 
+import org.phinix.lib.common.XMLIndexed;
 import org.phinix.lib.common.XMLSerializableModel;
 
 @XMLSerializableModel
 public class Book {
     private String title;
+    @XMLIndexed
     private String author;
+    @XMLIndexed
     private int year;
 
     public Book(String title, String author, int year) {
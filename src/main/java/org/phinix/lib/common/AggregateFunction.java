@@ -0,0 +1,43 @@
+package org.phinix.lib.common;
+
+/**
+ * The aggregate functions accepted by {@link XQueryBuilder#aggregate} and
+ * {@link XQueryBuilder#aggregateBy}. They run on the server, so only the aggregated values are
+ * transferred, never the aggregated objects.
+ */
+public enum AggregateFunction {
+    COUNT("count", false),
+    SUM("sum", true),
+    AVG("avg", true),
+    MIN("min", true),
+    MAX("max", true);
+
+    private final String function;
+    private final boolean numeric; // Whether the aggregated field must hold numbers
+
+    AggregateFunction(String function, boolean numeric) {
+        this.function = function;
+        this.numeric = numeric;
+    }
+
+    public String getFunction() {
+        return function;
+    }
+
+    /**
+     * @return {@code true} if the function only applies to numeric fields.
+     */
+    public boolean isNumeric() {
+        return numeric;
+    }
+
+    /**
+     * Writes the call aggregating a sequence.
+     *
+     * @param sequence the aggregated sequence (e.g. {@code $items/year}).
+     * @return         the call.
+     */
+    String toCall(String sequence) {
+        return function + "(" + sequence + ")";
+    }
+}
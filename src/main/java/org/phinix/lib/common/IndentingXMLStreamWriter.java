@@ -0,0 +1,255 @@
+package org.phinix.lib.common;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.util.BitSet;
+
+/**
+ * IndentingXMLStreamWriter decorates an {@link XMLStreamWriter} so that every element starts on its
+ * own line, indented by its depth. Elements that only contain text stay on one line
+ * (e.g. {@code <title>Dune</title>}).
+ *
+ * <p>Only the current depth and one bit per open element are kept, so indenting does not change
+ * the constant memory use of a streaming export.</p>
+ */
+class IndentingXMLStreamWriter implements XMLStreamWriter {
+    private static final String INDENT = "    ";
+
+    private final XMLStreamWriter delegate;
+    private final BitSet hasChildElements = new BitSet(); // Bit n is set when the open element at depth n has child elements
+    private int depth;                                    // Number of open elements
+    private boolean started;                              // Whether anything has been written yet
+
+    IndentingXMLStreamWriter(XMLStreamWriter delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Writes a line break and the indentation of the current depth, unless the document is still empty.
+     *
+     * @throws XMLStreamException if the writer fails.
+     */
+    private void newLine() throws XMLStreamException {
+        if (started) {
+            delegate.writeCharacters("\n");
+            for (int i = 0; i < depth; i++) {
+                delegate.writeCharacters(INDENT);
+            }
+        }
+        started = true;
+    }
+
+    /**
+     * Moves to a new line before an element starts and records it as a child of its parent.
+     *
+     * @throws XMLStreamException if the writer fails.
+     */
+    private void beforeStart() throws XMLStreamException {
+        if (depth > 0) {
+            hasChildElements.set(depth - 1);
+        }
+        newLine();
+    }
+
+    /**
+     * Records an element as open.
+     */
+    private void afterStart() {
+        hasChildElements.clear(depth);
+        depth++;
+    }
+
+    /**
+     * Moves to a new line before an end tag if the element has child elements.
+     *
+     * @throws XMLStreamException if the writer fails.
+     */
+    private void beforeEnd() throws XMLStreamException {
+        depth--;
+        if (hasChildElements.get(depth)) {
+            newLine();
+        }
+    }
+
+    @Override
+    public void writeStartElement(String localName) throws XMLStreamException {
+        beforeStart();
+        delegate.writeStartElement(localName);
+        afterStart();
+    }
+
+    @Override
+    public void writeStartElement(String namespaceURI, String localName) throws XMLStreamException {
+        beforeStart();
+        delegate.writeStartElement(namespaceURI, localName);
+        afterStart();
+    }
+
+    @Override
+    public void writeStartElement(String prefix, String localName, String namespaceURI) throws XMLStreamException {
+        beforeStart();
+        delegate.writeStartElement(prefix, localName, namespaceURI);
+        afterStart();
+    }
+
+    @Override
+    public void writeEmptyElement(String namespaceURI, String localName) throws XMLStreamException {
+        beforeStart();
+        delegate.writeEmptyElement(namespaceURI, localName);
+    }
+
+    @Override
+    public void writeEmptyElement(String prefix, String localName, String namespaceURI) throws XMLStreamException {
+        beforeStart();
+        delegate.writeEmptyElement(prefix, localName, namespaceURI);
+    }
+
+    @Override
+    public void writeEmptyElement(String localName) throws XMLStreamException {
+        beforeStart();
+        delegate.writeEmptyElement(localName);
+    }
+
+    @Override
+    public void writeEndElement() throws XMLStreamException {
+        beforeEnd();
+        delegate.writeEndElement();
+    }
+
+    @Override
+    public void writeEndDocument() throws XMLStreamException {
+        while (depth > 0) {
+            writeEndElement();
+        }
+        delegate.writeEndDocument();
+        delegate.writeCharacters("\n");
+    }
+
+    @Override
+    public void writeStartDocument() throws XMLStreamException {
+        delegate.writeStartDocument();
+        started = true;
+    }
+
+    @Override
+    public void writeStartDocument(String version) throws XMLStreamException {
+        delegate.writeStartDocument(version);
+        started = true;
+    }
+
+    @Override
+    public void writeStartDocument(String encoding, String version) throws XMLStreamException {
+        delegate.writeStartDocument(encoding, version);
+        started = true;
+    }
+
+    @Override
+    public void writeComment(String data) throws XMLStreamException {
+        beforeStart();
+        delegate.writeComment(data);
+    }
+
+    @Override
+    public void writeProcessingInstruction(String target) throws XMLStreamException {
+        beforeStart();
+        delegate.writeProcessingInstruction(target);
+    }
+
+    @Override
+    public void writeProcessingInstruction(String target, String data) throws XMLStreamException {
+        beforeStart();
+        delegate.writeProcessingInstruction(target, data);
+    }
+
+    @Override
+    public void writeDTD(String dtd) throws XMLStreamException {
+        newLine();
+        delegate.writeDTD(dtd);
+    }
+
+    @Override
+    public void close() throws XMLStreamException {
+        delegate.close();
+    }
+
+    @Override
+    public void flush() throws XMLStreamException {
+        delegate.flush();
+    }
+
+    @Override
+    public void writeAttribute(String localName, String value) throws XMLStreamException {
+        delegate.writeAttribute(localName, value);
+    }
+
+    @Override
+    public void writeAttribute(String prefix, String namespaceURI, String localName, String value) throws XMLStreamException {
+        delegate.writeAttribute(prefix, namespaceURI, localName, value);
+    }
+
+    @Override
+    public void writeAttribute(String namespaceURI, String localName, String value) throws XMLStreamException {
+        delegate.writeAttribute(namespaceURI, localName, value);
+    }
+
+    @Override
+    public void writeNamespace(String prefix, String namespaceURI) throws XMLStreamException {
+        delegate.writeNamespace(prefix, namespaceURI);
+    }
+
+    @Override
+    public void writeDefaultNamespace(String namespaceURI) throws XMLStreamException {
+        delegate.writeDefaultNamespace(namespaceURI);
+    }
+
+    @Override
+    public void writeCData(String data) throws XMLStreamException {
+        delegate.writeCData(data);
+    }
+
+    @Override
+    public void writeEntityRef(String name) throws XMLStreamException {
+        delegate.writeEntityRef(name);
+    }
+
+    @Override
+    public void writeCharacters(String text) throws XMLStreamException {
+        delegate.writeCharacters(text);
+    }
+
+    @Override
+    public void writeCharacters(char[] text, int start, int len) throws XMLStreamException {
+        delegate.writeCharacters(text, start, len);
+    }
+
+    @Override
+    public String getPrefix(String uri) throws XMLStreamException {
+        return delegate.getPrefix(uri);
+    }
+
+    @Override
+    public void setPrefix(String prefix, String uri) throws XMLStreamException {
+        delegate.setPrefix(prefix, uri);
+    }
+
+    @Override
+    public void setDefaultNamespace(String uri) throws XMLStreamException {
+        delegate.setDefaultNamespace(uri);
+    }
+
+    @Override
+    public void setNamespaceContext(NamespaceContext context) throws XMLStreamException {
+        delegate.setNamespaceContext(context);
+    }
+
+    @Override
+    public NamespaceContext getNamespaceContext() {
+        return delegate.getNamespaceContext();
+    }
+
+    @Override
+    public Object getProperty(String name) throws IllegalArgumentException {
+        return delegate.getProperty(name);
+    }
+}
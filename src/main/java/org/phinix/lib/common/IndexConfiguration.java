@@ -0,0 +1,178 @@
+package org.phinix.lib.common;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.StringWriter;
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * IndexConfiguration generates the {@code collection.xconf} of a collection from the
+ * {@link XMLIndexed} fields of the model classes stored in it. For
+ *
+ * <pre>
+ * @XMLSerializableModel
+ * public class Book {
+ *     @XMLIndexed({IndexType.RANGE, IndexType.NGRAM})
+ *     private String title;
+ *     @XMLIndexed
+ *     private int year;
+ * }
+ * </pre>
+ *
+ * it generates
+ *
+ * <pre>
+ * &lt;collection xmlns="http://exist-db.org/collection-config/1.0"&gt;
+ *     &lt;index xmlns:xs="http://www.w3.org/2001/XMLSchema"&gt;
+ *         &lt;range&gt;
+ *             &lt;create qname="title" type="xs:string"/&gt;
+ *             &lt;create qname="year" type="xs:integer"/&gt;
+ *         &lt;/range&gt;
+ *         &lt;ngram qname="title"/&gt;
+ *     &lt;/index&gt;
+ * &lt;/collection&gt;
+ * </pre>
+ *
+ * <p>Indexes are declared by element name, as the conditions of {@link XQueryBuilder} compare
+ * {@code $item/field} with a value; fields of different classes sharing a name share the index.</p>
+ */
+public class IndexConfiguration {
+    public static final String COLLECTION_CONFIG_NAMESPACE = "http://exist-db.org/collection-config/1.0";
+    public static final String CONFIGURATION_FILE_NAME = "collection.xconf";
+    private static final String XML_SCHEMA_NAMESPACE = "http://www.w3.org/2001/XMLSchema";
+
+    private IndexConfiguration() {}
+
+    /**
+     * Generates the index configuration of a collection.
+     *
+     * @param classes                           the model classes stored in the collection.
+     * @return                                  the content of the {@code collection.xconf} document.
+     * @throws XMLSerializableNotFoundException if a class is not annotated with {@link XMLSerializableModel}
+     * @throws IllegalArgumentException         if an index does not suit the type of its field, or two fields with
+     *                                          the same name need range indexes of different types.
+     */
+    public static String generate(Class<?>... classes) throws XMLSerializableNotFoundException {
+        Map<String, String> rangeIndexes = new TreeMap<>(); // Element name -> index type, sorted for a stable output
+        Set<String> ngramIndexes = new TreeSet<>();
+
+        for (Class<?> clazz : classes) {
+            if (!XMLFileUtil.isXMLSerializable(clazz)) {
+                throw new XMLSerializableNotFoundException();
+            }
+            for (ModelMetadata.FieldMapping field : ModelMetadata.of(clazz).getFields()) {
+                XMLIndexed indexed = getAnnotation(clazz, field);
+                if (indexed == null) {
+                    continue;
+                }
+                for (IndexType index : indexed.value()) {
+                    switch (index) {
+                        case RANGE:
+                            String type = rangeType(field);
+                            String previous = rangeIndexes.putIfAbsent(field.getTagName(), type);
+                            if (previous != null && !previous.equals(type)) {
+                                throw new IllegalArgumentException("Conflicting range index types for " + field.getTagName()
+                                        + ": " + previous + " and " + type);
+                            }
+                            break;
+                        case NGRAM:
+                            if (field.getType() != String.class) {
+                                throw new IllegalArgumentException("N-gram index needs a string field, " + field.getName() + " is not.");
+                            }
+                            ngramIndexes.add(field.getTagName());
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            }
+        }
+
+        try {
+            return write(rangeIndexes, ngramIndexes);
+        } catch (XMLStreamException e) {
+            throw new IllegalStateException("Cannot write the index configuration.", e);
+        }
+    }
+
+    /**
+     * Reads the index annotation of a mapped field.
+     *
+     * @param clazz the class declaring the field.
+     * @param field the field mapping.
+     * @return      the annotation, or {@code null} if the field is not indexed.
+     */
+    private static XMLIndexed getAnnotation(Class<?> clazz, ModelMetadata.FieldMapping field) {
+        try {
+            return clazz.getDeclaredField(field.getName()).getAnnotation(XMLIndexed.class);
+        } catch (NoSuchFieldException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Chooses the range index type matching the way a field is written.
+     *
+     * @param field                     the field mapping.
+     * @return                          the XML Schema type of the index.
+     * @throws IllegalArgumentException if the field type has no range index type.
+     */
+    private static String rangeType(ModelMetadata.FieldMapping field) {
+        Class<?> type = field.getType();
+        if (type == String.class) {
+            return "xs:string";
+        } else if (type == int.class || type == Integer.class || type == long.class || type == Long.class
+                || type == short.class || type == Short.class) {
+            return "xs:integer";
+        } else if (type == double.class || type == Double.class || type == float.class || type == Float.class) {
+            return "xs:double";
+        } else if (type == boolean.class || type == Boolean.class) {
+            return "xs:boolean";
+        }
+        // Dates are written with Date.toString(), which is not an xs:date
+        String reason = type == Date.class ? " (dates are not written as xs:date)" : "";
+        throw new IllegalArgumentException("No range index type for field " + field.getName() + " of type " + type.getName() + reason);
+    }
+
+    /**
+     * Writes the configuration document.
+     *
+     * @param rangeIndexes        the type of each range-indexed element.
+     * @param ngramIndexes        the n-gram indexed elements.
+     * @return                    the document.
+     * @throws XMLStreamException if the writer fails.
+     */
+    private static String write(Map<String, String> rangeIndexes, Set<String> ngramIndexes) throws XMLStreamException {
+        StringWriter out = new StringWriter();
+        XMLStreamWriter writer = new IndentingXMLStreamWriter(XMLOutputFactory.newInstance().createXMLStreamWriter(out));
+
+        writer.writeStartElement("collection");
+        writer.writeDefaultNamespace(COLLECTION_CONFIG_NAMESPACE);
+        writer.writeStartElement("index");
+        writer.writeNamespace("xs", XML_SCHEMA_NAMESPACE);
+
+        if (!rangeIndexes.isEmpty()) {
+            writer.writeStartElement("range");
+            for (Map.Entry<String, String> index : rangeIndexes.entrySet()) {
+                writer.writeEmptyElement("create");
+                writer.writeAttribute("qname", index.getKey());
+                writer.writeAttribute("type", index.getValue());
+            }
+            writer.writeEndElement();
+        }
+        for (String qname : ngramIndexes) {
+            writer.writeEmptyElement("ngram");
+            writer.writeAttribute("qname", qname);
+        }
+
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.close();
+        return out.toString();
+    }
+}
@@ -0,0 +1,17 @@
+package org.phinix.lib.common;
+
+/**
+ * The eXist-db indexes that {@link XMLIndexed} can declare on a field.
+ */
+public enum IndexType {
+    /**
+     * A typed range index, used by comparisons such as {@code $item/year < $p0} and by
+     * {@code starts-with}. The index type follows the field type.
+     */
+    RANGE,
+
+    /**
+     * An n-gram index on a string field, used by {@code contains} and other substring searches.
+     */
+    NGRAM
+}
@@ -0,0 +1,228 @@
+package org.phinix.lib.common;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ModelMetadata is the mapping plan of a class annotated with {@link XMLSerializableModel}: its tag
+ * name, its fields with their tag names and typed converters, and {@link MethodHandle} accessors
+ * for the constructor and every field.
+ *
+ * <p>The plan is built once per class and cached, so serialization ({@link XMLFileUtil}) and
+ * deserialization ({@link XMLStreamMapper}) no longer call {@code getDeclaredFields()} or toggle
+ * field accessibility for every object.</p>
+ *
+ * @param <T> the mapped class.
+ */
+public final class ModelMetadata<T> {
+    private static final ClassValue<ModelMetadata<?>> cache = new ClassValue<>() {
+        @Override
+        protected ModelMetadata<?> computeValue(Class<?> type) {
+            return new ModelMetadata<>(type);
+        }
+    };
+
+    private final Class<T> type;
+    private final String tagName;
+    private final MethodHandle constructor; // () -> Object, or null without a no-arg constructor
+    private final List<FieldMapping> fields;
+    private final Map<String, FieldMapping> fieldsByTag;
+
+    /**
+     * Builds the mapping plan of a class.
+     *
+     * @param type the class.
+     */
+    private ModelMetadata(Class<T> type) {
+        this.type = type;
+        this.tagName = XMLFileUtil.getObjectTagName(type);
+
+        MethodHandles.Lookup lookup;
+        try {
+            lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Cannot access " + type.getName(), e);
+        }
+        this.constructor = findConstructor(lookup, type);
+
+        List<FieldMapping> mappings = new ArrayList<>();
+        Map<String, FieldMapping> byTag = new HashMap<>();
+        for (Field field : type.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers()) || field.isSynthetic()) {
+                continue;
+            }
+            FieldMapping mapping = new FieldMapping(lookup, field);
+            mappings.add(mapping);
+            byTag.put(mapping.getTagName(), mapping);
+        }
+        this.fields = Collections.unmodifiableList(mappings);
+        this.fieldsByTag = byTag;
+    }
+
+    /**
+     * Retrieves the cached mapping plan of a class, building it on first use.
+     *
+     * @param type the class.
+     * @param <T>  the class type.
+     * @return     the mapping plan.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> ModelMetadata<T> of(Class<T> type) {
+        return (ModelMetadata<T>) cache.get(type);
+    }
+
+    /**
+     * Finds the no-arg constructor of a class.
+     *
+     * @param lookup the lookup with private access to the class.
+     * @param type   the class.
+     * @return       a handle of type {@code () -> Object}, or {@code null} if there is no such constructor.
+     */
+    private static MethodHandle findConstructor(MethodHandles.Lookup lookup, Class<?> type) {
+        try {
+            return lookup.findConstructor(type, MethodType.methodType(void.class)).asType(MethodType.methodType(Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    public String getTagName() {
+        return tagName;
+    }
+
+    public List<FieldMapping> getFields() {
+        return fields;
+    }
+
+    /**
+     * Looks up the field mapped to an element name.
+     *
+     * @param tagName the element name.
+     * @return        the field mapping, or {@code null} if no field uses that name.
+     */
+    public FieldMapping getField(String tagName) {
+        return fieldsByTag.get(tagName);
+    }
+
+    /**
+     * Creates a new instance through the no-arg constructor.
+     *
+     * @return                       the new instance.
+     * @throws IllegalStateException if the class has no no-arg constructor or it fails.
+     */
+    @SuppressWarnings("unchecked")
+    public T newInstance() {
+        if (constructor == null) {
+            throw new IllegalStateException("No no-arg constructor in " + type.getName());
+        }
+        try {
+            return (T) (Object) constructor.invokeExact();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot instantiate " + type.getName(), e);
+        }
+    }
+
+    /**
+     * The mapping of one field: its element name, its converter and handles to read and write it.
+     */
+    public static final class FieldMapping {
+        private final String name;
+        private final String tagName;
+        private final Class<?> type;
+        private final ValueConverter converter;
+        private final MethodHandle getter; // (Object) -> Object
+        private final MethodHandle setter; // (Object, Object) -> void, or null for final fields
+
+        private FieldMapping(MethodHandles.Lookup lookup, Field field) {
+            this.name = field.getName();
+            this.tagName = field.getName();
+            this.type = field.getType();
+            this.converter = ValueConverter.forType(field.getType());
+            try {
+                this.getter = lookup.unreflectGetter(field)
+                        .asType(MethodType.methodType(Object.class, Object.class));
+                this.setter = Modifier.isFinal(field.getModifiers()) ? null : lookup.unreflectSetter(field)
+                        .asType(MethodType.methodType(void.class, Object.class, Object.class));
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Cannot access field " + field.getName(), e);
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getTagName() {
+            return tagName;
+        }
+
+        public Class<?> getType() {
+            return type;
+        }
+
+        /**
+         * Reads the field.
+         *
+         * @param target the object to read from.
+         * @return       the field value, boxed for primitive fields.
+         */
+        public Object get(Object target) {
+            try {
+                return (Object) getter.invokeExact(target);
+            } catch (Throwable e) {
+                throw new IllegalStateException("Cannot read field " + name, e);
+            }
+        }
+
+        /**
+         * Writes the field.
+         *
+         * @param target the object to write to.
+         * @param value  the value, boxed for primitive fields.
+         */
+        public void set(Object target, Object value) {
+            if (setter == null) {
+                throw new IllegalStateException("Field " + name + " is final.");
+            }
+            try {
+                setter.invokeExact(target, value);
+            } catch (Throwable e) {
+                throw new IllegalStateException("Cannot write field " + name, e);
+            }
+        }
+
+        /**
+         * Reads the field as element text.
+         *
+         * @param target the object to read from.
+         * @return       the text, or {@code null} if the field is null.
+         */
+        public String format(Object target) {
+            Object value = get(target);
+            return value == null ? null : converter.format(value);
+        }
+
+        /**
+         * Converts element text and writes it to the field.
+         *
+         * @param target     the object to write to.
+         * @param text       the element text.
+         * @throws Exception if the text cannot be converted to the field type.
+         */
+        public void parse(Object target, String text) throws Exception {
+            set(target, converter.parse(text));
+        }
+    }
+}
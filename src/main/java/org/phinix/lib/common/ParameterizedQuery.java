@@ -0,0 +1,85 @@
+package org.phinix.lib.common;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A ParameterizedQuery is an XQuery whose values are bound as external variables instead of being
+ * written into its text. Queries built from the same conditions have the same text whatever the
+ * values, so eXist can reuse their compiled form, and values cannot change the query's structure.
+ *
+ * <p>Instances are immutable and are built by {@link XQueryBuilder}.</p>
+ */
+public final class ParameterizedQuery {
+    public static final int NO_LIMIT = -1;
+
+    private final String collectionPath;
+    private final String query;
+    private final Map<String, Object> variables;
+    private final int offset;
+    private final int limit;
+    private final boolean includesTotal;
+
+    /**
+     * Creates a parameterized query.
+     *
+     * @param collectionPath the path of the collection the query runs against.
+     * @param query          the query text, declaring every variable as external.
+     * @param variables      the value of each variable, by name without the {@code $}.
+     */
+    public ParameterizedQuery(String collectionPath, String query, Map<String, Object> variables) {
+        this(collectionPath, query, variables, 0, NO_LIMIT, false);
+    }
+
+    /**
+     * Creates a parameterized query that returns a window of its matches.
+     *
+     * @param collectionPath the path of the collection the query runs against.
+     * @param query          the query text, declaring every variable as external.
+     * @param variables      the value of each variable, by name without the {@code $}.
+     * @param offset         the number of matches skipped.
+     * @param limit          the maximum number of matches returned, or {@link #NO_LIMIT}.
+     * @param includesTotal  whether the first result is the total number of matches, before the window.
+     */
+    ParameterizedQuery(String collectionPath, String query, Map<String, Object> variables, int offset, int limit, boolean includesTotal) {
+        this.collectionPath = collectionPath;
+        this.query = query;
+        this.variables = Collections.unmodifiableMap(new LinkedHashMap<>(variables));
+        this.offset = offset;
+        this.limit = limit;
+        this.includesTotal = includesTotal;
+    }
+
+    public String getCollectionPath() {
+        return collectionPath;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public Map<String, Object> getVariables() {
+        return variables;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return {@code true} if the first result of the query is the total number of matches, followed by the matches themselves.
+     */
+    public boolean includesTotal() {
+        return includesTotal;
+    }
+
+    @Override
+    public String toString() {
+        return query + " " + variables;
+    }
+}
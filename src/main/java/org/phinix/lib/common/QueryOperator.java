@@ -0,0 +1,55 @@
+package org.phinix.lib.common;
+
+/**
+ * The comparison operators accepted by {@link XQueryBuilder#where}. Only these operators can
+ * appear in a built query, so no caller-supplied text ever reaches the query string.
+ */
+public enum QueryOperator {
+    EQ("=", "%s = %s"),
+    NE("!=", "%s != %s"),
+    LT("<", "%s < %s"),
+    LE("<=", "%s <= %s"),
+    GT(">", "%s > %s"),
+    GE(">=", "%s >= %s"),
+    CONTAINS("contains", "contains(%s, %s)"),
+    STARTS_WITH("starts-with", "starts-with(%s, %s)");
+
+    private final String symbol;
+    private final String template; // Format of the condition: field path first, variable second
+
+    QueryOperator(String symbol, String template) {
+        this.symbol = symbol;
+        this.template = template;
+    }
+
+    /**
+     * Finds the operator written with a symbol, as in {@code "year < 1950"}.
+     *
+     * @param symbol                    the operator symbol (e.g. {@code "<"} or {@code "contains"}).
+     * @return                          the operator.
+     * @throws IllegalArgumentException if no operator uses that symbol.
+     */
+    public static QueryOperator fromSymbol(String symbol) {
+        for (QueryOperator operator : values()) {
+            if (operator.symbol.equals(symbol)) {
+                return operator;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported operator: " + symbol);
+    }
+
+    public String getSymbol() {
+        return symbol;
+    }
+
+    /**
+     * Writes the condition comparing a field with a variable.
+     *
+     * @param fieldPath the path of the field (e.g. {@code $item/year}).
+     * @param variable  the variable reference (e.g. {@code $p0}).
+     * @return          the condition.
+     */
+    String toCondition(String fieldPath, String variable) {
+        return String.format(template, fieldPath, variable);
+    }
+}
@@ -0,0 +1,56 @@
+package org.phinix.lib.common;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * A ValueConverter turns the text of an XML element into a field value and back. One converter is
+ * chosen per field type when the {@link ModelMetadata} of a class is built, so the type is no longer
+ * inspected for every value.
+ */
+public interface ValueConverter {
+    /**
+     * Converts the text of an element to a field value.
+     *
+     * @param text       the element text.
+     * @return           the converted value.
+     * @throws Exception if the text cannot be converted.
+     */
+    Object parse(String text) throws Exception;
+
+    /**
+     * Converts a field value to element text.
+     *
+     * @param value the non-null field value.
+     * @return      the element text.
+     */
+    default String format(Object value) {
+        return value.toString();
+    }
+
+    /**
+     * Selects the converter for a field type.
+     *
+     * @param type the type of the field.
+     * @return     the converter; for unsupported types, a converter that can format but fails to parse.
+     */
+    static ValueConverter forType(Class<?> type) {
+        if (type == String.class) {
+            return text -> text;
+        } else if (type == int.class || type == Integer.class) {
+            return Integer::parseInt;
+        } else if (type == long.class || type == Long.class) {
+            return Long::parseLong;
+        } else if (type == double.class || type == Double.class) {
+            return Double::parseDouble;
+        } else if (type == boolean.class || type == Boolean.class) {
+            return Boolean::parseBoolean;
+        } else if (type == Date.class) {
+            return text -> new SimpleDateFormat("yyyy-MM-dd").parse(text); // SimpleDateFormat is not thread-safe
+        } else {
+            return text -> {
+                throw new Exception("Unsupported field type: " + type.getName());
+            };
+        }
+    }
+}
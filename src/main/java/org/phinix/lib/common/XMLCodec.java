@@ -0,0 +1,35 @@
+package org.phinix.lib.common;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * An XMLCodec reads and writes one {@link XMLSerializableModel} class with straight-line StAX code.
+ *
+ * <p>Codecs are generated at compile time by the {@code xml-codegen} annotation processor as
+ * {@code <ClassName>XMLCodec} in the package of the model class. {@link XMLCodecs} picks them up
+ * automatically; classes without a generated codec are mapped through {@link ModelMetadata}.</p>
+ *
+ * @param <T> the model class.
+ */
+public interface XMLCodec<T> {
+    /**
+     * Reads one object. The reader is positioned on the start tag of the object element and is left
+     * on its end tag.
+     *
+     * @param reader              the StAX reader.
+     * @return                    the object.
+     * @throws XMLStreamException if the XML cannot be read or a value cannot be parsed.
+     */
+    T read(XMLStreamReader reader) throws XMLStreamException;
+
+    /**
+     * Writes one object as an element named after its class, with one child element per non-null field.
+     *
+     * @param writer              the StAX writer.
+     * @param object              the object to write.
+     * @throws XMLStreamException if the XML cannot be written.
+     */
+    void write(XMLStreamWriter writer, T object) throws XMLStreamException;
+}
@@ -0,0 +1,57 @@
+package org.phinix.lib.common;
+
+import java.util.Optional;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The XMLCodecs class finds the {@link XMLCodec} generated for a model class, if there is one.
+ * The lookup is done once per class and cached.
+ */
+public class XMLCodecs {
+    private static final Logger logger = Logger.getLogger(XMLCodecs.class.getName());
+    private static final String CODEC_SUFFIX = "XMLCodec"; // Generated codecs are named <ClassName>XMLCodec
+
+    private static final ClassValue<Optional<XMLCodec<?>>> cache = new ClassValue<>() {
+        @Override
+        protected Optional<XMLCodec<?>> computeValue(Class<?> type) {
+            return Optional.ofNullable(load(type));
+        }
+    };
+
+    private XMLCodecs() {}
+
+    /**
+     * Retrieves the generated codec of a class.
+     *
+     * @param clazz the model class.
+     * @param <T>   the model type.
+     * @return      the codec, or {@code null} if none was generated and reflection must be used.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> XMLCodec<T> find(Class<T> clazz) {
+        return (XMLCodec<T>) cache.get(clazz).orElse(null);
+    }
+
+    /**
+     * Loads and instantiates the codec class generated next to a model class.
+     *
+     * @param type the model class.
+     * @return     the codec, or {@code null} if it does not exist.
+     */
+    private static XMLCodec<?> load(Class<?> type) {
+        try {
+            Class<?> codecClass = Class.forName(type.getName() + CODEC_SUFFIX, true, type.getClassLoader());
+            if (!XMLCodec.class.isAssignableFrom(codecClass)) {
+                return null;
+            }
+            logger.fine("Using generated codec for " + type.getName());
+            return (XMLCodec<?>) codecClass.getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            logger.log(Level.WARNING, "Cannot load generated codec for " + type.getName(), e);
+            return null;
+        }
+    }
+}
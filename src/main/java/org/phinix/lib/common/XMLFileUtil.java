@@ -2,17 +2,28 @@ package org.phinix.lib.common;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.lang.reflect.Field;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
 import java.util.List;
+import java.util.stream.Stream;
 
 /**
  * The XMLManager class provides utility methods to generate an XML file from a list of Java objects.
@@ -20,6 +31,8 @@ import java.util.List;
  * creation of XML files with a customizable root element.
  */
 public class XMLFileUtil {
+    private static final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance(); // Thread-safe once configured
+
     /**
      * Generates an XML file from a list of objects and saves it to the specified file path.
      * This method converts each object in the list to an XML element and adds it to a root element.
@@ -83,6 +96,146 @@ public class XMLFileUtil {
         writeXmlToFile(document, filePath);
     }
 
+    /**
+     * Converts a single object into an XML document whose root element is the object itself
+     * (e.g. {@code <book>...</book>}), ready to be stored in the database.
+     *
+     * @param object                            the object to convert
+     * @return                                  the XML document
+     * @throws Exception                        if an error occurs during XML generation
+     * @throws XMLSerializableNotFoundException if the object is not annotated with {@link XMLSerializableModel}
+     */
+    public static Document toDocument(Object object) throws Exception, XMLSerializableNotFoundException {
+        if (!isXMLSerializable(object.getClass())) {
+            throw new XMLSerializableNotFoundException();
+        }
+
+        Document document = createDocument();
+        appendObject(object, document, document);
+        return document;
+    }
+
+    /**
+     * Serializes an XML document to a string without the XML declaration, as eXist-db returns
+     * stored documents.
+     *
+     * @param document   the XML document
+     * @return           the XML text
+     * @throws Exception if an error occurs during the transformation
+     */
+    public static String toXmlString(Document document) throws Exception {
+        Transformer transformer = TransformerFactory.newInstance().newTransformer();
+        configureTransformer(transformer);
+        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+
+        StringWriter writer = new StringWriter();
+        transformer.transform(new DOMSource(document), new StreamResult(writer));
+        return writer.toString();
+    }
+
+    /**
+     * Streams objects to an XML file, writing each object as soon as it is read from the iterator.
+     * Unlike {@link #generateXmlFromObjects(List, String, String)}, no DOM is built, so memory use does not
+     * grow with the number of objects and collections larger than the heap can be exported.
+     *
+     * @param <T>                               the type of the objects
+     * @param clazz                             the class of the objects, used to check the annotation and infer the root tag
+     * @param objects                           the objects to write; consumed as they are written
+     * @param path                              the file to write; created or replaced
+     * @param rootElementTag                    the tag name for the root element. If null, it is inferred from the class
+     * @param prettyPrint                       whether to put each element on its own indented line
+     * @return                                  the number of objects written
+     * @throws Exception                        if an error occurs during XML generation or file writing
+     * @throws XMLSerializableNotFoundException if the class is not annotated with {@link XMLSerializableModel}
+     */
+    public static <T> long writeXmlFromObjects(Class<T> clazz, Iterator<? extends T> objects, Path path, String rootElementTag,
+                                               boolean prettyPrint) throws Exception, XMLSerializableNotFoundException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path))) {
+            return writeXmlFromObjects(clazz, objects, out, rootElementTag, prettyPrint);
+        }
+    }
+
+    /**
+     * Streams objects to an XML file. The stream is consumed but not closed.
+     *
+     * @param <T>                               the type of the objects
+     * @param clazz                             the class of the objects, used to check the annotation and infer the root tag
+     * @param objects                           the objects to write
+     * @param path                              the file to write; created or replaced
+     * @param rootElementTag                    the tag name for the root element. If null, it is inferred from the class
+     * @param prettyPrint                       whether to put each element on its own indented line
+     * @return                                  the number of objects written
+     * @throws Exception                        if an error occurs during XML generation or file writing
+     * @throws XMLSerializableNotFoundException if the class is not annotated with {@link XMLSerializableModel}
+     * @see                                     #writeXmlFromObjects(Class, Iterator, Path, String, boolean)
+     */
+    public static <T> long writeXmlFromObjects(Class<T> clazz, Stream<? extends T> objects, Path path, String rootElementTag,
+                                               boolean prettyPrint) throws Exception, XMLSerializableNotFoundException {
+        return writeXmlFromObjects(clazz, objects.iterator(), path, rootElementTag, prettyPrint);
+    }
+
+    /**
+     * Streams objects to an output stream. The stream is consumed but not closed.
+     *
+     * @param <T>                               the type of the objects
+     * @param clazz                             the class of the objects, used to check the annotation and infer the root tag
+     * @param objects                           the objects to write
+     * @param out                               the output stream; flushed but not closed
+     * @param rootElementTag                    the tag name for the root element. If null, it is inferred from the class
+     * @param prettyPrint                       whether to put each element on its own indented line
+     * @return                                  the number of objects written
+     * @throws Exception                        if an error occurs during XML generation or writing
+     * @throws XMLSerializableNotFoundException if the class is not annotated with {@link XMLSerializableModel}
+     * @see                                     #writeXmlFromObjects(Class, Iterator, Path, String, boolean)
+     */
+    public static <T> long writeXmlFromObjects(Class<T> clazz, Stream<? extends T> objects, OutputStream out, String rootElementTag,
+                                               boolean prettyPrint) throws Exception, XMLSerializableNotFoundException {
+        return writeXmlFromObjects(clazz, objects.iterator(), out, rootElementTag, prettyPrint);
+    }
+
+    /**
+     * Streams objects to an output stream, writing each object as soon as it is read from the iterator.
+     * Objects are written by their generated codec when there is one and through the cached
+     * {@link ModelMetadata} otherwise, and are not retained once written.
+     *
+     * @param <T>                               the type of the objects
+     * @param clazz                             the class of the objects, used to check the annotation and infer the root tag
+     * @param objects                           the objects to write; consumed as they are written
+     * @param out                               the output stream; flushed but not closed
+     * @param rootElementTag                    the tag name for the root element. If null, it is inferred from the class
+     * @param prettyPrint                       whether to put each element on its own indented line
+     * @return                                  the number of objects written
+     * @throws Exception                        if an error occurs during XML generation or writing
+     * @throws XMLSerializableNotFoundException if the class is not annotated with {@link XMLSerializableModel}
+     */
+    public static <T> long writeXmlFromObjects(Class<T> clazz, Iterator<? extends T> objects, OutputStream out, String rootElementTag,
+                                               boolean prettyPrint) throws Exception, XMLSerializableNotFoundException {
+        if (!isXMLSerializable(clazz)) {
+            throw new XMLSerializableNotFoundException();
+        }
+
+        XMLStreamWriter writer = outputFactory.createXMLStreamWriter(out, "UTF-8");
+        if (prettyPrint) {
+            writer = new IndentingXMLStreamWriter(writer);
+        }
+
+        long count = 0;
+        try {
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeStartElement(rootElementTag != null ? rootElementTag : inferRootElementTag(clazz));
+            while (objects.hasNext()) {
+                writeObject(writer, objects.next());
+                count++;
+            }
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.flush();
+        } finally {
+            writer.close(); // Does not close the output stream
+        }
+        return count;
+    }
+
     /**
      * Checks if the class of the first object in the list is annotated with the {@link XMLSerializableModel} annotation.
      *
@@ -133,7 +286,16 @@ public class XMLFileUtil {
      * @return        the inferred root element tag
      */
     private static <T> String inferRootElementTagFromObjects(List<T> objects) {
-        Class<?> clazz = getSpecimenClass(objects);
+        return inferRootElementTag(getSpecimenClass(objects));
+    }
+
+    /**
+     * Infers the tag name for the root element from a class: the class name in lowercase, followed by an 's'.
+     *
+     * @param clazz the class of the objects under the root element
+     * @return      the inferred root element tag
+     */
+    private static String inferRootElementTag(Class<?> clazz) {
         return clazz.getSimpleName().toLowerCase() + "s";
     }
 
@@ -151,13 +313,12 @@ public class XMLFileUtil {
     /**
      * Adds the objects in the list to the XML document by calling the appendObjectToXml method for each object.
      *
-     * @param objects                 the list of objects to add to the XML
-     * @param document                the XML document
-     * @param rootElement             the root element of the XML document
-     * @param <T>                     the type of the objects in the list
-     * @throws IllegalAccessException if the field of an object cannot be accessed via reflection
+     * @param objects     the list of objects to add to the XML
+     * @param document    the XML document
+     * @param rootElement the root element of the XML document
+     * @param <T>         the type of the objects in the list
      */
-    private static <T> void appendObjectsToXml(List<T> objects, Document document, Element rootElement) throws IllegalAccessException {
+    private static <T> void appendObjectsToXml(List<T> objects, Document document, Element rootElement) {
         for (T object : objects) {
             appendObjectToXml(object, document, rootElement);
         }
@@ -168,24 +329,88 @@ public class XMLFileUtil {
      * Converts an individual object to an XML element and appends it to the root element.
      * Each field of the object becomes a child element with the field name as the tag and the field's value as the text content.
      *
-     * @param object                  the object to convert to XML
-     * @param document                the XML document
-     * @param rootElement             the root element to append the object element to
-     * @throws IllegalAccessException if the field of the object cannot be accessed via reflection
+     * @param object      the object to convert to XML
+     * @param document    the XML document
+     * @param rootElement the root element to append the object element to
+     */
+    private static void appendObjectToXml(Object object, Document document, Element rootElement) {
+        appendObject(object, document, rootElement);
+    }
+
+    /**
+     * Appends the element of an object to a parent node, using the codec generated for its class
+     * when there is one and the cached reflective mapping otherwise.
+     *
+     * @param object   the object to convert to XML
+     * @param document the XML document that owns the parent
+     * @param parent   the node the object element is appended to
+     */
+    @SuppressWarnings("unchecked")
+    private static void appendObject(Object object, Document document, Node parent) {
+        XMLCodec<Object> codec = (XMLCodec<Object>) XMLCodecs.find(object.getClass());
+        if (codec == null) {
+            parent.appendChild(createObjectElement(object, document));
+            return;
+        }
+        try {
+            XMLStreamWriter writer = outputFactory.createXMLStreamWriter(new DOMResult(parent));
+            codec.write(writer, object);
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw new IllegalStateException("Cannot write " + object.getClass().getName(), e);
+        }
+    }
+
+    /**
+     * Writes the element of an object to a StAX writer, using the codec generated for its class
+     * when there is one and the cached reflective mapping otherwise.
+     *
+     * @param writer              the writer, positioned inside the parent element
+     * @param object              the object to write
+     * @throws XMLStreamException if the writer fails
+     */
+    @SuppressWarnings("unchecked")
+    private static void writeObject(XMLStreamWriter writer, Object object) throws XMLStreamException {
+        XMLCodec<Object> codec = (XMLCodec<Object>) XMLCodecs.find(object.getClass());
+        if (codec != null) {
+            codec.write(writer, object);
+            return;
+        }
+
+        ModelMetadata<?> metadata = ModelMetadata.of(object.getClass());
+        writer.writeStartElement(metadata.getTagName());
+        for (ModelMetadata.FieldMapping field : metadata.getFields()) {
+            String value = field.format(object);
+            if (value != null) {
+                writer.writeStartElement(field.getTagName());
+                writer.writeCharacters(value);
+                writer.writeEndElement();
+            }
+        }
+        writer.writeEndElement();
+    }
+
+    /**
+     * Converts an individual object to an XML element. Each field of the object becomes a child element
+     * with the field name as the tag and the field's value as the text content. Fields are read through
+     * the cached {@link ModelMetadata} of the class.
+     *
+     * @param object   the object to convert to XML
+     * @param document the XML document that owns the element
+     * @return         the element representing the object
      */
-    private static void appendObjectToXml(Object object, Document document, Element rootElement) throws IllegalAccessException {
-        Element objectElement = document.createElement(getObjectTagName(object));
-        rootElement.appendChild(objectElement);
+    private static Element createObjectElement(Object object, Document document) {
+        ModelMetadata<?> metadata = ModelMetadata.of(object.getClass());
+        Element objectElement = document.createElement(metadata.getTagName());
 
-        // Reflectively append each field of the object as an XML element
-        for (Field field : object.getClass().getDeclaredFields()) {
-            field.setAccessible(true);
-            Object value = field.get(object);
+        // Append each non-null field of the object as an XML element
+        for (ModelMetadata.FieldMapping field : metadata.getFields()) {
+            String value = field.format(object);
             if (value != null) {
-                appendFieldToXml(document, objectElement, field.getName(), value);
+                appendFieldToXml(document, objectElement, field.getTagName(), value);
             }
-            field.setAccessible(false);
         }
+        return objectElement;
     }
 
     /**
@@ -215,11 +440,11 @@ public class XMLFileUtil {
      * @param document      the XML document
      * @param objectElement the element to append the field to
      * @param fieldName     the name of the field
-     * @param value         the value of the field
+     * @param value         the text of the field
      */
-    private static void appendFieldToXml(Document document, Element objectElement, String fieldName, Object value) {
+    private static void appendFieldToXml(Document document, Element objectElement, String fieldName, String value) {
         Element fieldElement = document.createElement(fieldName);
-        fieldElement.setTextContent(value.toString());
+        fieldElement.setTextContent(value);
         objectElement.appendChild(fieldElement);
     }
 
@@ -0,0 +1,35 @@
+package org.phinix.lib.common;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * <p>Marks a field of an {@link XMLSerializableModel} class as indexed by eXist-db, so that the
+ * conditions {@link XQueryBuilder} generates on it are answered from an index instead of a scan
+ * of every item.</p>
+ *
+ * <p>The annotation only describes the index; {@link IndexConfiguration} turns the annotated fields
+ * into a {@code collection.xconf}, and {@code TheDao.configureIndexes} installs it.</p>
+ *
+ * Example usage:
+ *
+ * <pre>
+ * @XMLSerializableModel
+ * public class Book {
+ *     @XMLIndexed({IndexType.RANGE, IndexType.NGRAM})
+ *     private String title;
+ *     @XMLIndexed
+ *     private int year;
+ * }
+ * </pre>
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface XMLIndexed {
+    /**
+     * @return the indexes to create on the field.
+     */
+    IndexType[] value() default IndexType.RANGE;
+}
@@ -0,0 +1,232 @@
+package org.phinix.lib.common;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * The XMLStreamMapper class maps XML content to objects of classes annotated with
+ * {@link XMLSerializableModel} in a single pass over the XML events, without building a DOM.
+ *
+ * <p>Every element named after the class (e.g. {@code <book>}) becomes a new object, and the first
+ * element inside it named after a field (e.g. {@code <title>}) provides that field's value. The
+ * same logic is available for StAX, through {@link #readObjects(String, Class)}, and for SAX,
+ * through {@link #contentHandler(Class, Consumer)}, which can be fed directly by
+ * {@code XMLResource.getContentAsSAX}.</p>
+ *
+ * <p>When a codec was generated for the class (see {@link XMLCodecs}), the StAX path delegates to it.</p>
+ */
+public class XMLStreamMapper {
+    private static final XMLInputFactory inputFactory = createInputFactory(); // Thread-safe once configured
+
+    /**
+     * Creates the StAX factory, with DTDs and external entities disabled since the mapped content
+     * comes from query results.
+     *
+     * @return the configured factory.
+     */
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * Maps an XML string to the objects of the specified class it contains.
+     *
+     * @param content    The XML content.
+     * @param clazz      The class to which the objects will be mapped.
+     * @param <T>        The type of the class to return.
+     * @return           The mapped objects, in document order.
+     * @throws Exception If the XML cannot be parsed or a value cannot be converted.
+     */
+    public static <T> List<T> readObjects(String content, Class<T> clazz) throws Exception {
+        XMLStreamReader reader = inputFactory.createXMLStreamReader(new StringReader(content));
+        try {
+            return readObjects(reader, clazz);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Maps the events of a StAX reader to the objects of the specified class, reading until the end
+     * of the document.
+     *
+     * @param reader     The StAX reader positioned at or before the first object element.
+     * @param clazz      The class to which the objects will be mapped.
+     * @param <T>        The type of the class to return.
+     * @return           The mapped objects, in document order.
+     * @throws Exception If the XML cannot be parsed or a value cannot be converted.
+     */
+    public static <T> List<T> readObjects(XMLStreamReader reader, Class<T> clazz) throws Exception {
+        List<T> objects = new ArrayList<>();
+
+        // Prefer the codec generated at compile time, which needs no reflection
+        XMLCodec<T> codec = XMLCodecs.find(clazz);
+        if (codec != null) {
+            String tagName = XMLFileUtil.getObjectTagName(clazz);
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && tagName.equals(reader.getLocalName())) {
+                    objects.add(codec.read(reader));
+                }
+            }
+            return objects;
+        }
+
+        ObjectAssembler<T> assembler = new ObjectAssembler<>(clazz, objects::add);
+
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    assembler.startElement(reader.getLocalName());
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                    assembler.characters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    assembler.endElement();
+                    break;
+                default:
+                    break;
+            }
+        }
+        return objects;
+    }
+
+    /**
+     * Reads the result of a grouped aggregate built by {@link XQueryBuilder#aggregateBy}, a
+     * {@code <groups>} element holding one {@code <group key="...">value</group>} per group.
+     *
+     * @param content    The XML content.
+     * @return           The value of each group by key, in document order; empty values are kept as empty strings.
+     * @throws Exception If the XML cannot be parsed.
+     */
+    public static Map<String, String> readGroups(String content) throws Exception {
+        Map<String, String> groups = new LinkedHashMap<>();
+        XMLStreamReader reader = inputFactory.createXMLStreamReader(new StringReader(content));
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && XQueryBuilder.GROUP_ELEMENT.equals(reader.getLocalName())) {
+                    String key = reader.getAttributeValue(null, XQueryBuilder.KEY_ATTRIBUTE);
+                    groups.put(key, reader.getElementText().trim());
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return groups;
+    }
+
+    /**
+     * Creates a SAX handler that maps the events it receives to objects of the specified class
+     * and passes each object to the sink as soon as its element ends.
+     *
+     * @param clazz The class to which the objects will be mapped.
+     * @param sink  Receives every mapped object.
+     * @param <T>   The type of the class to map.
+     * @return      The SAX handler.
+     */
+    public static <T> ContentHandler contentHandler(Class<T> clazz, Consumer<T> sink) {
+        ObjectAssembler<T> assembler = new ObjectAssembler<>(clazz, sink);
+        return new DefaultHandler() {
+            @Override
+            public void startElement(String uri, String localName, String qName, Attributes attributes) {
+                assembler.startElement(localName == null || localName.isEmpty() ? qName : localName);
+            }
+
+            @Override
+            public void characters(char[] ch, int start, int length) {
+                assembler.characters(ch, start, length);
+            }
+
+            @Override
+            public void endElement(String uri, String localName, String qName) {
+                assembler.endElement();
+            }
+        };
+    }
+
+    /**
+     * The state machine shared by the StAX and SAX paths. It tracks the element depth, creates an
+     * object when its element starts, collects the text of field elements and hands the object to
+     * the sink when its element ends.
+     *
+     * @param <T> The type of the objects being assembled.
+     */
+    private static final class ObjectAssembler<T> {
+        private final ModelMetadata<T> metadata;
+        private final Consumer<T> sink;
+        private final StringBuilder text = new StringBuilder();
+        private final Set<String> assigned = new HashSet<>(); // Fields already set on the current object
+
+        private int depth;                        // Depth of the current element in the document
+        private T current;                        // Object being assembled, or null outside an object element
+        private int objectDepth;                  // Depth of the current object element
+        private ModelMetadata.FieldMapping field; // Field whose text is being collected, or null
+        private int fieldDepth;                   // Depth of the element providing the field's text
+
+        private ObjectAssembler(Class<T> clazz, Consumer<T> sink) {
+            this.metadata = ModelMetadata.of(clazz); // Cached mapping plan, built once per class
+            this.sink = sink;
+        }
+
+        private void startElement(String name) {
+            depth++;
+            if (current == null) {
+                if (metadata.getTagName().equals(name)) {
+                    current = metadata.newInstance();
+                    objectDepth = depth;
+                    assigned.clear();
+                }
+            } else if (field == null) {
+                // Only the first element with the field's name provides its value
+                ModelMetadata.FieldMapping candidate = metadata.getField(name);
+                if (candidate != null && assigned.add(name)) {
+                    field = candidate;
+                    fieldDepth = depth;
+                    text.setLength(0);
+                }
+            }
+        }
+
+        private void characters(char[] ch, int start, int length) {
+            if (field != null) {
+                text.append(ch, start, length);
+            }
+        }
+
+        private void endElement() {
+            if (field != null && depth == fieldDepth) {
+                setField();
+                field = null;
+            } else if (current != null && depth == objectDepth) {
+                sink.accept(current);
+                current = null;
+            }
+            depth--;
+        }
+
+        private void setField() {
+            try {
+                field.parse(current, text.toString());
+            } catch (Exception e) {
+                throw new IllegalStateException("Cannot map field " + field.getName() + " of " + metadata.getType().getName(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,478 @@
+package org.phinix.lib.common;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * XQueryBuilder builds {@link ParameterizedQuery parameterized queries} over the objects of one
+ * {@link XMLSerializableModel} class. Field names are checked against the class and values are
+ * bound as external variables, so the query text only depends on which fields and operators are
+ * used:
+ *
+ * <pre>
+ * ParameterizedQuery query = XQueryFactory.query("/db/bookshop/novels", Book.class)
+ *         .where("year", QueryOperator.LT, 1950)
+ *         .build();
+ * </pre>
+ *
+ * builds
+ *
+ * <pre>
+ * declare variable $collection external;
+ * declare variable $p0 external;
+ * for $item in collection($collection)//book
+ * where $item/year &lt; $p0
+ * return $item
+ * </pre>
+ *
+ * <p>Results can be sorted with {@link #orderBy} and cut to a window with {@link #offset},
+ * {@link #limit} or {@link #page}. The window is applied on the server with {@code subsequence},
+ * and its bounds are bound as variables too, so every page of a listing shares one query text.
+ * {@link #select} returns only the listed fields of each object.</p>
+ *
+ * <p>{@link #count}, {@link #aggregate}, {@link #countBy} and {@link #aggregateBy} build queries
+ * that compute {@link AggregateFunction aggregates} on the server instead of returning objects.</p>
+ *
+ * @param <T> the class of the queried objects.
+ */
+public class XQueryBuilder<T> {
+    static final String COLLECTION_VARIABLE = "collection";
+    static final String ITEM_VARIABLE = "$item";
+    static final String ITEMS_VARIABLE = "$items";
+    static final String OFFSET_VARIABLE = "offset";
+    static final String LIMIT_VARIABLE = "limit";
+    static final String GROUPS_ELEMENT = "groups"; // Compact result of grouped aggregates
+    static final String GROUP_ELEMENT = "group";
+    static final String KEY_ATTRIBUTE = "key";
+
+    private final String collectionPath;
+    private final ModelMetadata<T> metadata;
+    private final List<String> conditions = new ArrayList<>();
+    private final Map<String, Object> variables = new LinkedHashMap<>();
+    private final List<String> orderings = new ArrayList<>();
+    private final List<String> selectedFields = new ArrayList<>(); // Paths of the projected fields; empty returns whole items
+    private int offset = 0;
+    private int limit = ParameterizedQuery.NO_LIMIT;
+    private boolean includeTotal;
+
+    /**
+     * Creates a builder; use {@link XQueryFactory#query(String, Class)}.
+     *
+     * @param collectionPath the path of the collection to query.
+     * @param clazz          the class of the queried objects.
+     */
+    XQueryBuilder(String collectionPath, Class<T> clazz) {
+        this.collectionPath = collectionPath;
+        this.metadata = ModelMetadata.of(clazz);
+    }
+
+    /**
+     * Adds a condition on a field. Conditions are combined with {@code and}.
+     *
+     * @param field                     the name of the field.
+     * @param operator                  the comparison operator.
+     * @param value                     the value to compare with; strings, numbers and booleans keep their type,
+     *                                  other values are bound as their string form.
+     * @return                          this builder.
+     * @throws IllegalArgumentException if the class has no such field or the value is null.
+     */
+    public XQueryBuilder<T> where(String field, QueryOperator operator, Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Value of " + field + " must not be null.");
+        }
+        String variable = "p" + variables.size();
+        conditions.add(operator.toCondition(fieldPath(field), "$" + variable));
+        variables.put(variable, bindable(value));
+        return this;
+    }
+
+    /**
+     * Adds a condition on a field, with the operator given by its symbol.
+     *
+     * @param field                     the name of the field.
+     * @param operator                  the operator symbol (e.g. {@code "<"} or {@code "contains"}).
+     * @param value                     the value to compare with.
+     * @return                          this builder.
+     * @throws IllegalArgumentException if the class has no such field, the operator is not supported or the value is null.
+     * @see                             #where(String, QueryOperator, Object)
+     */
+    public XQueryBuilder<T> where(String field, String operator, Object value) {
+        return where(field, QueryOperator.fromSymbol(operator), value);
+    }
+
+    /**
+     * Returns only some fields of each object. The server builds a reduced element such as
+     * {@code <book>{$item/title}</book>}, so the payload and the mapping time depend on the
+     * selected fields only; the other fields of the mapped objects keep their default values.
+     *
+     * @param fields                    the names of the fields to return.
+     * @return                          this builder.
+     * @throws IllegalArgumentException if the class has no such field.
+     */
+    public XQueryBuilder<T> select(String... fields) {
+        for (String field : fields) {
+            String path = fieldPath(field);
+            if (!selectedFields.contains(path)) {
+                selectedFields.add(path);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Sorts the results by a field. Numeric fields are compared as numbers, other fields as
+     * strings; items without the field come first. Later calls add tie-breakers.
+     *
+     * @param field                     the name of the field.
+     * @param ascending                 {@code false} to sort in descending order.
+     * @return                          this builder.
+     * @throws IllegalArgumentException if the class has no such field.
+     */
+    public XQueryBuilder<T> orderBy(String field, boolean ascending) {
+        String path = fieldPath(field);
+        String key = isNumeric(mapping(field).getType()) ? "number(" + path + ")" : path;
+        orderings.add(key + (ascending ? " ascending" : " descending") + " empty least");
+        return this;
+    }
+
+    /**
+     * Skips the first matches.
+     *
+     * @param offset                    the number of matches to skip.
+     * @return                          this builder.
+     * @throws IllegalArgumentException if the offset is negative.
+     */
+    public XQueryBuilder<T> offset(int offset) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Offset must not be negative.");
+        }
+        this.offset = offset;
+        return this;
+    }
+
+    /**
+     * Returns at most a number of matches.
+     *
+     * @param limit                     the maximum number of matches.
+     * @return                          this builder.
+     * @throws IllegalArgumentException if the limit is not positive.
+     */
+    public XQueryBuilder<T> limit(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be greater than zero.");
+        }
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * Returns one page of matches.
+     *
+     * @param pageNumber                the page, starting at 0.
+     * @param pageSize                  the number of matches per page.
+     * @return                          this builder.
+     * @throws IllegalArgumentException if the page number is negative or the page size is not positive.
+     */
+    public XQueryBuilder<T> page(int pageNumber, int pageSize) {
+        if (pageNumber < 0) {
+            throw new IllegalArgumentException("Page number must not be negative.");
+        }
+        limit(pageSize);
+        return offset(Math.multiplyExact(pageNumber, pageSize));
+    }
+
+    /**
+     * Makes the query also return the total number of matches before the window is applied, in
+     * the same round trip. Read it with {@code XQueryDao.executePage}.
+     *
+     * @return this builder.
+     */
+    public XQueryBuilder<T> withTotal() {
+        this.includeTotal = true;
+        return this;
+    }
+
+    /**
+     * Builds the query.
+     *
+     * @return the query with its variable bindings.
+     */
+    public ParameterizedQuery build() {
+        boolean windowed = offset > 0 || limit != ParameterizedQuery.NO_LIMIT;
+
+        Map<String, Object> bindings = filterBindings();
+        if (windowed) {
+            bindings.put(OFFSET_VARIABLE, offset);
+        }
+        if (limit != ParameterizedQuery.NO_LIMIT) {
+            bindings.put(LIMIT_VARIABLE, limit);
+        }
+
+        StringBuilder query = declarations(bindings);
+
+        // Matches are bound to a sequence first when they must be cut or counted
+        boolean wrapped = windowed || includeTotal;
+        if (wrapped) {
+            query.append("let ").append(ITEMS_VARIABLE).append(" :=\n");
+        }
+        appendMatches(query);
+
+        // Sort before the window is applied
+        if (!orderings.isEmpty()) {
+            query.append("order by ").append(String.join(", ", orderings)).append("\n");
+        }
+
+        // A wrapped sequence is projected after the window, so only returned items are constructed
+        query.append("return ").append(wrapped ? ITEM_VARIABLE : projection());
+
+        if (wrapped) {
+            String window = ITEMS_VARIABLE;
+            if (windowed) {
+                window = "subsequence(" + ITEMS_VARIABLE + ", $" + OFFSET_VARIABLE + " + 1"
+                        + (limit != ParameterizedQuery.NO_LIMIT ? ", $" + LIMIT_VARIABLE : "") + ")";
+            }
+            if (!selectedFields.isEmpty()) {
+                window = "for " + ITEM_VARIABLE + " in " + window + " return " + projection();
+            }
+            query.append("\nreturn ").append(includeTotal ? "(count(" + ITEMS_VARIABLE + "), " + window + ")" : window);
+        }
+
+        return new ParameterizedQuery(collectionPath, query.toString(), bindings, offset, limit, includeTotal);
+    }
+
+    /**
+     * Builds a query counting the matches. Run it with {@code XQueryDao.executeCount}.
+     *
+     * @return                          the query with its variable bindings.
+     * @throws IllegalStateException    if a projection, an ordering or a window was set.
+     * @see                             #aggregate(AggregateFunction, String)
+     */
+    public ParameterizedQuery count() {
+        return buildAggregate(null, AggregateFunction.COUNT, null);
+    }
+
+    /**
+     * Builds a query aggregating a field over all matches, so that only one number comes back:
+     *
+     * <pre>
+     * declare variable $collection external;
+     * let $items :=
+     * for $item in collection($collection)//book
+     * return $item
+     * return avg($items/year)
+     * </pre>
+     *
+     * Run it with {@code XQueryDao.executeAggregate}. Fields are converted to numbers by the
+     * aggregate functions themselves; {@code COUNT} counts the values of the field.
+     *
+     * @param function                  the aggregate function.
+     * @param field                     the name of the aggregated field.
+     * @return                          the query with its variable bindings.
+     * @throws IllegalArgumentException if the class has no such field, or the function needs numbers and the field is not numeric.
+     * @throws IllegalStateException    if a projection, an ordering or a window was set.
+     */
+    public ParameterizedQuery aggregate(AggregateFunction function, String field) {
+        return buildAggregate(null, function, field);
+    }
+
+    /**
+     * Builds a query counting the matches of each value of a field. Run it with
+     * {@code XQueryDao.executeGroupedCount}.
+     *
+     * @param groupField                the name of the field to group by.
+     * @return                          the query with its variable bindings.
+     * @throws IllegalArgumentException if the class has no such field.
+     * @throws IllegalStateException    if a projection, an ordering or a window was set.
+     * @see                             #aggregateBy(String, AggregateFunction, String)
+     */
+    public ParameterizedQuery countBy(String groupField) {
+        return buildAggregate(groupField, AggregateFunction.COUNT, null);
+    }
+
+    /**
+     * Builds a query aggregating a field for each value of another field. Groups are sorted by
+     * their value and come back as one small element, so the whole result is a single resource:
+     *
+     * <pre>
+     * declare variable $collection external;
+     * &lt;groups&gt;{
+     * for $item in collection($collection)//book
+     * group by $key := string(($item/author)[1])
+     * order by $key
+     * return &lt;group key="{$key}"&gt;{sum($item/year)}&lt;/group&gt;
+     * }&lt;/groups&gt;
+     * </pre>
+     *
+     * Run it with {@code XQueryDao.executeGroupedAggregate}.
+     *
+     * @param groupField                the name of the field to group by.
+     * @param function                  the aggregate function.
+     * @param field                     the name of the aggregated field.
+     * @return                          the query with its variable bindings.
+     * @throws IllegalArgumentException if the class has no such field, or the function needs numbers and the field is not numeric.
+     * @throws IllegalStateException    if a projection, an ordering or a window was set.
+     */
+    public ParameterizedQuery aggregateBy(String groupField, AggregateFunction function, String field) {
+        return buildAggregate(groupField, function, field);
+    }
+
+    /**
+     * Builds an aggregate query, grouped or not.
+     *
+     * @param groupField                the name of the field to group by, or {@code null} for a single value.
+     * @param function                  the aggregate function.
+     * @param field                     the name of the aggregated field, or {@code null} to aggregate the items.
+     * @return                          the query with its variable bindings.
+     * @throws IllegalArgumentException if a field is unknown or not numeric while the function needs numbers.
+     * @throws IllegalStateException    if a projection, an ordering or a window was set.
+     */
+    private ParameterizedQuery buildAggregate(String groupField, AggregateFunction function, String field) {
+        if (!selectedFields.isEmpty() || !orderings.isEmpty() || offset > 0 || limit != ParameterizedQuery.NO_LIMIT || includeTotal) {
+            throw new IllegalStateException("Aggregates cannot be combined with select, orderBy, offset, limit or withTotal.");
+        }
+        String fieldTag = null;
+        if (field != null) {
+            ModelMetadata.FieldMapping mapping = mapping(field);
+            if (function.isNumeric() && !isNumeric(mapping.getType())) {
+                throw new IllegalArgumentException(function + " needs a numeric field, " + field + " is not.");
+            }
+            fieldTag = mapping.getTagName();
+        }
+
+        Map<String, Object> bindings = filterBindings();
+        StringBuilder query = declarations(bindings);
+
+        if (groupField == null) {
+            // Aggregate the whole sequence of matches
+            query.append("let ").append(ITEMS_VARIABLE).append(" :=\n");
+            appendMatches(query);
+            query.append("return ").append(ITEM_VARIABLE).append("\n");
+            query.append("return ").append(function.toCall(fieldTag != null ? ITEMS_VARIABLE + "/" + fieldTag : ITEMS_VARIABLE));
+        } else {
+            // After grouping, $item is bound to the matches of the group
+            ModelMetadata.FieldMapping group = mapping(groupField);
+            String key = "$" + KEY_ATTRIBUTE;
+            query.append("<").append(GROUPS_ELEMENT).append(">{\n");
+            appendMatches(query);
+            query.append("group by ").append(key).append(" := string((").append(ITEM_VARIABLE).append("/").append(group.getTagName()).append(")[1])\n");
+            query.append("order by ").append(isNumeric(group.getType()) ? "number(" + key + ")" : key)
+                    .append(" empty least\n");
+            query.append("return <").append(GROUP_ELEMENT).append(" ").append(KEY_ATTRIBUTE).append("=\"{").append(key).append("}\">{")
+                    .append(function.toCall(fieldTag != null ? ITEM_VARIABLE + "/" + fieldTag : ITEM_VARIABLE))
+                    .append("}</").append(GROUP_ELEMENT).append(">\n");
+            query.append("}</").append(GROUPS_ELEMENT).append(">");
+        }
+
+        return new ParameterizedQuery(collectionPath, query.toString(), bindings);
+    }
+
+    /**
+     * Collects the variables bound by every query of this builder: the collection and the condition values.
+     *
+     * @return a modifiable copy of the bindings, in declaration order.
+     */
+    private Map<String, Object> filterBindings() {
+        Map<String, Object> bindings = new LinkedHashMap<>();
+        bindings.put(COLLECTION_VARIABLE, collectionPath);
+        bindings.putAll(variables);
+        return bindings;
+    }
+
+    /**
+     * Starts a query by declaring its external variables.
+     *
+     * @param bindings the bound variables.
+     * @return         the query text so far.
+     */
+    private static StringBuilder declarations(Map<String, Object> bindings) {
+        StringBuilder query = new StringBuilder();
+        for (String variable : bindings.keySet()) {
+            query.append("declare variable $").append(variable).append(" external;\n");
+        }
+        return query;
+    }
+
+    /**
+     * Appends the clauses selecting the matching items into {@value #ITEM_VARIABLE}.
+     *
+     * @param query the query text.
+     */
+    private void appendMatches(StringBuilder query) {
+        query.append("for ").append(ITEM_VARIABLE).append(" in collection($").append(COLLECTION_VARIABLE).append(")//")
+                .append(metadata.getTagName()).append("\n");
+
+        // Add the conditions to the WHERE clause
+        if (!conditions.isEmpty()) {
+            query.append("where ").append(String.join(" and ", conditions)).append("\n");
+        }
+    }
+
+    /**
+     * Resolves the path of a field, checking that the class declares it.
+     *
+     * @param field                     the name of the field.
+     * @return                          the path of the field element relative to the item.
+     * @throws IllegalArgumentException if the class has no such field.
+     */
+    String fieldPath(String field) {
+        return ITEM_VARIABLE + "/" + mapping(field).getTagName();
+    }
+
+    /**
+     * Finds the mapping of a field, checking that the class declares it.
+     *
+     * @param field                     the name of the field.
+     * @return                          the mapping of the field.
+     * @throws IllegalArgumentException if the class has no such field.
+     */
+    private ModelMetadata.FieldMapping mapping(String field) {
+        ModelMetadata.FieldMapping mapping = metadata.getField(field);
+        if (mapping == null) {
+            throw new IllegalArgumentException("No field " + field + " in " + metadata.getType().getName());
+        }
+        return mapping;
+    }
+
+    /**
+     * Writes the expression returned for each item: the item itself, or a constructor holding only the selected fields.
+     *
+     * @return the return expression.
+     */
+    private String projection() {
+        if (selectedFields.isEmpty()) {
+            return ITEM_VARIABLE;
+        }
+        StringBuilder constructor = new StringBuilder("<").append(metadata.getTagName()).append(">");
+        for (String path : selectedFields) {
+            constructor.append("{").append(path).append("}");
+        }
+        return constructor.append("</").append(metadata.getTagName()).append(">").toString();
+    }
+
+    /**
+     * Checks whether a field type is compared as a number.
+     *
+     * @param type the field type.
+     * @return     {@code true} for numeric primitives and their wrappers.
+     */
+    private static boolean isNumeric(Class<?> type) {
+        return type == int.class || type == long.class || type == double.class || type == float.class
+                || type == short.class || type == byte.class || Number.class.isAssignableFrom(type);
+    }
+
+    /**
+     * Converts a value to a type the XML:DB driver binds natively.
+     *
+     * @param value the value.
+     * @return      the value itself for numbers and booleans, its string form otherwise.
+     */
+    static Object bindable(Object value) {
+        if (value instanceof Number || value instanceof Boolean) {
+            return value;
+        }
+        // eXist-db expands entity references in bound strings, so a literal ampersand must be escaped
+        return String.valueOf(value).replace("&", "&amp;");
+    }
+}
@@ -36,6 +36,40 @@ public class XQueryFactory {
         return query.toString();
     }
 
+    /**
+     * Starts a parameterized query over the objects of a class. Unlike {@link #buildQuery}, filter
+     * values are bound as external variables, so they never become part of the query text.
+     *
+     * @param collectionPath                    The path of the collection in the eXist-db database.
+     * @param clazz                             The class of the queried objects.
+     * @param <T>                               The type of the queried objects.
+     * @return                                  The query builder.
+     * @throws XMLSerializableNotFoundException if the class is not annotated with @XMLSerializableModel
+     */
+    public static <T> XQueryBuilder<T> query(String collectionPath, Class<T> clazz) throws XMLSerializableNotFoundException {
+        if (!XMLFileUtil.isXMLSerializable(clazz)) {
+            throw new XMLSerializableNotFoundException();
+        }
+        return new XQueryBuilder<>(collectionPath, clazz);
+    }
+
+    /**
+     * Starts a field-level update of the stored objects of a class, applied on the server with
+     * XQuery Update instead of replacing whole documents.
+     *
+     * @param collectionPath                    The path of the collection in the eXist-db database.
+     * @param clazz                             The class of the updated objects.
+     * @param <T>                               The type of the updated objects.
+     * @return                                  The update builder.
+     * @throws XMLSerializableNotFoundException if the class is not annotated with @XMLSerializableModel
+     */
+    public static <T> XQueryUpdateBuilder<T> update(String collectionPath, Class<T> clazz) throws XMLSerializableNotFoundException {
+        if (!XMLFileUtil.isXMLSerializable(clazz)) {
+            throw new XMLSerializableNotFoundException();
+        }
+        return new XQueryUpdateBuilder<>(collectionPath, clazz);
+    }
+
     /**
      * Method to build an XQuery query with filters and grouping.
      *
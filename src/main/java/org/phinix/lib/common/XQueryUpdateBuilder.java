@@ -0,0 +1,339 @@
+package org.phinix.lib.common;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * XQueryUpdateBuilder builds field-level updates of stored {@link XMLSerializableModel} objects as
+ * eXist-db XQuery Update expressions, so changing one field does not rewrite the whole document:
+ *
+ * <pre>
+ * XQueryUpdateBuilder&lt;Book&gt; update = XQueryFactory.update("/db/bookshop/novels", Book.class)
+ *         .document("dune.xml")
+ *         .set("year", 1965)
+ *         .remove("author");
+ * </pre>
+ *
+ * builds
+ *
+ * <pre>
+ * declare variable $v0 external;
+ * declare variable $v1 external;
+ * (for $item in doc($v0)//book
+ * return (
+ *   if (exists($item/year)) then update value $item/year with $v1 else update insert &lt;year&gt;{$v1}&lt;/year&gt; into $item,
+ *   update delete $item/author,
+ *   1))
+ * </pre>
+ *
+ * <p>Without {@link #document}, every object of the collection matching the {@link #where}
+ * conditions is updated. As in {@link XQueryBuilder}, field names are checked against the class
+ * and values are bound as external variables. Updates can be sent one by one or several at a
+ * time, in one round trip, with {@link #combine}; each returns one item per updated object.</p>
+ *
+ * @param <T> the class of the updated objects.
+ */
+public class XQueryUpdateBuilder<T> {
+    private static final String VARIABLE_PREFIX = "v";
+
+    private final String collectionPath;
+    private final ModelMetadata<T> metadata;
+    private final List<Condition> conditions = new ArrayList<>();
+    private final List<Operation> operations = new ArrayList<>();
+    private String fileName;
+
+    /**
+     * Creates a builder; use {@link XQueryFactory#update(String, Class)}.
+     *
+     * @param collectionPath the path of the collection holding the objects.
+     * @param clazz          the class of the updated objects.
+     */
+    XQueryUpdateBuilder(String collectionPath, Class<T> clazz) {
+        this.collectionPath = collectionPath;
+        this.metadata = ModelMetadata.of(clazz);
+    }
+
+    /**
+     * Restricts the update to the objects of one file of the collection.
+     *
+     * @param fileName                  the name of the file.
+     * @return                          this builder.
+     * @throws IllegalArgumentException if the name is null or empty.
+     */
+    public XQueryUpdateBuilder<T> document(String fileName) {
+        if (fileName == null || fileName.isEmpty()) {
+            throw new IllegalArgumentException("File name must not be null or empty.");
+        }
+        this.fileName = fileName;
+        return this;
+    }
+
+    /**
+     * Only updates the objects whose field matches a condition. Conditions are combined with {@code and}.
+     *
+     * @param field                     the name of the field.
+     * @param operator                  the comparison operator.
+     * @param value                     the value to compare with.
+     * @return                          this builder.
+     * @throws IllegalArgumentException if the class has no such field or the value is null.
+     */
+    public XQueryUpdateBuilder<T> where(String field, QueryOperator operator, Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Value of " + field + " must not be null.");
+        }
+        conditions.add(new Condition(mapping(field), operator, XQueryBuilder.bindable(value)));
+        return this;
+    }
+
+    /**
+     * Only updates the objects whose field matches a condition, with the operator given by its symbol.
+     *
+     * @param field                     the name of the field.
+     * @param operator                  the operator symbol (e.g. {@code "<"} or {@code "contains"}).
+     * @param value                     the value to compare with.
+     * @return                          this builder.
+     * @throws IllegalArgumentException if the class has no such field, the operator is not supported or the value is null.
+     * @see                             #where(String, QueryOperator, Object)
+     */
+    public XQueryUpdateBuilder<T> where(String field, String operator, Object value) {
+        return where(field, QueryOperator.fromSymbol(operator), value);
+    }
+
+    /**
+     * Sets a field, replacing the text of its element with {@code update value}, or adding the
+     * element with {@code update insert} if the object has none (e.g. it was stored while null).
+     *
+     * @param field                     the name of the field.
+     * @param value                     the new value, written as the serializer writes the field.
+     * @return                          this builder.
+     * @throws IllegalArgumentException if the class has no such field or the value is null; use {@link #remove} instead.
+     */
+    public XQueryUpdateBuilder<T> set(String field, Object value) {
+        operations.add(new Operation(OperationType.SET, mapping(field), format(field, value)));
+        return this;
+    }
+
+    /**
+     * Replaces the element of a field with a new one through {@code update replace}. Unlike
+     * {@link #set}, objects without the field are left unchanged.
+     *
+     * @param field                     the name of the field.
+     * @param value                     the new value.
+     * @return                          this builder.
+     * @throws IllegalArgumentException if the class has no such field or the value is null.
+     */
+    public XQueryUpdateBuilder<T> replace(String field, Object value) {
+        operations.add(new Operation(OperationType.REPLACE, mapping(field), format(field, value)));
+        return this;
+    }
+
+    /**
+     * Appends an element for a field to each object through {@code update insert}, whether or
+     * not the object already has one.
+     *
+     * @param field                     the name of the field.
+     * @param value                     the value of the new element.
+     * @return                          this builder.
+     * @throws IllegalArgumentException if the class has no such field or the value is null.
+     */
+    public XQueryUpdateBuilder<T> insert(String field, Object value) {
+        operations.add(new Operation(OperationType.INSERT, mapping(field), format(field, value)));
+        return this;
+    }
+
+    /**
+     * Removes the element of a field through {@code update delete}; the field reads as its default value afterwards.
+     *
+     * @param field                     the name of the field.
+     * @return                          this builder.
+     * @throws IllegalArgumentException if the class has no such field.
+     */
+    public XQueryUpdateBuilder<T> remove(String field) {
+        operations.add(new Operation(OperationType.DELETE, mapping(field), null));
+        return this;
+    }
+
+    public String getCollectionPath() {
+        return collectionPath;
+    }
+
+    /**
+     * Builds the update.
+     *
+     * @return                       the update query; it returns one item per updated object.
+     * @throws IllegalStateException if no field operation was added.
+     */
+    public ParameterizedQuery build() {
+        return combine(List.of(this));
+    }
+
+    /**
+     * Combines several updates into one query, so they are applied in a single round trip, in order.
+     *
+     * @param updates                   the updates, possibly over different classes and collections.
+     * @return                          the combined query, run against the collection of the first update;
+     *                                  it returns one item per updated object.
+     * @throws IllegalArgumentException if there is no update.
+     * @throws IllegalStateException    if an update has no field operation.
+     */
+    public static ParameterizedQuery combine(List<? extends XQueryUpdateBuilder<?>> updates) {
+        if (updates.isEmpty()) {
+            throw new IllegalArgumentException("At least one update is needed.");
+        }
+
+        // Every update numbers its variables after those of the previous ones
+        Map<String, Object> bindings = new LinkedHashMap<>();
+        List<String> expressions = new ArrayList<>(updates.size());
+        for (XQueryUpdateBuilder<?> update : updates) {
+            expressions.add(update.expression(bindings));
+        }
+
+        StringBuilder query = new StringBuilder();
+        for (String variable : bindings.keySet()) {
+            query.append("declare variable $").append(variable).append(" external;\n");
+        }
+        query.append(String.join(",\n", expressions));
+        return new ParameterizedQuery(updates.get(0).getCollectionPath(), query.toString(), bindings);
+    }
+
+    /**
+     * Writes the update expression, binding its values.
+     *
+     * @param bindings               the variables bound so far, which this update adds to.
+     * @return                       the expression.
+     * @throws IllegalStateException if no field operation was added.
+     */
+    private String expression(Map<String, Object> bindings) {
+        if (operations.isEmpty()) {
+            throw new IllegalStateException("Update of " + metadata.getType().getSimpleName() + " has no field operation.");
+        }
+
+        // Select the target objects
+        String item = XQueryBuilder.ITEM_VARIABLE;
+        StringBuilder expression = new StringBuilder("(for ").append(item).append(" in ");
+        if (fileName != null) {
+            expression.append("doc(").append(bind(bindings, XQueryBuilder.bindable(collectionPath + "/" + fileName))).append(")");
+        } else {
+            expression.append("collection(").append(bind(bindings, XQueryBuilder.bindable(collectionPath))).append(")");
+        }
+        expression.append("//").append(metadata.getTagName()).append("\n");
+
+        if (!conditions.isEmpty()) {
+            List<String> clauses = new ArrayList<>(conditions.size());
+            for (Condition condition : conditions) {
+                clauses.add(condition.operator.toCondition(path(condition.field), bind(bindings, condition.value)));
+            }
+            expression.append("where ").append(String.join(" and ", clauses)).append("\n");
+        }
+
+        // Apply every operation, then count the object
+        expression.append("return (\n");
+        for (Operation operation : operations) {
+            String path = path(operation.field);
+            String tag = operation.field.getTagName();
+            String value = operation.value != null ? bind(bindings, XQueryBuilder.bindable(operation.value)) : null;
+            String element = "<" + tag + ">{" + value + "}</" + tag + ">";
+            expression.append("  ");
+            switch (operation.type) {
+                case SET:
+                    expression.append("if (exists(").append(path).append(")) then update value ").append(path).append(" with ").append(value)
+                            .append(" else update insert ").append(element).append(" into ").append(item);
+                    break;
+                case REPLACE:
+                    expression.append("update replace ").append(path).append(" with ").append(element);
+                    break;
+                case INSERT:
+                    expression.append("update insert ").append(element).append(" into ").append(item);
+                    break;
+                case DELETE:
+                    expression.append("update delete ").append(path);
+                    break;
+            }
+            expression.append(",\n");
+        }
+        return expression.append("  1))").toString();
+    }
+
+    /**
+     * Binds a value to the next free variable.
+     *
+     * @param bindings the variables bound so far.
+     * @param value    the value.
+     * @return         the variable reference, e.g. {@code $v3}.
+     */
+    private static String bind(Map<String, Object> bindings, Object value) {
+        String variable = VARIABLE_PREFIX + bindings.size();
+        bindings.put(variable, value);
+        return "$" + variable;
+    }
+
+    private static String path(ModelMetadata.FieldMapping field) {
+        return XQueryBuilder.ITEM_VARIABLE + "/" + field.getTagName();
+    }
+
+    /**
+     * Converts a new field value to the element text the serializer would write for it.
+     *
+     * @param field                     the name of the field.
+     * @param value                     the value.
+     * @return                          the text.
+     * @throws IllegalArgumentException if the value is null.
+     */
+    private String format(String field, Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Value of " + field + " must not be null.");
+        }
+        return ValueConverter.forType(mapping(field).getType()).format(value);
+    }
+
+    /**
+     * Finds the mapping of a field, checking that the class declares it.
+     *
+     * @param field                     the name of the field.
+     * @return                          the mapping of the field.
+     * @throws IllegalArgumentException if the class has no such field.
+     */
+    private ModelMetadata.FieldMapping mapping(String field) {
+        ModelMetadata.FieldMapping mapping = metadata.getField(field);
+        if (mapping == null) {
+            throw new IllegalArgumentException("No field " + field + " in " + metadata.getType().getName());
+        }
+        return mapping;
+    }
+
+    private enum OperationType {
+        SET, REPLACE, INSERT, DELETE
+    }
+
+    /**
+     * A change of one field.
+     */
+    private static final class Operation {
+        private final OperationType type;
+        private final ModelMetadata.FieldMapping field;
+        private final String value; // Null for deletes
+
+        private Operation(OperationType type, ModelMetadata.FieldMapping field, String value) {
+            this.type = type;
+            this.field = field;
+            this.value = value;
+        }
+    }
+
+    /**
+     * A condition the updated objects must match.
+     */
+    private static final class Condition {
+        private final ModelMetadata.FieldMapping field;
+        private final QueryOperator operator;
+        private final Object value;
+
+        private Condition(ModelMetadata.FieldMapping field, QueryOperator operator, Object value) {
+            this.field = field;
+            this.operator = operator;
+            this.value = value;
+        }
+    }
+}
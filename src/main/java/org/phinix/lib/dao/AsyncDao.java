@@ -0,0 +1,269 @@
+package org.phinix.lib.dao;
+
+import org.phinix.lib.common.ParameterizedQuery;
+import org.phinix.lib.service.ExistDB;
+import org.w3c.dom.Document;
+
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * AsyncDao runs the operations of {@link TheDao} and {@link XQueryDao} on an executor and returns
+ * {@link CompletableFuture}s, so a caller can start independent operations at once and wait for
+ * all of them:
+ *
+ * <pre>
+ * try (AsyncDao async = new AsyncDao(existDB)) {
+ *     CompletableFuture&lt;List&lt;Book&gt;&gt; novels = async.executeQuery(novelsQuery, Book.class);
+ *     CompletableFuture&lt;List&lt;Poem&gt;&gt; poems = async.executeQuery(poemsQuery, Poem.class);
+ *     CompletableFuture.allOf(novels, poems).join();
+ * }
+ * </pre>
+ *
+ * <p>By default each operation runs on a virtual thread when the JVM has them (Java 21 or later),
+ * and on a pool of {@code poolSize} platform threads otherwise. Either way the collection pool of
+ * the {@code ExistDB} instance bounds how many operations talk to the database at once; the others
+ * wait for a handle. Checked exceptions complete the future exceptionally, wrapped in a
+ * {@link CompletionException}.</p>
+ */
+public class AsyncDao implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(AsyncDao.class.getName());
+
+    private final TheDao dao;
+    private final XQueryDao queryDao;
+    private final Executor executor;
+    private final boolean ownsExecutor; // Whether close() shuts the executor down
+
+    /**
+     * Creates an async DAO over an ExistDB instance, with the default executor.
+     *
+     * @param existDB the connection instance to eXist-db.
+     */
+    public AsyncDao(ExistDB existDB) {
+        this(new TheDao(existDB), new XQueryDao(existDB), defaultExecutor(existDB.getConfig().getPoolSize()), true);
+    }
+
+    /**
+     * Creates an async DAO running its operations on the given executor, which the caller keeps
+     * ownership of.
+     *
+     * @param dao      the DAO performing the collection and file operations.
+     * @param queryDao the DAO performing the queries.
+     * @param executor the executor running the operations.
+     */
+    public AsyncDao(TheDao dao, XQueryDao queryDao, Executor executor) {
+        this(dao, queryDao, executor, false);
+    }
+
+    private AsyncDao(TheDao dao, XQueryDao queryDao, Executor executor, boolean ownsExecutor) {
+        this.dao = dao;
+        this.queryDao = queryDao;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * Creates the default executor: one virtual thread per operation when the JVM supports them,
+     * otherwise a fixed pool of daemon threads.
+     *
+     * @param poolSize the number of platform threads, used without virtual threads.
+     * @return         the executor.
+     */
+    static ExecutorService defaultExecutor(int poolSize) {
+        // Looked up reflectively so the library still runs on Java 17
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            ExecutorService executor = (ExecutorService) factory.invoke(null);
+            logger.info("Async operations run on virtual threads.");
+            return executor;
+        } catch (ReflectiveOperationException e) {
+            logger.info("Virtual threads are not available, async operations run on " + poolSize + " platform threads.");
+        }
+
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(poolSize, runnable -> {
+            Thread thread = new Thread(runnable, "existdb-async-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Creates a collection if it does not exist.
+     *
+     * @see TheDao#createCollection(String)
+     */
+    public CompletableFuture<Void> createCollection(String path) {
+        return run(() -> dao.createCollection(path));
+    }
+
+    /**
+     * Adds an XML file to a collection.
+     *
+     * @see TheDao#addFileToCollection(String, String, Document)
+     */
+    public CompletableFuture<Void> addFileToCollection(String collectionPath, String fileName, Document document) {
+        return run(() -> dao.addFileToCollection(collectionPath, fileName, document));
+    }
+
+    /**
+     * Adds many XML files to a collection. The iterator is consumed on the executor thread.
+     *
+     * @see TheDao#addFilesToCollection(String, Iterator, int)
+     */
+    public CompletableFuture<BatchResult> addFilesToCollection(String collectionPath, Iterator<Map.Entry<String, Document>> documents, int chunkSize) {
+        return supply(() -> dao.addFilesToCollection(collectionPath, documents, chunkSize));
+    }
+
+    /**
+     * Retrieves an XML file from a collection.
+     *
+     * @see TheDao#getFileFromCollection(String, String)
+     */
+    public CompletableFuture<String> getFileFromCollection(String collectionPath, String fileName) {
+        return supply(() -> dao.getFileFromCollection(collectionPath, fileName));
+    }
+
+    /**
+     * Deletes a file from a collection.
+     *
+     * @see TheDao#deleteFileFromCollection(String, String)
+     */
+    public CompletableFuture<Void> deleteFileFromCollection(String collectionPath, String fileName) {
+        return run(() -> dao.deleteFileFromCollection(collectionPath, fileName));
+    }
+
+    /**
+     * Updates an XML file in a collection.
+     *
+     * @see TheDao#updateFileInCollection(String, String, Document)
+     */
+    public CompletableFuture<Void> updateFileInCollection(String collectionPath, String fileName, Document document) {
+        return run(() -> dao.updateFileInCollection(collectionPath, fileName, document));
+    }
+
+    /**
+     * Checks if a file exists in a collection.
+     *
+     * @see TheDao#fileExistsInCollection(String, String)
+     */
+    public CompletableFuture<Boolean> fileExistsInCollection(String collectionPath, String fileName) {
+        return supply(() -> dao.fileExistsInCollection(collectionPath, fileName));
+    }
+
+    /**
+     * Executes an XQuery query and maps its results.
+     *
+     * @see XQueryDao#executeQuery(String, String, Class)
+     */
+    public <T> CompletableFuture<List<T>> executeQuery(String query, String collectionPath, Class<T> clazz) {
+        return supply(() -> queryDao.executeQuery(query, collectionPath, clazz));
+    }
+
+    /**
+     * Executes a parameterized query and maps its results.
+     *
+     * @see XQueryDao#executeQuery(ParameterizedQuery, Class)
+     */
+    public <T> CompletableFuture<List<T>> executeQuery(ParameterizedQuery query, Class<T> clazz) {
+        return supply(() -> queryDao.executeQuery(query, clazz));
+    }
+
+    /**
+     * Executes a query built with a window and returns that page.
+     *
+     * @see XQueryDao#executePage(ParameterizedQuery, Class)
+     */
+    public <T> CompletableFuture<Page<T>> executePage(ParameterizedQuery query, Class<T> clazz) {
+        return supply(() -> queryDao.executePage(query, clazz));
+    }
+
+    /**
+     * Executes a query built with {@code count()}.
+     *
+     * @see XQueryDao#executeCount(ParameterizedQuery)
+     */
+    public CompletableFuture<Long> executeCount(ParameterizedQuery query) {
+        return supply(() -> queryDao.executeCount(query));
+    }
+
+    /**
+     * Executes a query built with {@code countBy(field)}.
+     *
+     * @see XQueryDao#executeGroupedCount(ParameterizedQuery, Class)
+     */
+    public <K> CompletableFuture<Map<K, Long>> executeGroupedCount(ParameterizedQuery query, Class<K> keyType) {
+        return supply(() -> queryDao.executeGroupedCount(query, keyType));
+    }
+
+    /**
+     * Shuts down the default executor; operations already submitted still complete. An executor
+     * passed to the constructor is left running.
+     */
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            ((ExecutorService) executor).shutdown();
+        }
+    }
+
+    /**
+     * Runs a task on the executor.
+     *
+     * @param task the task, which may throw checked exceptions.
+     * @param <T>  the type of the result.
+     * @return     a future completed with the result of the task, or with its exception wrapped in a {@link CompletionException}.
+     */
+    private <T> CompletableFuture<T> supply(Operation<T> task) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return task.call();
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                // Includes XMLSerializableNotFoundException, which is not an Exception
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Runs a task without a result on the executor.
+     *
+     * @param task the task, which may throw checked exceptions.
+     * @return     a future completed when the task ends.
+     */
+    private CompletableFuture<Void> run(Task task) {
+        return supply(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * A task with a result that may throw checked exceptions.
+     *
+     * @param <T> the type of the result.
+     */
+    @FunctionalInterface
+    private interface Operation<T> {
+        T call() throws Throwable;
+    }
+
+    /**
+     * A task without a result that may throw checked exceptions.
+     */
+    @FunctionalInterface
+    private interface Task {
+        void run() throws Throwable;
+    }
+}
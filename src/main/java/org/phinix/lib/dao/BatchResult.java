@@ -0,0 +1,90 @@
+package org.phinix.lib.dao;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of a bulk ingest, made of the results of every chunk. A failed document or chunk
+ * does not abort the batch, so the failures are reported here instead of being thrown.
+ */
+public class BatchResult {
+    private final List<ChunkResult> chunks;
+
+    /**
+     * Creates the result of a batch.
+     *
+     * @param chunks the results of every chunk, in order.
+     */
+    public BatchResult(List<ChunkResult> chunks) {
+        this.chunks = Collections.unmodifiableList(new ArrayList<>(chunks));
+    }
+
+    public List<ChunkResult> getChunks() {
+        return chunks;
+    }
+
+    /**
+     * @return the number of documents stored across all chunks.
+     */
+    public long getStored() {
+        long stored = 0;
+        for (ChunkResult chunk : chunks) {
+            stored += chunk.getStored();
+        }
+        return stored;
+    }
+
+    /**
+     * @return the number of documents that could not be stored across all chunks.
+     */
+    public long getFailed() {
+        long failed = 0;
+        for (ChunkResult chunk : chunks) {
+            failed += chunk.getFailed();
+        }
+        return failed;
+    }
+
+    /**
+     * @return every failed document of the batch, by file name.
+     */
+    public Map<String, Exception> getFailures() {
+        Map<String, Exception> failures = new LinkedHashMap<>();
+        for (ChunkResult chunk : chunks) {
+            failures.putAll(chunk.getFailures());
+        }
+        return failures;
+    }
+
+    /**
+     * @return the time spent storing all chunks, in nanoseconds.
+     */
+    public long getElapsedNanos() {
+        long elapsed = 0;
+        for (ChunkResult chunk : chunks) {
+            elapsed += chunk.getElapsedNanos();
+        }
+        return elapsed;
+    }
+
+    /**
+     * @return the number of documents stored per second over the whole batch.
+     */
+    public double getDocumentsPerSecond() {
+        long elapsed = getElapsedNanos();
+        return elapsed == 0 ? 0 : getStored() * 1_000_000_000.0 / elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchResult{" +
+                "chunks=" + chunks.size() +
+                ", stored=" + getStored() +
+                ", failed=" + getFailed() +
+                ", documentsPerSecond=" + String.format("%.1f", getDocumentsPerSecond()) +
+                '}';
+    }
+}
@@ -0,0 +1,69 @@
+package org.phinix.lib.dao;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The outcome of storing one chunk of a bulk ingest: how many documents were stored, which ones
+ * failed and how long the chunk took.
+ */
+public class ChunkResult {
+    private final int index;
+    private final int stored;
+    private final Map<String, Exception> failures;
+    private final long elapsedNanos;
+
+    /**
+     * Creates the result of a chunk.
+     *
+     * @param index        the position of the chunk in the batch, starting at 0.
+     * @param stored       the number of documents stored.
+     * @param failures     the documents that could not be stored, by file name.
+     * @param elapsedNanos the time spent on the chunk, in nanoseconds.
+     */
+    public ChunkResult(int index, int stored, Map<String, Exception> failures, long elapsedNanos) {
+        this.index = index;
+        this.stored = stored;
+        this.failures = Collections.unmodifiableMap(failures);
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getStored() {
+        return stored;
+    }
+
+    public int getFailed() {
+        return failures.size();
+    }
+
+    public Map<String, Exception> getFailures() {
+        return failures;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Calculates the throughput of the chunk.
+     *
+     * @return the number of documents stored per second.
+     */
+    public double getDocumentsPerSecond() {
+        return elapsedNanos == 0 ? 0 : stored * 1_000_000_000.0 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkResult{" +
+                "index=" + index +
+                ", stored=" + stored +
+                ", failed=" + failures.size() +
+                ", documentsPerSecond=" + String.format("%.1f", getDocumentsPerSecond()) +
+                '}';
+    }
+}
@@ -0,0 +1,153 @@
+package org.phinix.lib.dao;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+
+/**
+ * ContentSize measures XML content in UTF-8 bytes, the size it has when the driver transfers it.
+ * Content read as text is measured exactly. Content pushed as SAX events is measured from the
+ * markup and text of the events, which leaves out only the XML declaration, comments and the
+ * escaping of special characters.
+ */
+final class ContentSize {
+
+    private ContentSize() {
+    }
+
+    /**
+     * Computes the UTF-8 size of a text without encoding it.
+     *
+     * @param text the text.
+     * @return     its size in bytes.
+     */
+    static long utf8Length(CharSequence text) {
+        long bytes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            bytes += utf8Length(text.charAt(i));
+        }
+        return bytes;
+    }
+
+    /**
+     * Computes the UTF-8 size of a range of characters without encoding it.
+     *
+     * @param chars  the characters.
+     * @param start  the first character of the range.
+     * @param length the number of characters of the range.
+     * @return       its size in bytes.
+     */
+    static long utf8Length(char[] chars, int start, int length) {
+        long bytes = 0;
+        for (int i = start; i < start + length; i++) {
+            bytes += utf8Length(chars[i]);
+        }
+        return bytes;
+    }
+
+    /**
+     * Gives the UTF-8 size of one UTF-16 unit; each half of a surrogate pair counts for half of
+     * the four bytes of the pair.
+     */
+    private static int utf8Length(char c) {
+        if (c < 0x80) {
+            return 1;
+        }
+        if (c < 0x800) {
+            return 2;
+        }
+        return Character.isSurrogate(c) ? 2 : 3;
+    }
+
+    /**
+     * Wraps a content handler so that the size of the content it receives is measured.
+     *
+     * @param delegate the handler receiving the events.
+     * @return         the measuring handler.
+     */
+    static Measuring measuring(ContentHandler delegate) {
+        return new Measuring(delegate);
+    }
+
+    /**
+     * A content handler that adds up the UTF-8 size of the markup and text passing through it.
+     */
+    static final class Measuring implements ContentHandler {
+        private final ContentHandler delegate;
+        private long bytes;
+
+        private Measuring(ContentHandler delegate) {
+            this.delegate = delegate;
+        }
+
+        /**
+         * @return the UTF-8 size of the content received so far.
+         */
+        long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public void setDocumentLocator(Locator locator) {
+            delegate.setDocumentLocator(locator);
+        }
+
+        @Override
+        public void startDocument() throws SAXException {
+            delegate.startDocument();
+        }
+
+        @Override
+        public void endDocument() throws SAXException {
+            delegate.endDocument();
+        }
+
+        @Override
+        public void startPrefixMapping(String prefix, String uri) throws SAXException {
+            delegate.startPrefixMapping(prefix, uri);
+        }
+
+        @Override
+        public void endPrefixMapping(String prefix) throws SAXException {
+            delegate.endPrefixMapping(prefix);
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+            bytes += utf8Length(qName) + 2; // <name>
+            for (int i = 0; i < atts.getLength(); i++) {
+                bytes += utf8Length(atts.getQName(i)) + utf8Length(atts.getValue(i)) + 4; // name="value" and a space
+            }
+            delegate.startElement(uri, localName, qName, atts);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            bytes += utf8Length(qName) + 3; // </name>
+            delegate.endElement(uri, localName, qName);
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException {
+            bytes += utf8Length(ch, start, length);
+            delegate.characters(ch, start, length);
+        }
+
+        @Override
+        public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+            bytes += length;
+            delegate.ignorableWhitespace(ch, start, length);
+        }
+
+        @Override
+        public void processingInstruction(String target, String data) throws SAXException {
+            delegate.processingInstruction(target, data);
+        }
+
+        @Override
+        public void skippedEntity(String name) throws SAXException {
+            delegate.skippedEntity(name);
+        }
+    }
+}
@@ -4,10 +4,19 @@ import org.phinix.lib.common.XMLSerializableNotFoundException;
 import org.w3c.dom.Document;
 import org.xmldb.api.base.XMLDBException;
 
+import java.util.Iterator;
+import java.util.Map;
+import java.util.stream.Stream;
+
 public interface Dao {
     void createCollection(String path) throws XMLDBException;
     void addFileToCollection(String collectionPath, String fileName, Document document) throws XMLDBException, XMLSerializableNotFoundException;
     String getFileFromCollection(String collectionPath, String fileName) throws XMLDBException;
     void deleteFileFromCollection(String collectionPath, String fileName) throws XMLDBException;
     void updateFileInCollection(String collectionPath, String fileName, Document document) throws XMLDBException;
+    BatchResult addFilesToCollection(String collectionPath, Iterator<Map.Entry<String, Document>> documents, int chunkSize) throws XMLDBException;
+
+    default BatchResult addFilesToCollection(String collectionPath, Stream<Map.Entry<String, Document>> documents, int chunkSize) throws XMLDBException {
+        return addFilesToCollection(collectionPath, documents.iterator(), chunkSize);
+    }
 }
@@ -0,0 +1,70 @@
+package org.phinix.lib.dao;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.OptionalLong;
+
+/**
+ * One page of query results, as returned by {@link XQueryDao#executePage}. Only the objects of
+ * the page were transferred and mapped; the total number of matches is known when the query was
+ * built with {@code withTotal()}.
+ *
+ * @param <T> the type of the results.
+ */
+public class Page<T> {
+    private final List<T> content;
+    private final int offset;
+    private final int limit;
+    private final long total; // -1 when the query did not count the matches
+
+    /**
+     * Creates a page.
+     *
+     * @param content the objects of the page.
+     * @param offset  the number of matches before the page.
+     * @param limit   the requested page size, or {@code -1} without a limit.
+     * @param total   the total number of matches, or {@code -1} if unknown.
+     */
+    public Page(List<T> content, int offset, int limit, long total) {
+        this.content = Collections.unmodifiableList(content);
+        this.offset = offset;
+        this.limit = limit;
+        this.total = total;
+    }
+
+    public List<T> getContent() {
+        return content;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the total number of matches, if the query counted them.
+     */
+    public OptionalLong getTotal() {
+        return total >= 0 ? OptionalLong.of(total) : OptionalLong.empty();
+    }
+
+    /**
+     * Tells whether more matches follow this page. Without a total, a full page is assumed to have a successor.
+     *
+     * @return {@code true} if a next page may exist.
+     */
+    public boolean hasNext() {
+        if (total >= 0) {
+            return offset + content.size() < total;
+        }
+        return limit > 0 && content.size() >= limit;
+    }
+
+    @Override
+    public String toString() {
+        return "Page{offset=" + offset + ", size=" + content.size() + ", total=" + (total >= 0 ? total : "?") + "}";
+    }
+}
@@ -0,0 +1,487 @@
+package org.phinix.lib.dao;
+
+import org.phinix.lib.common.XMLFileUtil;
+import org.phinix.lib.common.XMLSerializableNotFoundException;
+import org.phinix.lib.service.CollectionChangeListener.ChangeType;
+import org.w3c.dom.Document;
+import org.xmldb.api.base.Collection;
+import org.xmldb.api.base.XMLDBException;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * ParallelIngestPipeline loads large numbers of model objects into a collection using several
+ * threads on top of {@link TheDao}.
+ *
+ * <p>Model objects go to a pool of serialization workers that convert them into DOM documents.
+ * The documents are put on a bounded queue, drained by store workers that write them in chunks,
+ * each worker on its own pooled collection handle. The producer blocks once the queue and the
+ * serialization backlog are full, so a slow server cannot make it hold an unbounded number of
+ * objects in memory.</p>
+ *
+ * <pre>
+ * ParallelIngestPipeline pipeline = ParallelIngestPipeline.builder(dao)
+ *         .serializationWorkers(4)
+ *         .storeWorkers(4)
+ *         .queueCapacity(1000)
+ *         .chunkSize(100)
+ *         .build();
+ * BatchResult result = pipeline.ingest("/db/bookshop/novels", books.iterator(), book -> book.getTitle() + ".xml");
+ * </pre>
+ *
+ * <p>The collection pool of the {@code ExistDB} instance should allow at least as many handles
+ * as there are store workers, otherwise workers wait for each other.</p>
+ */
+public class ParallelIngestPipeline {
+    private static final Logger logger = Logger.getLogger(ParallelIngestPipeline.class.getName());
+    static final Map.Entry<String, Document> END_OF_INPUT = new AbstractMap.SimpleImmutableEntry<>("", null); // Tells a store worker to stop
+    private static final long FLUSH_INTERVAL_MILLIS = 100; // Store a partial chunk if nothing arrives for this long
+    private static final String NO_STORE_WORKER = "Every store worker stopped before the document could be stored.";
+
+    private final ChunkStore store;
+    private final int serializationWorkers;
+    private final int storeWorkers;
+    private final int queueCapacity;
+    private final int chunkSize;
+
+    /**
+     * Private constructor, use {@link #builder(TheDao)}.
+     *
+     * @param builder the builder holding the settings.
+     */
+    private ParallelIngestPipeline(Builder builder) {
+        this.store = builder.store;
+        this.serializationWorkers = builder.serializationWorkers;
+        this.storeWorkers = builder.storeWorkers;
+        this.queueCapacity = builder.queueCapacity;
+        this.chunkSize = builder.chunkSize;
+    }
+
+    /**
+     * Creates a builder for a pipeline that writes through the given DAO.
+     *
+     * @param dao the DAO used to reach the database.
+     * @return    a new builder.
+     */
+    public static Builder builder(TheDao dao) {
+        return new Builder(new DaoChunkStore(dao));
+    }
+
+    /**
+     * Creates a builder for a pipeline that writes through the given chunk store.
+     *
+     * @param store where the chunks are stored.
+     * @return      a new builder.
+     */
+    static Builder builder(ChunkStore store) {
+        return new Builder(store);
+    }
+
+    /**
+     * Serializes and stores every object of the iterator, blocking until all of them have been
+     * processed. Failed objects are reported in the result and do not stop the load.
+     *
+     * @param collectionPath  the path of the collection.
+     * @param objects         the objects to store; they must be annotated with {@code @XMLSerializableModel}.
+     * @param fileNames       gives the file name each object is stored under.
+     * @param <T>             the type of the objects.
+     * @return                the stored and failed documents and the throughput of every chunk.
+     * @throws XMLDBException if the collection does not exist.
+     */
+    public <T> BatchResult ingest(String collectionPath, Iterator<T> objects, Function<T, String> fileNames) throws XMLDBException {
+        // Fail fast if the collection is missing instead of failing every chunk
+        store.checkCollection(collectionPath);
+
+        BlockingQueue<Map.Entry<String, Document>> documents = new ArrayBlockingQueue<>(queueCapacity);
+        Semaphore backlog = new Semaphore(queueCapacity); // Objects handed to serializers but not yet queued
+        Map<String, Exception> serializationFailures = new ConcurrentHashMap<>();
+        ConcurrentLinkedQueue<ChunkResult> results = new ConcurrentLinkedQueue<>();
+        AtomicInteger chunkIndex = new AtomicInteger();
+        AtomicInteger liveStorers = new AtomicInteger(storeWorkers); // Store workers still draining the queue
+
+        ExecutorService serializers = Executors.newFixedThreadPool(serializationWorkers, threadFactory("existdb-ingest-serializer"));
+        ExecutorService storers = Executors.newFixedThreadPool(storeWorkers, threadFactory("existdb-ingest-store"));
+        try {
+            // Start the store workers first so the queue starts draining immediately
+            for (int i = 0; i < storeWorkers; i++) {
+                storers.execute(() -> {
+                    try {
+                        storeLoop(collectionPath, documents, results, chunkIndex);
+                    } finally {
+                        liveStorers.decrementAndGet();
+                    }
+                });
+            }
+
+            // Produce: hand each object to a serializer, waiting whenever the backlog is full
+            while (objects.hasNext()) {
+                T object = objects.next();
+                if (!await(() -> backlog.tryAcquire(FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS), liveStorers)) {
+                    logger.severe("Every store worker of the ingest into " + collectionPath + " stopped, the remaining objects are not stored.");
+                    serializationFailures.put(fileName(object, fileNames), new IllegalStateException(NO_STORE_WORKER));
+                    break;
+                }
+                serializers.execute(() -> {
+                    try {
+                        serialize(object, fileNames, documents, serializationFailures, liveStorers);
+                    } finally {
+                        backlog.release();
+                    }
+                });
+            }
+
+            // Let the serializers finish, then stop every store worker once the queue is drained
+            serializers.shutdown();
+            serializers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            for (int i = 0; i < storeWorkers; i++) {
+                if (!await(() -> documents.offer(END_OF_INPUT, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS), liveStorers)) {
+                    break;
+                }
+            }
+            storers.shutdown();
+            storers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+
+            // Documents left behind by store workers that stopped early were never stored
+            for (Map.Entry<String, Document> entry : documents) {
+                if (entry != END_OF_INPUT) {
+                    serializationFailures.put(entry.getKey(), new IllegalStateException(NO_STORE_WORKER));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warning("Ingest into " + collectionPath + " was interrupted.");
+        } finally {
+            serializers.shutdownNow();
+            storers.shutdownNow();
+            store.notifyChanged(collectionPath);
+        }
+
+        List<ChunkResult> chunks = new ArrayList<>(results);
+        chunks.sort((a, b) -> Integer.compare(a.getIndex(), b.getIndex()));
+        if (!serializationFailures.isEmpty()) {
+            // Report objects that never reached the database as a chunk of their own
+            chunks.add(new ChunkResult(chunkIndex.getAndIncrement(), 0, new LinkedHashMap<>(serializationFailures), 0));
+        }
+        BatchResult result = new BatchResult(chunks);
+        logger.info("Parallel ingest into " + collectionPath + " finished: " + result);
+        return result;
+    }
+
+    /**
+     * Body of a serialization task: converts one object into a document and queues it, waiting
+     * while the queue is full.
+     *
+     * @param object      the object to serialize.
+     * @param fileNames   gives the file name the object is stored under.
+     * @param documents   the queue read by the store workers.
+     * @param failures    where serialization failures are collected, by file name.
+     * @param liveStorers the number of store workers still draining the queue.
+     * @param <T>         the type of the object.
+     */
+    private <T> void serialize(T object, Function<T, String> fileNames, BlockingQueue<Map.Entry<String, Document>> documents,
+                               Map<String, Exception> failures, AtomicInteger liveStorers) {
+        String fileName = String.valueOf(object);
+        try {
+            fileName = fileNames.apply(object);
+            Map.Entry<String, Document> entry = new AbstractMap.SimpleImmutableEntry<>(fileName, XMLFileUtil.toDocument(object));
+            if (!await(() -> documents.offer(entry, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS), liveStorers)) {
+                failures.put(fileName, new IllegalStateException(NO_STORE_WORKER));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failures.put(fileName, e);
+        } catch (XMLSerializableNotFoundException e) {
+            failures.put(fileName, new IllegalArgumentException(e.getMessage(), e));
+        } catch (Exception e) {
+            failures.put(fileName, e);
+        }
+    }
+
+    /**
+     * Gives the file name of an object for a failure report, falling back to its string form.
+     *
+     * @param object    the object.
+     * @param fileNames gives the file name the object is stored under.
+     * @param <T>       the type of the object.
+     * @return          the file name.
+     */
+    private static <T> String fileName(T object, Function<T, String> fileNames) {
+        try {
+            return fileNames.apply(object);
+        } catch (RuntimeException e) {
+            return String.valueOf(object);
+        }
+    }
+
+    /**
+     * A timed wait, such as {@link BlockingQueue#offer(Object, long, TimeUnit)}.
+     */
+    @FunctionalInterface
+    private interface TimedWait {
+        boolean attempt() throws InterruptedException;
+    }
+
+    /**
+     * Repeats a timed wait until it succeeds or no store worker is left to make progress, so a
+     * pipeline whose store workers all stopped cannot block forever.
+     *
+     * @param wait                  the timed wait.
+     * @param liveStorers           the number of store workers still draining the queue.
+     * @return                      {@code true} if the wait succeeded, {@code false} if every store worker stopped.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private static boolean await(TimedWait wait, AtomicInteger liveStorers) throws InterruptedException {
+        while (!wait.attempt()) {
+            if (liveStorers.get() == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Body of a store worker: drains the queue into chunks and stores each chunk on a pooled
+     * collection handle until it receives the end-of-input marker.
+     *
+     * @param collectionPath the path of the collection.
+     * @param documents      the queue filled by the serializers.
+     * @param results        where chunk results are collected.
+     * @param chunkIndex     the shared chunk counter.
+     */
+    private void storeLoop(String collectionPath, BlockingQueue<Map.Entry<String, Document>> documents,
+                           ConcurrentLinkedQueue<ChunkResult> results, AtomicInteger chunkIndex) {
+        List<Map.Entry<String, Document>> chunk = new ArrayList<>(chunkSize);
+        boolean finished = false;
+        try {
+            while (!finished) {
+                Map.Entry<String, Document> entry = documents.poll(FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if (entry == END_OF_INPUT) {
+                    finished = true;
+                } else if (entry != null) {
+                    chunk.add(entry);
+                    documents.drainTo(chunk, chunkSize - chunk.size());
+                    finished = removeEndOfInput(chunk, documents); // Markers may have been drained with the chunk
+                }
+
+                // Store full chunks right away, partial ones when input stalls or ends
+                if (!chunk.isEmpty() && (chunk.size() >= chunkSize || entry == null || finished)) {
+                    results.add(storeChunk(collectionPath, chunkIndex.getAndIncrement(), chunk));
+                    chunk.clear();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Removes every end-of-input marker from a drained chunk and puts all but one of them back on
+     * the queue, so every other store worker still receives a marker of its own.
+     *
+     * @param chunk                 the drained chunk.
+     * @param documents             the queue the chunk was drained from.
+     * @return                      {@code true} if the chunk held a marker and the worker must stop.
+     * @throws InterruptedException if interrupted while putting a marker back.
+     */
+    static boolean removeEndOfInput(List<Map.Entry<String, Document>> chunk,
+                                    BlockingQueue<Map.Entry<String, Document>> documents) throws InterruptedException {
+        int markers = 0;
+        for (Iterator<Map.Entry<String, Document>> iterator = chunk.iterator(); iterator.hasNext(); ) {
+            if (iterator.next() == END_OF_INPUT) {
+                iterator.remove();
+                markers++;
+            }
+        }
+        // The serializers are done once markers are queued, so there is room to put them back
+        for (int i = 1; i < markers; i++) {
+            documents.put(END_OF_INPUT);
+        }
+        return markers > 0;
+    }
+
+    /**
+     * Stores one chunk, reporting every document of the chunk as failed if the store itself fails.
+     *
+     * @param collectionPath the path of the collection.
+     * @param index          the position of the chunk.
+     * @param chunk          the (file name, document) pairs of the chunk.
+     * @return               the result of the chunk.
+     */
+    private ChunkResult storeChunk(String collectionPath, int index, List<Map.Entry<String, Document>> chunk) {
+        long start = System.nanoTime();
+        try {
+            return store.storeChunk(collectionPath, index, chunk);
+        } catch (XMLDBException | RuntimeException e) {
+            // No handle could be obtained (e.g. the pool was closed), so the whole chunk failed
+            Map<String, Exception> failures = new LinkedHashMap<>();
+            for (Map.Entry<String, Document> entry : chunk) {
+                failures.put(entry.getKey(), e);
+            }
+            return new ChunkResult(index, 0, failures, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Where the pipeline stores its chunks.
+     */
+    interface ChunkStore {
+        /**
+         * Checks that a collection exists before anything is ingested into it.
+         *
+         * @param collectionPath  the path of the collection.
+         * @throws XMLDBException if the collection does not exist.
+         */
+        void checkCollection(String collectionPath) throws XMLDBException;
+
+        /**
+         * Stores one chunk of documents.
+         *
+         * @param collectionPath  the path of the collection.
+         * @param index           the position of the chunk.
+         * @param chunk           the (file name, document) pairs of the chunk.
+         * @return                the result of the chunk.
+         * @throws XMLDBException if the collection cannot be retrieved.
+         */
+        ChunkResult storeChunk(String collectionPath, int index, List<Map.Entry<String, Document>> chunk) throws XMLDBException;
+
+        /**
+         * Announces that the content of a collection changed.
+         *
+         * @param collectionPath the path of the collection.
+         */
+        void notifyChanged(String collectionPath);
+    }
+
+    /**
+     * Stores chunks through {@link TheDao}, each on a collection handle borrowed for that chunk only.
+     */
+    private static final class DaoChunkStore implements ChunkStore {
+        private final TheDao dao;
+
+        private DaoChunkStore(TheDao dao) {
+            this.dao = dao;
+        }
+
+        @Override
+        public void checkCollection(String collectionPath) throws XMLDBException {
+            dao.getCollectionOrThrow(collectionPath).close();
+        }
+
+        @Override
+        public ChunkResult storeChunk(String collectionPath, int index, List<Map.Entry<String, Document>> chunk) throws XMLDBException {
+            try (Collection collection = dao.getCollectionOrThrow(collectionPath)) {
+                return dao.storeChunk(collection, index, chunk);
+            }
+        }
+
+        @Override
+        public void notifyChanged(String collectionPath) {
+            dao.notifyChanged(collectionPath, ChangeType.CONTENT);
+        }
+    }
+
+    /**
+     * Creates a factory of named daemon threads for the pipeline workers.
+     *
+     * @param prefix the thread name prefix.
+     * @return       the thread factory.
+     */
+    private static ThreadFactory threadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Builder for {@link ParallelIngestPipeline}.
+     */
+    public static class Builder {
+        private final ChunkStore store;
+        private int serializationWorkers = Runtime.getRuntime().availableProcessors();
+        private int storeWorkers = 4;
+        private int queueCapacity = 1_000;
+        private int chunkSize = 100;
+
+        private Builder(ChunkStore store) {
+            this.store = store;
+        }
+
+        /**
+         * Sets the number of threads converting objects into documents. Defaults to the number of processors.
+         *
+         * @param serializationWorkers the number of serialization threads.
+         * @return                     this builder.
+         */
+        public Builder serializationWorkers(int serializationWorkers) {
+            this.serializationWorkers = serializationWorkers;
+            return this;
+        }
+
+        /**
+         * Sets the number of threads storing documents concurrently, each on its own pooled handle. Defaults to 4.
+         *
+         * @param storeWorkers the number of store threads.
+         * @return             this builder.
+         */
+        public Builder storeWorkers(int storeWorkers) {
+            this.storeWorkers = storeWorkers;
+            return this;
+        }
+
+        /**
+         * Sets how many serialized documents may wait to be stored (and how many objects may wait to
+         * be serialized) before the producer blocks. Defaults to 1000.
+         *
+         * @param queueCapacity the queue depth.
+         * @return              this builder.
+         */
+        public Builder queueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * Sets the number of documents a store worker writes per chunk. Defaults to 100.
+         *
+         * @param chunkSize the chunk size.
+         * @return          this builder.
+         */
+        public Builder chunkSize(int chunkSize) {
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * Builds the pipeline.
+         *
+         * @return                          the pipeline.
+         * @throws IllegalArgumentException if a setting is not positive.
+         */
+        public ParallelIngestPipeline build() {
+            if (serializationWorkers <= 0 || storeWorkers <= 0 || queueCapacity <= 0 || chunkSize <= 0) {
+                throw new IllegalArgumentException("Worker counts, queue capacity and chunk size must be greater than zero.");
+            }
+            return new ParallelIngestPipeline(this);
+        }
+    }
+}
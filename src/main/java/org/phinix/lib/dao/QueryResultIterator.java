@@ -0,0 +1,156 @@
+package org.phinix.lib.dao;
+
+import org.phinix.lib.metrics.Timer;
+import org.xmldb.api.base.Collection;
+import org.xmldb.api.base.Resource;
+import org.xmldb.api.base.ResourceSet;
+import org.xmldb.api.base.XMLDBException;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * QueryResultIterator walks the result of an XQuery lazily. Resources are fetched from the
+ * {@link ResourceSet} and mapped to objects {@code fetchSize} at a time, so only one chunk of
+ * mapped objects is held in memory no matter how large the result is.
+ *
+ * <p>The iterator keeps the pooled collection borrowed and the result set open on the server
+ * until it is closed. It closes itself once the last result has been read, but callers that
+ * stop early must close it, preferably with try-with-resources.</p>
+ *
+ * @param <T> the type the results are mapped to.
+ */
+public class QueryResultIterator<T> implements Iterator<T>, AutoCloseable {
+    private static final Logger logger = Logger.getLogger(QueryResultIterator.class.getName());
+
+    private final Collection collection;
+    private final ResourceSet resourceSet;
+    private final ResourceMapper<T> mapper;
+    private final Timer fetchTimer;
+    private final int fetchSize;
+    private final Runnable onClose;
+    private final long size;
+    private final ArrayDeque<T> buffer;
+    private long position; // Index of the next resource to fetch
+    private boolean closed;
+
+    /**
+     * Maps one result resource to the objects it contains.
+     *
+     * @param <T> the type the results are mapped to.
+     */
+    @FunctionalInterface
+    interface ResourceMapper<T> {
+        List<T> map(Resource resource) throws Exception;
+    }
+
+    /**
+     * Creates an iterator over a result set.
+     *
+     * @param collection      the borrowed collection the query ran on; closed with the iterator.
+     * @param resourceSet     the result of the query.
+     * @param mapper          maps each resource to objects.
+     * @param fetchSize       the number of resources fetched and mapped at a time.
+     * @param fetchTimer      records the time spent fetching each resource.
+     * @param onClose         run once the result set has been released, e.g. to give back the compiled query.
+     * @throws XMLDBException if the size of the result set cannot be read.
+     */
+    QueryResultIterator(Collection collection, ResourceSet resourceSet, ResourceMapper<T> mapper, int fetchSize, Timer fetchTimer,
+                        Runnable onClose) throws XMLDBException {
+        if (fetchSize <= 0) {
+            throw new IllegalArgumentException("Fetch size must be greater than zero.");
+        }
+        this.collection = collection;
+        this.resourceSet = resourceSet;
+        this.mapper = mapper;
+        this.fetchSize = fetchSize;
+        this.fetchTimer = fetchTimer;
+        this.onClose = onClose;
+        this.size = resourceSet.getSize();
+        this.buffer = new ArrayDeque<>(fetchSize);
+    }
+
+    @Override
+    public boolean hasNext() {
+        // Keep fetching until a chunk yields objects, since a resource may map to none
+        while (buffer.isEmpty() && !closed && position < size) {
+            fetchNextChunk();
+        }
+        if (buffer.isEmpty()) {
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return buffer.poll();
+    }
+
+    /**
+     * Fetches and maps the next {@code fetchSize} resources into the buffer.
+     */
+    private void fetchNextChunk() {
+        long end = Math.min(position + fetchSize, size);
+        try {
+            for (; position < end; position++) {
+                long start = System.nanoTime();
+                Resource resource = resourceSet.getResource(position);
+                fetchTimer.recordSince(start);
+                buffer.addAll(mapper.map(resource));
+            }
+        } catch (Exception e) {
+            close();
+            throw new RuntimeException("Error fetching query result " + position + " of " + size + ".", e);
+        }
+    }
+
+    /**
+     * Skips leading resources that are not results, such as the total count returned first by a paged query.
+     *
+     * @param count the number of resources to skip.
+     * @return      this iterator.
+     */
+    QueryResultIterator<T> skipResources(long count) {
+        position = Math.min(count, size);
+        return this;
+    }
+
+    /**
+     * @return the total number of resources in the result set.
+     */
+    public long getResultSize() {
+        return size;
+    }
+
+    /**
+     * Releases the result set on the server and gives the collection back to the pool.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        buffer.clear();
+        try {
+            resourceSet.clear();
+        } catch (XMLDBException e) {
+            logger.log(Level.FINE, "Error releasing query result.", e);
+        }
+        onClose.run();
+        try {
+            collection.close();
+        } catch (XMLDBException e) {
+            logger.log(Level.WARNING, "Error closing collection.", e);
+        }
+    }
+}
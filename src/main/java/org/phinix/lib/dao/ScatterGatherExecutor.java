@@ -0,0 +1,495 @@
+package org.phinix.lib.dao;
+
+import org.phinix.lib.common.ParameterizedQuery;
+import org.phinix.lib.common.XMLFileUtil;
+import org.phinix.lib.common.XMLSerializableNotFoundException;
+import org.phinix.lib.service.ExistDB;
+import org.xmldb.api.base.Collection;
+import org.xmldb.api.base.XMLDBException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * ScatterGatherExecutor runs one query over several collections at once and merges the results
+ * into a single lazy stream. The query is given as a template, a function from a collection path
+ * to the query for that collection:
+ *
+ * <pre>
+ * try (ScatterGatherExecutor gather = new ScatterGatherExecutor(existDB);
+ *      Stream&lt;Book&gt; books = gather.stream(
+ *              path -&gt; XQueryFactory.query(path, Book.class).orderBy("year", true).limit(20).build(),
+ *              gather.expand("/db/bookshop"), Book.class, Comparator.comparingInt(Book::getYear), 20)) {
+ *     books.forEach(System.out::println);
+ * }
+ * </pre>
+ *
+ * <p>Without a comparator the collections are queried in parallel, as many at a time as there
+ * are free pooled handles, and the results of each collection are returned together, starting
+ * with the collection whose query completes first. A collection is queried once another has been
+ * read to the end, so any number of collections can be queried. With a comparator every
+ * collection is queried in parallel, each on its own pooled handle, and the per-collection
+ * results, which the template must sort in the same order, are merged so the stream is sorted as
+ * a whole; the number of collections may then not exceed the pool size.
+ * Results are fetched lazily, {@code fetchSize} resources at a time per collection. A global
+ * limit stops the merge, and closing the stream gives every handle back. Limiting each
+ * collection's query too, as above, keeps the server from preparing results that are never read.</p>
+ *
+ * <p>The streams of one executor never hold more handles than the pool allows: a stream waits up
+ * to the borrow timeout for the handles it needs (one, without a comparator) before it starts its
+ * queries, so concurrent scatter-gathers that share an executor cannot starve each other.</p>
+ */
+public class ScatterGatherExecutor implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(ScatterGatherExecutor.class.getName());
+    public static final long NO_LIMIT = -1;
+
+    private final ExistDB existDB;
+    private final XQueryDao queryDao;
+    private final Executor executor;
+    private final boolean ownsExecutor; // Whether close() shuts the executor down
+    private final int fetchSize;
+    private final int poolSize;
+    private final long borrowTimeoutMillis;
+    private final Semaphore handles; // Pooled handles this executor's streams may hold at once
+
+    /**
+     * Creates an executor over an ExistDB instance, querying on virtual threads when the JVM has
+     * them and on {@code poolSize} platform threads otherwise.
+     *
+     * @param existDB the connection instance to eXist-db.
+     */
+    public ScatterGatherExecutor(ExistDB existDB) {
+        this(existDB, AsyncDao.defaultExecutor(existDB.getConfig().getPoolSize()), true, XQueryDao.DEFAULT_FETCH_SIZE);
+    }
+
+    /**
+     * Creates an executor starting the queries on the given executor, which the caller keeps
+     * ownership of.
+     *
+     * @param existDB   the connection instance to eXist-db.
+     * @param executor  the executor the queries are started on.
+     * @param fetchSize the number of result resources fetched and mapped at a time per collection.
+     */
+    public ScatterGatherExecutor(ExistDB existDB, Executor executor, int fetchSize) {
+        this(existDB, executor, false, fetchSize);
+    }
+
+    private ScatterGatherExecutor(ExistDB existDB, Executor executor, boolean ownsExecutor, int fetchSize) {
+        if (fetchSize <= 0) {
+            throw new IllegalArgumentException("Fetch size must be greater than zero.");
+        }
+        this.existDB = existDB;
+        this.queryDao = new XQueryDao(existDB);
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.fetchSize = fetchSize;
+        this.poolSize = existDB.getConfig().getPoolSize();
+        this.borrowTimeoutMillis = existDB.getConfig().getBorrowTimeoutMillis();
+        this.handles = new Semaphore(poolSize, true);
+    }
+
+    /**
+     * Lists the child collections of a collection, to query all of them.
+     *
+     * @param parentPath      the path of the parent collection (e.g. {@code /db/bookshop}).
+     * @return                the paths of its child collections, sorted by name.
+     * @throws XMLDBException if the parent collection does not exist or cannot be read.
+     */
+    public List<String> expand(String parentPath) throws XMLDBException {
+        try (Collection parent = existDB.getReadCollection(parentPath)) {
+            if (parent == null) {
+                logger.severe("Collection not found: " + parentPath);
+                throw new XMLDBException();
+            }
+            String prefix = parentPath.endsWith("/") ? parentPath : parentPath + "/";
+            return Arrays.stream(parent.listChildCollections())
+                    .sorted()
+                    .map(name -> prefix + name)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Runs a query over several collections and collects the merged results.
+     *
+     * @see #stream(Function, List, Class, Comparator, long)
+     */
+    public <T> List<T> execute(Function<String, ParameterizedQuery> template, List<String> collectionPaths, Class<T> clazz,
+                               Comparator<? super T> order, long limit) throws XMLDBException, XMLSerializableNotFoundException {
+        try (Stream<T> results = stream(template, collectionPaths, clazz, order, limit)) {
+            return results.collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Runs a query over several collections and returns the merged results as a lazy stream.
+     * The collections are queried in parallel; with an order the stream keeps one pooled handle
+     * per collection borrowed until it is closed, so use it with try-with-resources.
+     *
+     * @param template                          builds the query of each collection from its path.
+     * @param collectionPaths                   the paths of the collections to query.
+     * @param clazz                             the class to map the results to.
+     * @param order                             the order of the results, which every query must already follow,
+     *                                          or {@code null} to return the results of each collection together,
+     *                                          in the order the queries complete.
+     * @param limit                             the maximum number of results in total, or {@link #NO_LIMIT}.
+     * @param <T>                               the type of the results.
+     * @return                                  a stream of the merged results; it must be closed.
+     * @throws XMLDBException                   if a collection cannot be retrieved, a query fails or no
+     *                                          handles are free before the borrow timeout.
+     * @throws XMLSerializableNotFoundException if the class is not annotated with @XMLSerializableModel
+     * @throws IllegalArgumentException         if an order is given for more collections than the pool size.
+     */
+    public <T> Stream<T> stream(Function<String, ParameterizedQuery> template, List<String> collectionPaths, Class<T> clazz,
+                                Comparator<? super T> order, long limit) throws XMLDBException, XMLSerializableNotFoundException {
+        // Check if the class is annotated with @XMLSerializableModel
+        if (!XMLFileUtil.isXMLSerializable(clazz)) {
+            throw new XMLSerializableNotFoundException();
+        }
+        if (limit < 0 && limit != NO_LIMIT) {
+            throw new IllegalArgumentException("Limit must not be negative.");
+        }
+
+        if (order != null && collectionPaths.size() > poolSize) {
+            throw new IllegalArgumentException("An ordered scatter-gather over " + collectionPaths.size()
+                    + " collections needs more handles than the pool size of " + poolSize + ".");
+        }
+
+        // Build every query before starting any, so a failing template leaves nothing borrowed
+        List<ParameterizedQuery> queries = new ArrayList<>(collectionPaths.size());
+        for (String path : collectionPaths) {
+            queries.add(template.apply(path));
+        }
+
+        int permits = acquireHandles(order == null ? Math.min(1, queries.size()) : queries.size(), queries.size());
+        Runnable closeSources = () -> { };
+        try {
+            Iterator<T> merged;
+            if (order == null) {
+                CompletionOrderIterator<T> concatenated = new CompletionOrderIterator<>(queries, query -> openSource(query, clazz), executor, permits);
+                closeSources = concatenated::close;
+                concatenated.awaitFirst();
+                merged = concatenated;
+            } else {
+                List<QueryResultIterator<T>> sources = open(queries, clazz);
+                closeSources = () -> sources.forEach(QueryResultIterator::close);
+                merged = new MergingIterator<>(sources, order); // Reads the first result of every source
+            }
+            Stream<T> results = StreamSupport.stream(Spliterators.spliteratorUnknownSize(merged, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                    .onClose(closeSources)
+                    .onClose(() -> handles.release(permits));
+            return limit == NO_LIMIT ? results : results.limit(limit);
+        } catch (XMLDBException | RuntimeException e) {
+            closeSources.run();
+            handles.release(permits);
+            throw e;
+        }
+    }
+
+    /**
+     * Reserves handles for a stream, waiting up to the borrow timeout for other streams of this
+     * executor to give theirs back, then taking as many more as are free right away.
+     *
+     * @param required        the number of handles the stream cannot do without.
+     * @param wanted          the number of handles the stream can use at once.
+     * @return                the number of handles reserved, between {@code required} and {@code wanted}.
+     * @throws XMLDBException if the required handles are not free before the borrow timeout.
+     */
+    private int acquireHandles(int required, int wanted) throws XMLDBException {
+        try {
+            if (!handles.tryAcquire(required, borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                logger.severe("Timed out waiting for " + required + " collection handles for a scatter-gather query.");
+                throw new XMLDBException();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new XMLDBException();
+        }
+        int permits = required;
+        while (permits < wanted && handles.tryAcquire()) {
+            permits++;
+        }
+        return permits;
+    }
+
+    /**
+     * Runs the query of one collection.
+     *
+     * @param query           the query.
+     * @param clazz           the class to map the results to.
+     * @param <T>             the type of the results.
+     * @return                an open iterator over its results.
+     * @throws XMLDBException if the collection cannot be retrieved or the query fails.
+     */
+    private <T> QueryResultIterator<T> openSource(ParameterizedQuery query, Class<T> clazz) throws XMLDBException {
+        try {
+            return queryDao.iterateQuery(query, clazz, fetchSize);
+        } catch (XMLSerializableNotFoundException e) {
+            throw new IllegalStateException(e); // Checked before the queries are started
+        }
+    }
+
+    /**
+     * Starts the query of every collection in parallel and waits until all of them have run.
+     *
+     * @param queries         the query of each collection.
+     * @param clazz           the class to map the results to.
+     * @param <T>             the type of the results.
+     * @return                an open iterator per collection, in the order of the queries.
+     * @throws XMLDBException if a collection cannot be retrieved or a query fails; the iterators already opened are closed.
+     */
+    private <T> List<QueryResultIterator<T>> open(List<ParameterizedQuery> queries, Class<T> clazz) throws XMLDBException {
+        List<CompletableFuture<QueryResultIterator<T>>> futures = new ArrayList<>(queries.size());
+        for (ParameterizedQuery query : queries) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return openSource(query, clazz);
+                } catch (XMLDBException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor));
+        }
+
+        // Wait for every query, even after a failure, so that no handle is left borrowed
+        List<QueryResultIterator<T>> sources = new ArrayList<>(futures.size());
+        Throwable failure = null;
+        for (CompletableFuture<QueryResultIterator<T>> future : futures) {
+            try {
+                sources.add(future.join());
+            } catch (CompletionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            }
+        }
+        if (failure != null) {
+            sources.forEach(QueryResultIterator::close);
+            logger.log(Level.SEVERE, "Error executing scatter-gather query over " + queries.size() + " collections", failure);
+            if (failure instanceof XMLDBException) {
+                throw (XMLDBException) failure;
+            }
+            throw failure instanceof RuntimeException ? (RuntimeException) failure : new RuntimeException(failure);
+        }
+        return sources;
+    }
+
+    /**
+     * Shuts down the default executor. An executor passed to the constructor is left running.
+     */
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            ((ExecutorService) executor).shutdown();
+        }
+    }
+
+    /**
+     * Opens the source of one query.
+     *
+     * @param <T> the type of the results.
+     */
+    @FunctionalInterface
+    private interface SourceOpener<T> {
+        QueryResultIterator<T> open(ParameterizedQuery query) throws XMLDBException;
+    }
+
+    /**
+     * Returns the results of each source after those of the previous one, taking the sources in
+     * the order their queries complete. At most {@code parallelism} sources are open at a time;
+     * the query of another collection starts whenever a source has been read to the end.
+     *
+     * @param <T> the type of the results.
+     */
+    private static final class CompletionOrderIterator<T> implements Iterator<T> {
+        private final Iterator<ParameterizedQuery> queries;
+        private final SourceOpener<T> opener;
+        private final Executor executor;
+        private final BlockingQueue<CompletableFuture<QueryResultIterator<T>>> completed = new LinkedBlockingQueue<>();
+        private final List<CompletableFuture<QueryResultIterator<T>>> started = new ArrayList<>(); // Not yet taken
+        private QueryResultIterator<T> current;
+        private boolean closed;
+
+        private CompletionOrderIterator(List<ParameterizedQuery> queries, SourceOpener<T> opener, Executor executor, int parallelism) {
+            this.queries = queries.iterator();
+            this.opener = opener;
+            this.executor = executor;
+            for (int i = 0; i < parallelism && this.queries.hasNext(); i++) {
+                startNext();
+            }
+        }
+
+        /**
+         * Starts the query of the next collection.
+         */
+        private void startNext() {
+            ParameterizedQuery query = queries.next();
+            CompletableFuture<QueryResultIterator<T>> future = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return opener.open(query);
+                } catch (XMLDBException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor);
+            started.add(future);
+            future.whenComplete((source, failure) -> completed.add(future));
+        }
+
+        /**
+         * Waits for the first query to complete, so that its errors reach the caller of {@link #stream}.
+         *
+         * @throws XMLDBException if the first query to complete failed.
+         */
+        private void awaitFirst() throws XMLDBException {
+            if (started.isEmpty()) {
+                return; // No collections to query
+            }
+            try {
+                takeNext();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof XMLDBException) {
+                    throw (XMLDBException) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        /**
+         * Makes the next completed source the current one.
+         *
+         * @throws CompletionException if its query failed.
+         */
+        private void takeNext() {
+            CompletableFuture<QueryResultIterator<T>> future;
+            try {
+                future = completed.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(e);
+            }
+            started.remove(future);
+            current = future.join();
+        }
+
+        @Override
+        public boolean hasNext() {
+            // A source closes itself once it is exhausted, giving its handle back to the next query
+            while ((current == null || !current.hasNext()) && !closed) {
+                if (current != null) {
+                    current.close();
+                    current = null;
+                    if (queries.hasNext()) {
+                        startNext();
+                    }
+                }
+                if (started.isEmpty()) {
+                    break;
+                }
+                try {
+                    takeNext();
+                } catch (CompletionException e) {
+                    throw new RuntimeException("Error executing scatter-gather query.", e.getCause());
+                }
+            }
+            return current != null && current.hasNext();
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        /**
+         * Closes the open source and every source still being opened, once its query completes.
+         */
+        private void close() {
+            closed = true;
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+            for (CompletableFuture<QueryResultIterator<T>> future : started) {
+                future.thenAccept(QueryResultIterator::close);
+            }
+            started.clear();
+        }
+    }
+
+    /**
+     * Merges sorted sources into one sorted sequence, holding only the next result of each source.
+     * Equal results keep the order of their sources.
+     *
+     * @param <T> the type of the results.
+     */
+    private static final class MergingIterator<T> implements Iterator<T> {
+        private final PriorityQueue<Head<T>> heads;
+
+        private MergingIterator(List<QueryResultIterator<T>> sources, Comparator<? super T> order) {
+            Comparator<Head<T>> byValue = (a, b) -> order.compare(a.value, b.value);
+            this.heads = new PriorityQueue<>(Math.max(1, sources.size()), byValue.thenComparingInt(head -> head.sourceIndex));
+            for (int i = 0; i < sources.size(); i++) {
+                QueryResultIterator<T> source = sources.get(i);
+                if (source.hasNext()) {
+                    heads.add(new Head<>(source.next(), source, i));
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public T next() {
+            Head<T> head = heads.poll();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+            if (head.source.hasNext()) {
+                heads.add(new Head<>(head.source.next(), head.source, head.sourceIndex));
+            }
+            return head.value;
+        }
+    }
+
+    /**
+     * The next result of a source.
+     *
+     * @param <T> the type of the results.
+     */
+    private static final class Head<T> {
+        private final T value;
+        private final QueryResultIterator<T> source;
+        private final int sourceIndex;
+
+        private Head(T value, QueryResultIterator<T> source, int sourceIndex) {
+            this.value = value;
+            this.source = source;
+            this.sourceIndex = sourceIndex;
+        }
+    }
+}
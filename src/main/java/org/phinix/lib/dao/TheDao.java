@@ -1,27 +1,66 @@
 package org.phinix.lib.dao;
 
+import org.exist.xmldb.IndexQueryService;
+import org.phinix.lib.common.IndexConfiguration;
+import org.phinix.lib.common.ParameterizedQuery;
 import org.phinix.lib.common.XMLFileUtil;
+import org.phinix.lib.common.XMLIndexed;
 import org.phinix.lib.common.XMLSerializableNotFoundException;
+import org.phinix.lib.common.XQueryUpdateBuilder;
+import org.phinix.lib.metrics.Counter;
+import org.phinix.lib.metrics.MetricsRegistry;
+import org.phinix.lib.metrics.Timer;
+import org.phinix.lib.service.CollectionChangeListener.ChangeType;
 import org.phinix.lib.service.ExistDB;
 import org.w3c.dom.Document;
 import org.xmldb.api.base.Collection;
+import org.xmldb.api.base.ErrorCodes;
 import org.xmldb.api.base.Resource;
+import org.xmldb.api.base.ResourceSet;
 import org.xmldb.api.base.XMLDBException;
 import org.xmldb.api.modules.CollectionManagementService;
+import org.xmldb.api.modules.TransactionService;
 import org.xmldb.api.modules.XMLResource;
+import org.xmldb.api.modules.XQueryService;
 
 import java.io.File;
-import java.util.logging.Logger;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * TheDao encapsulates CRUD (Create, Read, Update, Delete) operations
  * on an eXist-db database. It is modular and compatible with objects serialized to XML.
+ *
+ * <p>Stores, retrievals and deletes are timed in the metrics of the ExistDB instance as
+ * {@code document.store}, {@code document.retrieve} and {@code document.delete}, and field-level
+ * updates as {@code document.update}. The UTF-8 size of retrieved files adds up in
+ * {@code document.contentBytes}.</p>
+ *
+ * <p>Created with {@link #TheDao(ExistDB, int, long)}, the DAO buffers updates (write-behind):
+ * {@link #updateFileInCollection} returns at once, repeated updates of a file are merged, and the
+ * buffer is stored in batches when it fills up, on a timer, on {@link #flush()}, on
+ * {@link #close()} and when the ExistDB instance shuts down. Reads through this DAO see the
+ * buffered updates; queries and other clients see them once they are flushed.</p>
  */
-public class TheDao implements Dao {
+public class TheDao implements Dao, AutoCloseable {
     private static final Logger logger = Logger.getLogger(TheDao.class.getName());
     private static final String DB_ROOT = "/db"; // We use /db as root, but the directory separator will be dynamic
     private final ExistDB existDB;
+    private final Timer storeTimer;
+    private final Timer retrieveTimer;
+    private final Timer deleteTimer;
+    private final Timer updateTimer;
+    private final Counter documentsStored;
+    private final Counter contentBytes;
+    private final WriteBehindBuffer writeBehind; // Null unless updates are buffered
+    private final Runnable shutdownHook;
 
     /**
      * The constructor of TheDao which uses an instance of ExistDB.
@@ -29,7 +68,41 @@ public class TheDao implements Dao {
      * @param existDB the connection instance to eXist-db.
      */
     public TheDao(ExistDB existDB) {
+        this(existDB, false, 0, 0);
+    }
+
+    /**
+     * Creates a DAO that buffers updates and stores them in batches. Whatever is still buffered is
+     * stored when the ExistDB instance shuts down.
+     *
+     * @param existDB                   the connection instance to eXist-db.
+     * @param maxPendingWrites          the number of buffered files that triggers a flush.
+     * @param flushIntervalMillis       the time between two timed flushes, in milliseconds.
+     * @throws IllegalArgumentException if a threshold is not positive.
+     */
+    public TheDao(ExistDB existDB, int maxPendingWrites, long flushIntervalMillis) {
+        this(existDB, true, maxPendingWrites, flushIntervalMillis);
+    }
+
+    private TheDao(ExistDB existDB, boolean buffered, int maxPendingWrites, long flushIntervalMillis) {
         this.existDB = existDB;
+
+        MetricsRegistry metrics = existDB.getMetrics();
+        this.storeTimer = metrics.timer("document.store");
+        this.retrieveTimer = metrics.timer("document.retrieve");
+        this.deleteTimer = metrics.timer("document.delete");
+        this.updateTimer = metrics.timer("document.update");
+        this.documentsStored = metrics.counter("documents.stored");
+        this.contentBytes = metrics.counter("document.contentBytes");
+
+        if (buffered) {
+            this.writeBehind = new WriteBehindBuffer(maxPendingWrites, flushIntervalMillis, this::storeUpdates);
+            this.shutdownHook = this::drain;
+            existDB.addShutdownHook(shutdownHook);
+        } else {
+            this.writeBehind = null;
+            this.shutdownHook = null;
+        }
     }
 
     /**
@@ -41,30 +114,31 @@ public class TheDao implements Dao {
     @Override
     public void createCollection(String path) throws XMLDBException {
         // Get the parent collection path to check if it exists before creating the new collection
-        Collection parent = existDB.getCollection(getParentPath(path));
+        try (Collection parent = existDB.getCollection(getParentPath(path))) {
+            if (parent == null) {
+                // If the parent collection doesn't exist, log an error and throw an exception
+                logger.severe("Parent collection does not exist: " + getParentPath(path));
+                throw new XMLDBException();
+            }
 
-        if (parent == null) {
-            // If the parent collection doesn't exist, log an error and throw an exception
-            logger.severe("Parent collection does not exist: " + getParentPath(path));
-            throw new XMLDBException();
-        }
-
-        // Check if the collection already exists
-        Collection collection = existDB.getCollection(path);
-        if (collection == null) {
-            // If the collection doesn't exist, create it
-            Collection root = existDB.getCollection(DB_ROOT);
-            CollectionManagementService cms = (CollectionManagementService) root.getService("CollectionManagementService", "1.0");
-            cms.createCollection(getCollectionName(path)); // Create the collection using the name extracted from the path
-            logger.info("Collection created: " + path);
-        } else {
-            // If the collection exists, log a message
-            logger.info("Collection already exists: " + path);
+            // Check if the collection already exists
+            try (Collection collection = existDB.getCollection(path)) {
+                if (collection == null) {
+                    // If the collection doesn't exist, create it under the parent we already hold
+                    CollectionManagementService cms = (CollectionManagementService) parent.getService("CollectionManagementService", "1.0");
+                    cms.createCollection(getCollectionName(path)).close(); // Create the collection using the name extracted from the path
+                    logger.info("Collection created: " + path);
+                    notifyChanged(path, ChangeType.STRUCTURE);
+                } else {
+                    // If the collection exists, log a message
+                    logger.info("Collection already exists: " + path);
+                }
+            }
         }
     }
 
     /**
-     * Adds an XML file to a collection using the XMLFileManager utility.
+     * Adds an XML file to a collection, storing the document directly in the database.
      *
      * @param collectionPath  the path of the collection.
      * @param fileName        the name of the file to save.
@@ -73,17 +147,167 @@ public class TheDao implements Dao {
      */
     @Override
     public void addFileToCollection(String collectionPath, String fileName, Document document) throws XMLDBException, XMLSerializableNotFoundException {
+        discardBufferedUpdate(collectionPath, fileName); // Replaced by this document
+
         // Get the collection, or throw an exception if it doesn't exist
-        Collection collection = getCollectionOrThrow(collectionPath);
+        try (Collection collection = getCollectionOrThrow(collectionPath)) {
+            // Create the resource and hand the DOM to the driver, which streams it to the server
+            XMLResource resource = (XMLResource) collection.createResource(fileName, XMLResource.RESOURCE_TYPE);
+            resource.setContentAsDOM(document);
 
-        // Use XMLFileManager to save the document as an XML file
-        try {
-            String filePath = collectionPath + File.separator + fileName;
-            XMLFileUtil.generateXmlFromObjects(List.of(document), filePath);
+            // Store the resource in the collection
+            store(collection, resource);
             logger.info("File added to collection: " + fileName);
-        } catch (Exception e) {
-            logger.severe("Error adding file to collection: " + fileName + " - " + e.getMessage());
-            throw new XMLDBException();
+        }
+        notifyChanged(collectionPath, ChangeType.CONTENT);
+    }
+
+    /**
+     * Adds many XML files to a collection. The documents are stored in chunks over a single
+     * collection handle; each chunk runs in a transaction when the driver offers one. A document
+     * or chunk that fails is reported in the result and does not abort the rest of the batch.
+     *
+     * @param collectionPath  the path of the collection.
+     * @param documents       the documents to add, as (file name, document) pairs.
+     * @param chunkSize       the number of documents stored per chunk.
+     * @return                the stored and failed documents and the throughput of every chunk.
+     * @throws XMLDBException if the collection cannot be retrieved.
+     */
+    @Override
+    public BatchResult addFilesToCollection(String collectionPath, Iterator<Map.Entry<String, Document>> documents, int chunkSize) throws XMLDBException {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be greater than zero.");
+        }
+
+        List<ChunkResult> results = new ArrayList<>();
+        // Borrow the collection once and reuse it for every chunk
+        try (Collection collection = getCollectionOrThrow(collectionPath)) {
+            List<Map.Entry<String, Document>> chunk = new ArrayList<>(chunkSize);
+            while (documents.hasNext()) {
+                Map.Entry<String, Document> document = documents.next();
+                discardBufferedUpdate(collectionPath, document.getKey());
+                chunk.add(document);
+                if (chunk.size() == chunkSize || !documents.hasNext()) {
+                    ChunkResult result = storeChunk(collection, results.size(), chunk);
+                    logger.info("Chunk stored in " + collectionPath + ": " + result);
+                    results.add(result);
+                    chunk.clear();
+                }
+            }
+        } finally {
+            notifyChanged(collectionPath, ChangeType.CONTENT); // Chunks stored before a failure are visible too
+        }
+        return new BatchResult(results);
+    }
+
+    /**
+     * Stores one chunk of documents, inside a transaction if the driver supports it.
+     *
+     * @param collection the collection to store into.
+     * @param index      the position of the chunk in the batch.
+     * @param chunk      the (file name, document) pairs of the chunk.
+     * @return           the result of the chunk.
+     */
+    ChunkResult storeChunk(Collection collection, int index, List<Map.Entry<String, Document>> chunk) {
+        return storeChunk(collection, index, chunk, false);
+    }
+
+    /**
+     * Stores one chunk of documents, inside a transaction if the driver supports it.
+     *
+     * @param collection the collection to store into.
+     * @param index      the position of the chunk in the batch.
+     * @param chunk      the (file name, document) pairs of the chunk.
+     * @param update     whether the files must already exist; missing files are reported as failures.
+     * @return           the result of the chunk.
+     */
+    private ChunkResult storeChunk(Collection collection, int index, List<Map.Entry<String, Document>> chunk, boolean update) {
+        long start = System.nanoTime();
+        Map<String, Exception> failures = new LinkedHashMap<>();
+        List<String> stored = new ArrayList<>(chunk.size());
+
+        TransactionService transaction = getTransactionService(collection);
+        try {
+            if (transaction != null) {
+                transaction.begin();
+            }
+
+            // Store every document, keeping track of the ones that fail
+            for (Map.Entry<String, Document> entry : chunk) {
+                try {
+                    XMLResource resource = update
+                            ? (XMLResource) collection.getResource(entry.getKey())
+                            : (XMLResource) collection.createResource(entry.getKey(), XMLResource.RESOURCE_TYPE);
+                    if (resource == null) {
+                        failures.put(entry.getKey(), new XMLDBException(ErrorCodes.NO_SUCH_RESOURCE, "File not found for update: " + entry.getKey()));
+                        continue;
+                    }
+                    resource.setContentAsDOM(entry.getValue());
+                    store(collection, resource);
+                    stored.add(entry.getKey());
+                } catch (XMLDBException | RuntimeException e) {
+                    // A bad entry must not abort the rest of the chunk
+                    failures.put(entry.getKey(), e);
+                }
+            }
+
+            if (transaction != null) {
+                transaction.commit();
+            }
+        } catch (XMLDBException e) {
+            // The transaction itself failed, so nothing of this chunk can be considered stored
+            logger.log(Level.WARNING, "Transaction failed for chunk " + index, e);
+            rollbackQuietly(transaction);
+            for (String fileName : stored) {
+                failures.put(fileName, e);
+            }
+            stored.clear();
+        }
+
+        return new ChunkResult(index, stored.size(), failures, System.nanoTime() - start);
+    }
+
+    /**
+     * Stores a resource in a collection, timing the round trip.
+     *
+     * @param collection      the collection to store into.
+     * @param resource        the resource, with its content set.
+     * @throws XMLDBException if the resource cannot be stored.
+     */
+    private void store(Collection collection, Resource resource) throws XMLDBException {
+        long start = System.nanoTime();
+        collection.storeResource(resource);
+        storeTimer.recordSince(start);
+        documentsStored.increment();
+    }
+
+    /**
+     * Retrieves the transaction service of a collection, if the driver provides one.
+     *
+     * @param collection the collection.
+     * @return           the transaction service, or {@code null} if transactions are not supported.
+     */
+    private TransactionService getTransactionService(Collection collection) {
+        try {
+            return (TransactionService) collection.getService("TransactionService", "1.0");
+        } catch (XMLDBException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Rolls back a transaction, logging instead of propagating failures.
+     *
+     * @param transaction the transaction service, or {@code null} if none is in use.
+     */
+    private void rollbackQuietly(TransactionService transaction) {
+        if (transaction == null) {
+            return;
+        }
+        try {
+            transaction.rollback();
+        } catch (XMLDBException e) {
+            logger.log(Level.WARNING, "Error rolling back transaction.", e);
         }
     }
 
@@ -97,20 +321,35 @@ public class TheDao implements Dao {
      */
     @Override
     public String getFileFromCollection(String collectionPath, String fileName) throws XMLDBException {
+        // An update still buffered is newer than what the database holds
+        Document buffered = writeBehind != null ? writeBehind.get(collectionPath, fileName) : null;
+        if (buffered != null) {
+            try {
+                return XMLFileUtil.toXmlString(buffered);
+            } catch (Exception e) {
+                logger.log(Level.SEVERE, "Error serializing buffered update: " + fileName, e);
+                throw new XMLDBException();
+            }
+        }
+
         // Get the collection, or throw an exception if it doesn't exist
-        Collection collection = getCollectionOrThrow(collectionPath);
+        try (Collection collection = getCollectionOrThrow(collectionPath)) {
+            // Retrieve the resource (file) from the collection
+            long start = System.nanoTime();
+            XMLResource resource = (XMLResource) collection.getResource(fileName);
 
-        // Retrieve the resource (file) from the collection
-        XMLResource resource = (XMLResource) collection.getResource(fileName);
+            if (resource == null) {
+                // If the file is not found, log a warning and throw an exception
+                logger.warning("File not found: " + fileName);
+                throw new XMLDBException();
+            }
 
-        if (resource == null) {
-            // If the file is not found, log a warning and throw an exception
-            logger.warning("File not found: " + fileName);
-            throw new XMLDBException();
+            // Return the content of the XML file as a string
+            String content = (String) resource.getContent();
+            retrieveTimer.recordSince(start);
+            contentBytes.add(ContentSize.utf8Length(content));
+            return content;
         }
-
-        // Return the content of the XML file as a string
-        return (String) resource.getContent();
     }
 
     /**
@@ -122,24 +361,31 @@ public class TheDao implements Dao {
      */
     @Override
     public void deleteFileFromCollection(String collectionPath, String fileName) throws XMLDBException {
-        // Get the collection, or throw an exception if it doesn't exist
-        Collection collection = getCollectionOrThrow(collectionPath);
+        discardBufferedUpdate(collectionPath, fileName); // Would bring the file back
 
-        // Retrieve the resource (file) to be deleted
-        Resource resource = collection.getResource(fileName);
+        // Get the collection, or throw an exception if it doesn't exist
+        try (Collection collection = getCollectionOrThrow(collectionPath)) {
+            // Retrieve the resource (file) to be deleted
+            Resource resource = collection.getResource(fileName);
 
-        if (resource != null) {
-            // If the file exists, remove it from the collection
-            collection.removeResource(resource);
-            logger.info("File deleted: " + fileName);
-        } else {
-            // If the file is not found, log a warning
-            logger.warning("File not found for deletion: " + fileName);
+            if (resource != null) {
+                // If the file exists, remove it from the collection
+                long start = System.nanoTime();
+                collection.removeResource(resource);
+                deleteTimer.recordSince(start);
+                logger.info("File deleted: " + fileName);
+                notifyChanged(collectionPath, ChangeType.CONTENT);
+            } else {
+                // If the file is not found, log a warning
+                logger.warning("File not found for deletion: " + fileName);
+            }
         }
     }
 
     /**
-     * Updates an XML file in a collection using the XMLFileManager utility.
+     * Updates an XML file in a collection using the XMLFileManager utility. With write-behind, the
+     * update is only buffered: the document must not be modified afterwards, and a missing file is
+     * reported when the buffer is flushed instead of here.
      *
      * @param collectionPath  the path of the collection.
      * @param fileName        the name of the file to update.
@@ -148,23 +394,85 @@ public class TheDao implements Dao {
      */
     @Override
     public void updateFileInCollection(String collectionPath, String fileName, Document document) throws XMLDBException {
+        if (writeBehind != null) {
+            writeBehind.put(collectionPath, fileName, document);
+            return;
+        }
+
         // Get the collection, or throw an exception if it doesn't exist
-        Collection collection = getCollectionOrThrow(collectionPath);
+        try (Collection collection = getCollectionOrThrow(collectionPath)) {
+            // Retrieve the resource (file) to be updated
+            XMLResource resource = (XMLResource) collection.getResource(fileName);
 
-        // Retrieve the resource (file) to be updated
-        XMLResource resource = (XMLResource) collection.getResource(fileName);
+            if (resource != null) {
+                // If the file exists, set its content to the new XML document
+                resource.setContentAsDOM(document);
 
-        if (resource != null) {
-            // If the file exists, set its content to the new XML document
-            resource.setContentAsDOM(document);
+                // Store the updated resource in the collection
+                store(collection, resource);
+                logger.info("File updated: " + fileName);
+                notifyChanged(collectionPath, ChangeType.CONTENT);
+            } else {
+                // If the file is not found, log a warning and throw an exception
+                logger.warning("File not found for update: " + fileName);
+                throw new XMLDBException();
+            }
+        }
+    }
 
-            // Store the updated resource in the collection
-            collection.storeResource(resource);
-            logger.info("File updated: " + fileName);
-        } else {
-            // If the file is not found, log a warning and throw an exception
-            logger.warning("File not found for update: " + fileName);
-            throw new XMLDBException();
+    /**
+     * Applies a field-level update on the server, without transferring the documents.
+     *
+     * <pre>
+     * dao.applyUpdate(XQueryFactory.update(novelsPath, Book.class).document("dune.xml").set("year", 1965));
+     * </pre>
+     *
+     * @param update          the update built by {@link org.phinix.lib.common.XQueryFactory#update}.
+     * @return                the number of updated objects.
+     * @throws XMLDBException if the collection cannot be retrieved or the update fails.
+     * @see #applyUpdates(List)
+     */
+    public int applyUpdate(XQueryUpdateBuilder<?> update) throws XMLDBException {
+        return applyUpdates(List.of(update));
+    }
+
+    /**
+     * Applies several field-level updates in one round trip, in order. eXist-db applies each
+     * update expression as soon as it is evaluated, so if one fails, the ones before it stay applied.
+     * Buffered full-document updates of this DAO are flushed first, so they cannot overwrite these.
+     *
+     * @param updates         the updates built by {@link org.phinix.lib.common.XQueryFactory#update}.
+     * @return                the number of updated objects, summed over the updates.
+     * @throws XMLDBException if a collection cannot be retrieved or an update fails.
+     */
+    public int applyUpdates(List<? extends XQueryUpdateBuilder<?>> updates) throws XMLDBException {
+        ParameterizedQuery query = XQueryUpdateBuilder.combine(updates);
+        flush();
+
+        Set<String> changed = new LinkedHashSet<>();
+        for (XQueryUpdateBuilder<?> update : updates) {
+            changed.add(update.getCollectionPath());
+        }
+
+        // Updates always go to the primary node
+        try (Collection collection = getCollectionOrThrow(query.getCollectionPath())) {
+            XQueryService queryService = (XQueryService) collection.getService("XQueryService", "1.0");
+            for (Map.Entry<String, Object> variable : query.getVariables().entrySet()) {
+                queryService.declareVariable(variable.getKey(), variable.getValue());
+            }
+
+            long start = System.nanoTime();
+            ResourceSet result = queryService.query(query.getQuery());
+            updateTimer.recordSince(start);
+            int updated = (int) result.getSize();
+            result.clear();
+            logger.info("Updated " + updated + " objects in " + changed);
+            return updated;
+        } finally {
+            // Updates before a failure are applied too
+            for (String collectionPath : changed) {
+                notifyChanged(collectionPath, ChangeType.CONTENT);
+            }
         }
     }
 
@@ -176,14 +484,126 @@ public class TheDao implements Dao {
      * @return               true if the file exists, false otherwise.
      */
     public boolean fileExistsInCollection(String collectionPath, String fileName) throws XMLDBException {
+        if (writeBehind != null && writeBehind.get(collectionPath, fileName) != null) {
+            return true; // Only existing files can be updated
+        }
+
         // Get the collection, or throw an exception if it doesn't exist
-        Collection collection = getCollectionOrThrow(collectionPath);
+        try (Collection collection = getCollectionOrThrow(collectionPath)) {
+            // Retrieve the resource (file) from the collection
+            XMLResource resource = (XMLResource) collection.getResource(fileName);
+
+            // Return true if the resource exists, false otherwise
+            return resource != null;
+        }
+    }
+
+    /**
+     * Installs the index configuration generated from the {@link XMLIndexed} fields of the model
+     * classes stored in a collection, then reindexes the collection so that existing documents are
+     * indexed too. eXist-db keeps the configuration in {@code /db/system/config} followed by the
+     * collection path; configuring a collection again replaces it.
+     *
+     * <p>Reindexing reads every document of the collection and its descendants, so call this when
+     * the model changes rather than on every start.</p>
+     *
+     * @param collectionPath                    the path of the collection.
+     * @param classes                           the model classes stored in the collection.
+     * @return                                  the installed {@code collection.xconf}.
+     * @throws XMLDBException                   if the collection does not exist or the configuration cannot be stored.
+     * @throws XMLSerializableNotFoundException if a class is not annotated with @XMLSerializableModel
+     * @see IndexConfiguration#generate(Class[])
+     */
+    public String configureIndexes(String collectionPath, Class<?>... classes) throws XMLDBException, XMLSerializableNotFoundException {
+        String configuration = IndexConfiguration.generate(classes);
+
+        try (Collection collection = getCollectionOrThrow(collectionPath)) {
+            // The service stores the configuration under /db/system/config and reloads it
+            IndexQueryService indexService = (IndexQueryService) collection.getService("IndexQueryService", "1.0");
+            indexService.configureCollection(configuration);
+            logger.info("Index configuration stored for collection: " + collectionPath);
+
+            indexService.reindexCollection();
+            logger.info("Collection reindexed: " + collectionPath);
+        }
+        notifyChanged(collectionPath, ChangeType.SCHEMA);
+        return configuration;
+    }
+
+    /**
+     * Stores the buffered updates now and waits until they are stored. Does nothing without write-behind.
+     *
+     * @return                the stored and failed updates, one chunk per collection.
+     * @throws XMLDBException if a collection could not be retrieved; its updates stay buffered.
+     */
+    public BatchResult flush() throws XMLDBException {
+        return writeBehind != null ? writeBehind.flush() : new BatchResult(List.of());
+    }
+
+    /**
+     * Stores the buffered updates and stops buffering; later updates are rejected. Does nothing
+     * without write-behind.
+     *
+     * @throws XMLDBException if the last flush failed.
+     */
+    @Override
+    public void close() throws XMLDBException {
+        if (writeBehind != null) {
+            existDB.removeShutdownHook(shutdownHook);
+            writeBehind.close();
+        }
+    }
+
+    /**
+     * Stores the buffered updates when the ExistDB instance shuts down.
+     */
+    private void drain() {
+        try {
+            writeBehind.close();
+        } catch (XMLDBException e) {
+            logger.log(Level.SEVERE, "Buffered updates could not be stored before shutdown.", e);
+        }
+    }
 
-        // Retrieve the resource (file) from the collection
-        XMLResource resource = (XMLResource) collection.getResource(fileName);
+    /**
+     * Stores the buffered updates of one collection in a single chunk.
+     *
+     * @param collectionPath  the path of the collection.
+     * @param index           the position of the collection in the flush.
+     * @param writes          the (file name, document) pairs.
+     * @return                the result, listing the files that could not be updated.
+     * @throws XMLDBException if the collection cannot be retrieved.
+     */
+    private ChunkResult storeUpdates(String collectionPath, int index, List<Map.Entry<String, Document>> writes) throws XMLDBException {
+        try (Collection collection = getCollectionOrThrow(collectionPath)) {
+            ChunkResult result = storeChunk(collection, index, writes, true);
+            logger.info("Buffered updates stored in " + collectionPath + ": " + result);
+            return result;
+        } finally {
+            notifyChanged(collectionPath, ChangeType.CONTENT);
+        }
+    }
+
+    /**
+     * Drops the buffered update of a file that is about to be replaced or deleted.
+     *
+     * @param collectionPath the path of the collection.
+     * @param fileName       the name of the file.
+     */
+    private void discardBufferedUpdate(String collectionPath, String fileName) {
+        if (writeBehind != null) {
+            writeBehind.discard(collectionPath, fileName);
+        }
+    }
 
-        // Return true if the resource exists, false otherwise
-        return resource != null;
+    /**
+     * Tells the listeners of the ExistDB instance, such as the query caches, that a collection has changed.
+     *
+     * @param collectionPath the path of the changed collection.
+     * @param type           what changed.
+     */
+    void notifyChanged(String collectionPath, ChangeType type) {
+        existDB.fireCollectionChanged(collectionPath, type);
     }
 
     /**
@@ -212,12 +632,13 @@ public class TheDao implements Dao {
 
     /**
      * Gets a collection from the database or throws an exception if it does not exist.
+     * The returned handle is pooled and must be closed by the caller.
      *
      * @param path            the path of the collection.
      * @return                the collection.
      * @throws XMLDBException if the collection does not exist.
      */
-    private Collection getCollectionOrThrow(String path) throws XMLDBException {
+    Collection getCollectionOrThrow(String path) throws XMLDBException {
         // Retrieve the collection from the database
         Collection collection = existDB.getCollection(path);
 
@@ -0,0 +1,259 @@
+package org.phinix.lib.dao;
+
+import org.w3c.dom.Document;
+import org.xmldb.api.base.XMLDBException;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * WriteBehindBuffer holds document updates and stores them later, in one batch per collection.
+ * Updates to the same file replace each other while they wait, so only the last one is stored.
+ *
+ * <p>The buffer is flushed when it holds {@code maxPendingWrites} files, by the thread adding the
+ * last one, and every {@code flushIntervalMillis} by a background thread. Only one flush runs at
+ * a time. Until its flush has stored it, an update stays visible through {@link #get}.</p>
+ *
+ * <p>If a collection cannot be retrieved, or storing its updates fails unexpectedly (e.g. the
+ * collection pool was closed), its updates are put back in the buffer (unless a newer
+ * update of the same file arrived meanwhile) and retried on the next flush. Updates of single
+ * files that fail, e.g. because the file does not exist, are reported in the result of the flush
+ * and logged, but not retried.</p>
+ */
+class WriteBehindBuffer {
+    private static final Logger logger = Logger.getLogger(WriteBehindBuffer.class.getName());
+
+    private final int maxPendingWrites;
+    private final Flusher flusher;
+    private final ScheduledExecutorService scheduler;
+    private final Object flushLock = new Object(); // Held for the whole of a flush
+
+    // Updates by collection path and file name, guarded by this
+    private Map<String, Map<String, Document>> pending = new LinkedHashMap<>();
+    private Map<String, Map<String, Document>> flushing = new LinkedHashMap<>(); // Taken by the running flush
+    private int pendingCount;
+    private long coalesced;
+    private boolean closed;
+
+    /**
+     * Creates a buffer and starts its flush thread.
+     *
+     * @param maxPendingWrites          the number of buffered files that triggers a flush.
+     * @param flushIntervalMillis       the time between two timed flushes, in milliseconds.
+     * @param flusher                   stores the updates of one collection.
+     * @throws IllegalArgumentException if a threshold is not positive.
+     */
+    WriteBehindBuffer(int maxPendingWrites, long flushIntervalMillis, Flusher flusher) {
+        if (maxPendingWrites <= 0 || flushIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Write-behind size and interval must be greater than zero.");
+        }
+        this.maxPendingWrites = maxPendingWrites;
+        this.flusher = flusher;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "existdb-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Buffers an update, replacing any update of the same file still waiting. The document must
+     * not be modified afterwards.
+     *
+     * @param collectionPath         the path of the collection.
+     * @param fileName               the name of the file.
+     * @param document               the new content of the file.
+     * @throws XMLDBException        if the buffer was full and the flush it triggered failed.
+     * @throws IllegalStateException if the buffer is closed.
+     */
+    void put(String collectionPath, String fileName, Document document) throws XMLDBException {
+        boolean full;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Write-behind buffer is closed.");
+            }
+            if (pending.computeIfAbsent(collectionPath, path -> new LinkedHashMap<>()).put(fileName, document) == null) {
+                pendingCount++;
+            } else {
+                coalesced++;
+            }
+            full = pendingCount >= maxPendingWrites;
+        }
+
+        if (full) {
+            flush(); // The writer that fills the buffer pays for the flush, which bounds its size
+        }
+    }
+
+    /**
+     * Looks up the buffered update of a file, including one being flushed.
+     *
+     * @param collectionPath the path of the collection.
+     * @param fileName       the name of the file.
+     * @return               the latest buffered document, or {@code null} if the file has no update waiting.
+     */
+    synchronized Document get(String collectionPath, String fileName) {
+        Document document = find(pending, collectionPath, fileName);
+        return document != null ? document : find(flushing, collectionPath, fileName);
+    }
+
+    /**
+     * Drops the update of a file that is still waiting, e.g. because the file is replaced or deleted.
+     * An update already being flushed is not stopped, so this waits for the running flush.
+     *
+     * @param collectionPath the path of the collection.
+     * @param fileName       the name of the file.
+     */
+    void discard(String collectionPath, String fileName) {
+        synchronized (flushLock) {
+            synchronized (this) {
+                Map<String, Document> files = pending.get(collectionPath);
+                if (files != null && files.remove(fileName) != null) {
+                    pendingCount--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores every buffered update, one batch per collection, and returns once they are stored.
+     *
+     * @return                   the result of every collection, in the order they were first updated.
+     * @throws XMLDBException    if a collection could not be retrieved; its updates stay buffered.
+     * @throws RuntimeException  if storing the updates of a collection failed unexpectedly; they stay buffered.
+     */
+    BatchResult flush() throws XMLDBException {
+        synchronized (flushLock) {
+            synchronized (this) {
+                flushing = pending;
+                pending = new LinkedHashMap<>();
+                pendingCount = 0;
+            }
+
+            List<ChunkResult> results = new ArrayList<>();
+            Exception failure = null;
+            try {
+                for (Map.Entry<String, Map<String, Document>> collection : flushing.entrySet()) {
+                    List<Map.Entry<String, Document>> writes = new ArrayList<>(collection.getValue().size());
+                    for (Map.Entry<String, Document> write : collection.getValue().entrySet()) {
+                        writes.add(new AbstractMap.SimpleImmutableEntry<>(write));
+                    }
+                    if (writes.isEmpty()) {
+                        continue;
+                    }
+
+                    try {
+                        ChunkResult result = flusher.flush(collection.getKey(), results.size(), writes);
+                        results.add(result);
+                        for (Map.Entry<String, Exception> failed : result.getFailures().entrySet()) {
+                            logger.log(Level.SEVERE, "Buffered update lost: " + collection.getKey() + "/" + failed.getKey(), failed.getValue());
+                        }
+                    } catch (XMLDBException | RuntimeException e) {
+                        // Keep the updates and go on with the other collections, they may still be reachable
+                        logger.log(Level.SEVERE, "Cannot flush buffered updates of collection: " + collection.getKey(), e);
+                        requeue(collection.getKey(), collection.getValue());
+                        if (failure == null) {
+                            failure = e;
+                        }
+                    }
+                }
+            } finally {
+                synchronized (this) {
+                    flushing = new LinkedHashMap<>();
+                }
+            }
+
+            if (failure instanceof XMLDBException) {
+                throw (XMLDBException) failure;
+            }
+            if (failure != null) {
+                throw (RuntimeException) failure;
+            }
+            return new BatchResult(results);
+        }
+    }
+
+    /**
+     * Stops the flush thread and stores what is left. Further updates are rejected.
+     *
+     * @throws XMLDBException if the last flush failed; the updates it could not store are lost.
+     */
+    void close() throws XMLDBException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        scheduler.shutdown();
+        flush();
+    }
+
+    synchronized int getPendingCount() {
+        return pendingCount;
+    }
+
+    /**
+     * @return the number of updates replaced by a later update of the same file before being stored.
+     */
+    synchronized long getCoalesced() {
+        return coalesced;
+    }
+
+    /**
+     * Puts back the updates of a collection that could not be flushed, behind any newer update.
+     *
+     * @param collectionPath the path of the collection.
+     * @param files          the updates by file name.
+     */
+    private synchronized void requeue(String collectionPath, Map<String, Document> files) {
+        Map<String, Document> waiting = pending.computeIfAbsent(collectionPath, path -> new LinkedHashMap<>());
+        for (Map.Entry<String, Document> file : files.entrySet()) {
+            if (waiting.putIfAbsent(file.getKey(), file.getValue()) == null) {
+                pendingCount++;
+            }
+        }
+    }
+
+    /**
+     * Flushes from the background thread, which has no caller to report to.
+     */
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (XMLDBException | RuntimeException e) {
+            logger.log(Level.WARNING, "Timed flush of buffered updates failed; retrying on the next one.", e);
+        }
+    }
+
+    private static Document find(Map<String, Map<String, Document>> updates, String collectionPath, String fileName) {
+        Map<String, Document> files = updates.get(collectionPath);
+        return files == null ? null : files.get(fileName);
+    }
+
+    /**
+     * Stores the buffered updates of one collection.
+     */
+    @FunctionalInterface
+    interface Flusher {
+        /**
+         * Stores updates of existing files.
+         *
+         * @param collectionPath  the path of the collection.
+         * @param index           the position of the collection in the flush.
+         * @param writes          the (file name, document) pairs.
+         * @return                the result, listing the files that could not be updated.
+         * @throws XMLDBException if the collection cannot be retrieved.
+         */
+        ChunkResult flush(String collectionPath, int index, List<Map.Entry<String, Document>> writes) throws XMLDBException;
+    }
+}
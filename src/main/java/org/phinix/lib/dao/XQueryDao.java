@@ -1,37 +1,71 @@
 package org.phinix.lib.dao;
 
+import org.phinix.lib.common.ParameterizedQuery;
+import org.phinix.lib.common.ValueConverter;
 import org.phinix.lib.common.XMLSerializableNotFoundException;
+import org.phinix.lib.common.XMLCodecs;
 import org.phinix.lib.common.XMLFileUtil;
+import org.phinix.lib.common.XMLStreamMapper;
+import org.phinix.lib.metrics.Counter;
+import org.phinix.lib.metrics.MetricsRegistry;
+import org.phinix.lib.metrics.Timer;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
+import org.exist.xmldb.EXistXQueryService;
 import org.xmldb.api.base.Collection;
 import org.xmldb.api.base.Resource;
 import org.xmldb.api.base.ResourceSet;
+import org.xmldb.api.base.Service;
 import org.xmldb.api.base.XMLDBException;
-import org.xmldb.api.modules.XPathQueryService;
+import org.xmldb.api.modules.XMLResource;
+import org.xmldb.api.modules.XQueryService;
 
-import java.io.ByteArrayInputStream;
-import java.lang.reflect.Field;
-import java.nio.charset.StandardCharsets;
+import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.OptionalDouble;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.text.SimpleDateFormat;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.phinix.lib.service.CollectionPool;
+import org.phinix.lib.service.CompiledQueryCache;
 import org.phinix.lib.service.ExistDB;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import org.phinix.lib.service.QueryProfile;
+import org.phinix.lib.service.QueryResultCache;
+import org.phinix.lib.service.SlowQueryLog;
 
 /**
  * XQueryDao is a class responsible for executing XQuery queries over an eXist-db database.
  * It also maps the results of these queries to Java objects.
+ *
+ * <p>The phases of each query are timed in the metrics of the ExistDB instance: {@code query.compile},
+ * {@code query.execute}, {@code query.fetch} per result resource and {@code query.map} per mapped
+ * resource, along with the {@code query.objects} mapped, the {@code query.contentBytes} of result
+ * content received (its UTF-8 size, measured from the SAX events when the content is not read as
+ * text) and the {@code query.errors}.</p>
+ *
+ * <p>If the ExistDB instance is configured with a {@link SlowQueryLog}, {@code executeQuery} also
+ * profiles each query and hands the profile of the slow ones to it.</p>
  */
 public class XQueryDao {
     private static final Logger logger = Logger.getLogger(XQueryDao.class.getName());
+    public static final int DEFAULT_FETCH_SIZE = 100; // Result resources fetched and mapped at a time when streaming
+    @SuppressWarnings("unchecked")
+    private static final Class<Map<String, String>> GROUPS_TYPE = (Class<Map<String, String>>) (Class<?>) Map.class; // Cache key of grouped results
     private final ExistDB existDB;
+    private final Timer compileTimer;
+    private final Timer executeTimer;
+    private final Timer fetchTimer;
+    private final Timer mapTimer;
+    private final Counter objectsMapped;
+    private final Counter contentBytes;
+    private final Counter errors;
+    private final SlowQueryLog slowQueryLog; // Null unless slow queries are logged
 
     /**
      * Constructor that initializes the class with an instance of ExistDB.
@@ -40,6 +74,17 @@ public class XQueryDao {
      */
     public XQueryDao(ExistDB existDB) {
         this.existDB = existDB;
+
+        // Looked up once, so recording is only an increment
+        MetricsRegistry metrics = existDB.getMetrics();
+        this.compileTimer = metrics.timer("query.compile");
+        this.executeTimer = metrics.timer("query.execute");
+        this.fetchTimer = metrics.timer("query.fetch");
+        this.mapTimer = metrics.timer("query.map");
+        this.objectsMapped = metrics.counter("query.objects");
+        this.contentBytes = metrics.counter("query.contentBytes");
+        this.errors = metrics.counter("query.errors");
+        this.slowQueryLog = existDB.getConfig().getSlowQueryLog();
     }
 
     /**
@@ -53,58 +98,440 @@ public class XQueryDao {
      * @throws XMLSerializableNotFoundException if the class is not annotated with @XMLSerializableModel
      */
     public <T> List<T> executeQuery(String query, String collectionPath, Class<T> clazz) throws XMLSerializableNotFoundException {
+        return executeQuery(rawQuery(query, collectionPath), clazz);
+    }
+
+    /**
+     * Executes a parameterized query on eXist-db, binding its variables, maps the results, and
+     * returns them as a list of objects. When the result cache of the ExistDB instance is enabled,
+     * results are served from it until they expire or their collection is written through a DAO;
+     * the mapped objects are then shared between callers and must not be modified. Queries that
+     * reach the server are profiled for the slow-query log when it is enabled.
+     *
+     * @param query                             The query built by {@link org.phinix.lib.common.XQueryBuilder}.
+     * @param clazz                             The class to map the results to.
+     * @param <T>                               The type of object to return.
+     * @return                                  A list of objects mapped from the query results.
+     * @throws XMLSerializableNotFoundException if the class is not annotated with @XMLSerializableModel
+     */
+    public <T> List<T> executeQuery(ParameterizedQuery query, Class<T> clazz) throws XMLSerializableNotFoundException {
         // Check if the class is annotated with @XMLSerializableModel
         if (!XMLFileUtil.isXMLSerializable(clazz)) {
             throw new XMLSerializableNotFoundException();
         }
 
+        // Serve repeated reads from the result cache when it is enabled
+        QueryResultCache resultCache = existDB.getQueryResultCache();
+        List<T> cached = resultCache.get(query.getCollectionPath(), query.getQuery(), query.getVariables(), clazz);
+        if (cached != null) {
+            return new ArrayList<>(cached);
+        }
+        long generation = resultCache.getGeneration();
+        boolean complete = false;
+
         List<T> results = new ArrayList<>();
-        try {
+        Phases phases = slowQueryLog != null ? new Phases() : null; // Only profiled for the slow-query log
+        // Keep the pooled collection borrowed until every result resource has been read
+        CollectionPool node = existDB.getReadPool();
+        try (Collection collection = getCollection(node, query.getCollectionPath());
+             CompiledQueryCache.Lease compiled = existDB.getCompiledQueryCache().lease(node, query.getCollectionPath(), query.getQuery())) {
             // Execute the raw XQuery and retrieve the results
-            ResourceSet resourceSet = executeRawQuery(query, collectionPath);
+            ResourceSet resourceSet = executeRawQuery(query, collection, compiled, phases);
 
             if (resourceSet != null) {
-                // Iterate through the result set and process each resource
-                for (int i = 0; i < resourceSet.getSize(); i++) {
-                    Resource resource = resourceSet.getResource(i);
-                    String content = (String) resource.getContent();
-
-                    // Parse the XML content into a Document object
-                    Document doc = parseXMLContent(content);
-
-                    // Map the XML document to a list of objects of type T
-                    List<T> objList = mapToObjects(clazz, doc);
+                // Iterate through the result set and process each resource, after the total if there is one
+                for (int i = firstResultIndex(query); i < resourceSet.getSize(); i++) {
+                    // Map the resource to a list of objects of type T and add them to the results
+                    results.addAll(mapResource(fetch(resourceSet, i, phases), clazz, phases));
+                }
+                complete = true;
 
-                    // Add the mapped objects to the results list
-                    results.addAll(objList);
+                if (phases != null) {
+                    logIfSlow(query, collection, compiled, phases, resourceSet.getSize(), results.size());
                 }
             }
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Error mapping results to class: " + clazz.getSimpleName(), e);
         }
+
+        // Only cache results that were read in full
+        if (complete) {
+            resultCache.put(query.getCollectionPath(), query.getQuery(), query.getVariables(), clazz, results, generation);
+        }
         return results;
     }
 
+    /**
+     * Executes a query built with a window ({@code offset}, {@code limit} or {@code page}) and
+     * returns that page. Only the objects of the page are serialized, transferred and mapped. If the
+     * query was built with {@code withTotal()}, the total number of matches comes back in the same
+     * round trip.
+     *
+     * <pre>
+     * ParameterizedQuery query = XQueryFactory.query(novelsPath, Book.class)
+     *         .orderBy("title", true)
+     *         .page(0, 20)
+     *         .withTotal()
+     *         .build();
+     * Page&lt;Book&gt; page = dao.executePage(query, Book.class);
+     * </pre>
+     *
+     * @param query                             The query built by {@link org.phinix.lib.common.XQueryBuilder}.
+     * @param clazz                             The class to map the results to.
+     * @param <T>                               The type of object to return.
+     * @return                                  The page of mapped objects.
+     * @throws XMLDBException                   if the collection cannot be retrieved or the query fails.
+     * @throws XMLSerializableNotFoundException if the class is not annotated with @XMLSerializableModel
+     */
+    public <T> Page<T> executePage(ParameterizedQuery query, Class<T> clazz) throws XMLDBException, XMLSerializableNotFoundException {
+        // Check if the class is annotated with @XMLSerializableModel
+        if (!XMLFileUtil.isXMLSerializable(clazz)) {
+            throw new XMLSerializableNotFoundException();
+        }
+
+        CollectionPool node = existDB.getReadPool();
+        Collection collection = existDB.getReadCollection(node, query.getCollectionPath());
+        if (collection == null) {
+            logger.severe("Collection not found: " + query.getCollectionPath());
+            throw new XMLDBException();
+        }
+
+        try (collection;
+             CompiledQueryCache.Lease compiled = existDB.getCompiledQueryCache().lease(node, query.getCollectionPath(), query.getQuery())) {
+            ResourceSet resourceSet = query(query, collection, compiled);
+            try {
+                // The total, if requested, is the first item of the result
+                long total = -1;
+                if (query.includesTotal() && resourceSet.getSize() > 0) {
+                    total = Long.parseLong(resourceSet.getResource(0).getContent().toString());
+                }
+
+                List<T> content = new ArrayList<>();
+                for (int i = firstResultIndex(query); i < resourceSet.getSize(); i++) {
+                    content.addAll(mapResource(fetch(resourceSet, i, null), clazz));
+                }
+                return new Page<>(content, query.getOffset(), query.getLimit(), total);
+            } catch (XMLDBException e) {
+                throw e;
+            } catch (Exception e) {
+                logger.log(Level.SEVERE, "Error mapping results to class: " + clazz.getSimpleName(), e);
+                throw new RuntimeException("Failed to map page of " + clazz.getSimpleName() + ".", e);
+            } finally {
+                resourceSet.clear();
+            }
+        }
+    }
+
+    /**
+     * Executes a query built with {@code count()} and returns the number of matches. Only the
+     * number is transferred.
+     *
+     * <pre>
+     * long novels = dao.executeCount(XQueryFactory.query(novelsPath, Book.class).where("year", "&lt;", 1950).count());
+     * </pre>
+     *
+     * @param query           The query built by {@link org.phinix.lib.common.XQueryBuilder#count()}.
+     * @return                The number of matches.
+     * @throws XMLDBException if the collection cannot be retrieved or the query fails.
+     */
+    public long executeCount(ParameterizedQuery query) throws XMLDBException {
+        String value = executeCompact(query, String.class, XQueryDao::readScalar);
+        return value.isEmpty() ? 0 : Long.parseLong(value);
+    }
+
+    /**
+     * Executes a query built with {@code aggregate(function, field)} and returns the aggregated value.
+     *
+     * @param query           The query built by {@link org.phinix.lib.common.XQueryBuilder#aggregate}.
+     * @return                The value, or empty if there was nothing to aggregate (e.g. the average of no matches).
+     * @throws XMLDBException if the collection cannot be retrieved or the query fails.
+     */
+    public OptionalDouble executeAggregate(ParameterizedQuery query) throws XMLDBException {
+        String value = executeCompact(query, String.class, XQueryDao::readScalar);
+        return value.isEmpty() ? OptionalDouble.empty() : OptionalDouble.of(Double.parseDouble(value));
+    }
+
+    /**
+     * Executes a query built with {@code countBy(field)} and returns the number of matches for
+     * each value of the field.
+     *
+     * <pre>
+     * Map&lt;String, Long&gt; booksByAuthor = dao.executeGroupedCount(
+     *         XQueryFactory.query(novelsPath, Book.class).countBy("author"), String.class);
+     * </pre>
+     *
+     * @param query           The query built by {@link org.phinix.lib.common.XQueryBuilder#countBy}.
+     * @param keyType         The type of the grouping field; matches without the field are counted under a
+     *                        {@code null} key, or under {@code ""} for strings.
+     * @param <K>             The type of the keys.
+     * @return                The count of each group, sorted by key.
+     * @throws XMLDBException if the collection cannot be retrieved or the query fails.
+     */
+    public <K> Map<K, Long> executeGroupedCount(ParameterizedQuery query, Class<K> keyType) throws XMLDBException {
+        return toGroups(executeCompact(query, GROUPS_TYPE, XQueryDao::readGroups), keyType, Long::parseLong);
+    }
+
+    /**
+     * Executes a query built with {@code aggregateBy(groupField, function, field)} and returns the
+     * aggregated value for each value of the grouping field.
+     *
+     * @param query           The query built by {@link org.phinix.lib.common.XQueryBuilder#aggregateBy}.
+     * @param keyType         The type of the grouping field; matches without the field are grouped under a
+     *                        {@code null} key, or under {@code ""} for strings.
+     * @param <K>             The type of the keys.
+     * @return                The value of each group, sorted by key; {@code null} for groups with nothing to aggregate.
+     * @throws XMLDBException if the collection cannot be retrieved or the query fails.
+     */
+    public <K> Map<K, Double> executeGroupedAggregate(ParameterizedQuery query, Class<K> keyType) throws XMLDBException {
+        return toGroups(executeCompact(query, GROUPS_TYPE, XQueryDao::readGroups), keyType, Double::parseDouble);
+    }
+
+    /**
+     * Executes an XQuery query on eXist-db and returns its results as a lazy stream. Results are
+     * fetched and mapped {@value #DEFAULT_FETCH_SIZE} resources at a time.
+     *
+     * @param query                             The XQuery string to execute.
+     * @param collectionPath                    The path of the collection in the database.
+     * @param clazz                             The class to map the results to.
+     * @param <T>                               The type of object to return.
+     * @return                                  A stream of objects mapped from the query results; it must be closed.
+     * @throws XMLDBException                   if the collection cannot be retrieved or the query fails.
+     * @throws XMLSerializableNotFoundException if the class is not annotated with @XMLSerializableModel
+     * @see #streamQuery(String, String, Class, int)
+     */
+    public <T> Stream<T> streamQuery(String query, String collectionPath, Class<T> clazz) throws XMLDBException, XMLSerializableNotFoundException {
+        return streamQuery(query, collectionPath, clazz, DEFAULT_FETCH_SIZE);
+    }
+
+    /**
+     * Executes an XQuery query on eXist-db and returns its results as a lazy stream, so memory
+     * stays flat however many results there are. The stream keeps a pooled collection borrowed
+     * until it is closed or fully consumed, so use it with try-with-resources:
+     *
+     * <pre>
+     * try (Stream&lt;Book&gt; books = dao.streamQuery(query, novelsPath, Book.class, 500)) {
+     *     books.forEach(book -&gt; System.out.println(book.getTitle()));
+     * }
+     * </pre>
+     *
+     * @param query                             The XQuery string to execute.
+     * @param collectionPath                    The path of the collection in the database.
+     * @param clazz                             The class to map the results to.
+     * @param fetchSize                         The number of result resources fetched and mapped at a time.
+     * @param <T>                               The type of object to return.
+     * @return                                  A stream of objects mapped from the query results; it must be closed.
+     * @throws XMLDBException                   if the collection cannot be retrieved or the query fails.
+     * @throws XMLSerializableNotFoundException if the class is not annotated with @XMLSerializableModel
+     */
+    public <T> Stream<T> streamQuery(String query, String collectionPath, Class<T> clazz, int fetchSize) throws XMLDBException, XMLSerializableNotFoundException {
+        return streamQuery(rawQuery(query, collectionPath), clazz, fetchSize);
+    }
+
+    /**
+     * Executes a parameterized query on eXist-db and returns its results as a lazy stream.
+     *
+     * @param query                             The query built by {@link org.phinix.lib.common.XQueryBuilder}.
+     * @param clazz                             The class to map the results to.
+     * @param fetchSize                         The number of result resources fetched and mapped at a time.
+     * @param <T>                               The type of object to return.
+     * @return                                  A stream of objects mapped from the query results; it must be closed.
+     * @throws XMLDBException                   if the collection cannot be retrieved or the query fails.
+     * @throws XMLSerializableNotFoundException if the class is not annotated with @XMLSerializableModel
+     * @see #streamQuery(String, String, Class, int)
+     */
+    public <T> Stream<T> streamQuery(ParameterizedQuery query, Class<T> clazz, int fetchSize) throws XMLDBException, XMLSerializableNotFoundException {
+        QueryResultIterator<T> iterator = iterateQuery(query, clazz, fetchSize);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(iterator::close);
+    }
+
+    /**
+     * Executes an XQuery query on eXist-db and returns a closeable iterator that fetches and maps
+     * the results lazily.
+     *
+     * @param query                             The XQuery string to execute.
+     * @param collectionPath                    The path of the collection in the database.
+     * @param clazz                             The class to map the results to.
+     * @param fetchSize                         The number of result resources fetched and mapped at a time.
+     * @param <T>                               The type of object to return.
+     * @return                                  An iterator over the mapped results; it must be closed.
+     * @throws XMLDBException                   if the collection cannot be retrieved or the query fails.
+     * @throws XMLSerializableNotFoundException if the class is not annotated with @XMLSerializableModel
+     */
+    public <T> QueryResultIterator<T> iterateQuery(String query, String collectionPath, Class<T> clazz, int fetchSize) throws XMLDBException, XMLSerializableNotFoundException {
+        return iterateQuery(rawQuery(query, collectionPath), clazz, fetchSize);
+    }
+
+    /**
+     * Executes a parameterized query on eXist-db and returns a closeable iterator that fetches and
+     * maps the results lazily.
+     *
+     * @param query                             The query built by {@link org.phinix.lib.common.XQueryBuilder}.
+     * @param clazz                             The class to map the results to.
+     * @param fetchSize                         The number of result resources fetched and mapped at a time.
+     * @param <T>                               The type of object to return.
+     * @return                                  An iterator over the mapped results; it must be closed.
+     * @throws XMLDBException                   if the collection cannot be retrieved or the query fails.
+     * @throws XMLSerializableNotFoundException if the class is not annotated with @XMLSerializableModel
+     */
+    public <T> QueryResultIterator<T> iterateQuery(ParameterizedQuery query, Class<T> clazz, int fetchSize) throws XMLDBException, XMLSerializableNotFoundException {
+        // Check if the class is annotated with @XMLSerializableModel
+        if (!XMLFileUtil.isXMLSerializable(clazz)) {
+            throw new XMLSerializableNotFoundException();
+        }
+
+        CollectionPool node = existDB.getReadPool();
+        Collection collection = existDB.getReadCollection(node, query.getCollectionPath());
+        if (collection == null) {
+            logger.severe("Collection not found: " + query.getCollectionPath());
+            throw new XMLDBException();
+        }
+
+        CompiledQueryCache.Lease compiled = existDB.getCompiledQueryCache().lease(node, query.getCollectionPath(), query.getQuery());
+        try {
+            // The iterator takes ownership of the borrowed collection and of the compiled query
+            ResourceSet resourceSet = query(query, collection, compiled);
+            return new QueryResultIterator<>(collection, resourceSet, resource -> mapResource(resource, clazz), fetchSize,
+                    fetchTimer, compiled::close)
+                    .skipResources(firstResultIndex(query));
+        } catch (XMLDBException | RuntimeException e) {
+            compiled.close();
+            collection.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Executes a query whose whole result is read into one compact value, such as an aggregate.
+     * The value goes through the result cache like mapped results do.
+     *
+     * @param query           The query to execute.
+     * @param type            The type of the value, which is part of its cache key.
+     * @param reader          Reads the value from the result set.
+     * @param <R>             The type of the value.
+     * @return                The value.
+     * @throws XMLDBException if the collection cannot be retrieved or the query fails.
+     */
+    private <R> R executeCompact(ParameterizedQuery query, Class<R> type, ResultReader<R> reader) throws XMLDBException {
+        QueryResultCache resultCache = existDB.getQueryResultCache();
+        List<R> cached = resultCache.get(query.getCollectionPath(), query.getQuery(), query.getVariables(), type);
+        if (cached != null) {
+            return cached.get(0);
+        }
+        long generation = resultCache.getGeneration();
+
+        CollectionPool node = existDB.getReadPool();
+        Collection collection = existDB.getReadCollection(node, query.getCollectionPath());
+        if (collection == null) {
+            logger.severe("Collection not found: " + query.getCollectionPath());
+            throw new XMLDBException();
+        }
+
+        try (collection;
+             CompiledQueryCache.Lease compiled = existDB.getCompiledQueryCache().lease(node, query.getCollectionPath(), query.getQuery())) {
+            ResourceSet resourceSet = query(query, collection, compiled);
+            try {
+                R result = reader.read(resourceSet);
+                resultCache.put(query.getCollectionPath(), query.getQuery(), query.getVariables(), type, List.of(result), generation);
+                return result;
+            } catch (XMLDBException e) {
+                throw e;
+            } catch (Exception e) {
+                logger.log(Level.SEVERE, "Error reading result of query: " + query, e);
+                throw new RuntimeException("Failed to read the result of the query.", e);
+            } finally {
+                resourceSet.clear();
+            }
+        }
+    }
+
+    /**
+     * Reads a single atomic result.
+     *
+     * @param resourceSet     The result set.
+     * @return                The trimmed value, or an empty string if the result is empty.
+     * @throws XMLDBException if the result cannot be read.
+     */
+    private static String readScalar(ResourceSet resourceSet) throws XMLDBException {
+        return resourceSet.getSize() == 0 ? "" : resourceSet.getResource(0).getContent().toString().trim();
+    }
+
+    /**
+     * Reads the single {@code <groups>} element returned by a grouped aggregate.
+     *
+     * @param resourceSet The result set.
+     * @return            The value of each group by key.
+     * @throws Exception  If the result cannot be read or parsed.
+     */
+    private static Map<String, String> readGroups(ResourceSet resourceSet) throws Exception {
+        if (resourceSet.getSize() == 0) {
+            return Map.of();
+        }
+        return XMLStreamMapper.readGroups(resourceSet.getResource(0).getContent().toString());
+    }
+
+    /**
+     * Converts the keys and values of grouped results.
+     *
+     * @param groups  The raw value of each group by key.
+     * @param keyType The type of the keys.
+     * @param value   Converts a non-empty value.
+     * @param <K>     The type of the keys.
+     * @param <V>     The type of the values.
+     * @return        The converted groups, in the same order.
+     */
+    private static <K, V> Map<K, V> toGroups(Map<String, String> groups, Class<K> keyType, Function<String, V> value) {
+        ValueConverter keyConverter = ValueConverter.forType(keyType);
+        Map<K, V> converted = new LinkedHashMap<>();
+        for (Map.Entry<String, String> group : groups.entrySet()) {
+            try {
+                // Matches without the grouping field share the empty key
+                K key = group.getKey().isEmpty() && keyType != String.class ? null : keyType.cast(keyConverter.parse(group.getKey()));
+                converted.put(key, group.getValue().isEmpty() ? null : value.apply(group.getValue()));
+            } catch (Exception e) {
+                throw new IllegalArgumentException("Cannot convert group " + group.getKey() + " to " + keyType.getSimpleName(), e);
+            }
+        }
+        return converted;
+    }
+
+    /**
+     * Gives the index of the first result resource, skipping the total count of queries that return one.
+     *
+     * @param query The query.
+     * @return      The index of the first mapped resource.
+     */
+    private static int firstResultIndex(ParameterizedQuery query) {
+        return query.includesTotal() ? 1 : 0;
+    }
+
+    /**
+     * Wraps a query string, which binds no variables, so it runs through the same path as parameterized queries.
+     *
+     * @param query          The XQuery string.
+     * @param collectionPath The path of the collection in the database.
+     * @return               The query without variables.
+     */
+    private static ParameterizedQuery rawQuery(String query, String collectionPath) {
+        return new ParameterizedQuery(collectionPath, query, Map.of());
+    }
+
     /**
      * Executes a raw XQuery query on eXist-db and returns the result set.
      *
-     * @param query           The XQuery string to execute.
-     * @param collectionPath  The path of the collection in the database.
-     * @return                The resource set obtained as the result of the query.
+     * @param query      The query to execute.
+     * @param collection The collection the query runs against, or {@code null} if it could not be retrieved.
+     * @param compiled   The lease on the compiled form of the query.
+     * @param phases     Accumulates the time of each phase, or {@code null} if the query is not profiled.
+     * @return           The resource set obtained as the result of the query.
      */
-    private ResourceSet executeRawQuery(String query, String collectionPath) {
-        // Retrieve the collection from the database
-        Collection collection = getCollection(collectionPath);
+    private ResourceSet executeRawQuery(ParameterizedQuery query, Collection collection, CompiledQueryCache.Lease compiled, Phases phases) {
         if (collection == null) {
             return null;
         }
 
         try {
-            // Get the XPathQueryService to execute the XQuery
-            XPathQueryService queryService = (XPathQueryService) collection.getService("XPathQueryService", "1.0");
-
-            // Execute the query and return the result set
-            return queryService.query(query);
+            return query(query, collection, compiled, phases);
         } catch (XMLDBException e) {
             logger.log(Level.SEVERE, "Error executing query: " + query, e);
             return null;
@@ -112,15 +539,79 @@ public class XQueryDao {
     }
 
     /**
-     * Retrieves a collection from the eXist-db database.
+     * Executes an XQuery query on a collection, declaring its external variables first. The query
+     * is compiled only if the lease holds no compiled form of it yet, and not at all if the
+     * compiled-query cache is disabled.
      *
+     * @param query           The query to execute.
+     * @param collection      The collection the query runs against.
+     * @param compiled        The lease on the compiled form of the query; discarded if the query fails.
+     * @return                The resource set obtained as the result of the query.
+     * @throws XMLDBException if the query fails.
+     */
+    private ResourceSet query(ParameterizedQuery query, Collection collection, CompiledQueryCache.Lease compiled) throws XMLDBException {
+        return query(query, collection, compiled, null);
+    }
+
+    /**
+     * Executes an XQuery query on a collection, adding the time of its phases to a profile.
+     *
+     * @param query           The query to execute.
+     * @param collection      The collection the query runs against.
+     * @param compiled        The lease on the compiled form of the query; discarded if the query fails.
+     * @param phases          Accumulates the time of each phase, or {@code null} if the query is not profiled.
+     * @return                The resource set obtained as the result of the query.
+     * @throws XMLDBException if the query fails.
+     */
+    private ResourceSet query(ParameterizedQuery query, Collection collection, CompiledQueryCache.Lease compiled, Phases phases) throws XMLDBException {
+        // Get the XQueryService, which can bind external variables
+        XQueryService queryService = (XQueryService) collection.getService("XQueryService", "1.0");
+
+        // Bind the values; they never become part of the query text
+        for (Map.Entry<String, Object> variable : query.getVariables().entrySet()) {
+            queryService.declareVariable(variable.getKey(), variable.getValue());
+        }
+
+        try {
+            // Compile on a cache miss, then execute and return the result set
+            boolean reusable = existDB.getCompiledQueryCache().isEnabled();
+            if (reusable && compiled.getExpression() == null) {
+                long start = System.nanoTime();
+                compiled.setExpression(queryService.compile(query.getQuery()));
+                long elapsed = System.nanoTime() - start;
+                compileTimer.record(elapsed);
+                if (phases != null) {
+                    phases.compileNanos += elapsed;
+                }
+            }
+            long start = System.nanoTime();
+            // Without a cache nothing would be reused, so compile and run the query in a single call
+            ResourceSet resourceSet = reusable ? queryService.execute(compiled.getExpression()) : queryService.query(query.getQuery());
+            long elapsed = System.nanoTime() - start;
+            executeTimer.record(elapsed);
+            if (phases != null) {
+                phases.executeNanos += elapsed;
+            }
+            return resourceSet;
+        } catch (XMLDBException | RuntimeException e) {
+            errors.increment();
+            compiled.discard();
+            throw e;
+        }
+    }
+
+    /**
+     * Retrieves a collection for reading from a node of the eXist-db database, usually the one picked by
+     * {@link ExistDB#getReadPool()}. The handle is pooled and must be closed by the caller.
+     *
+     * @param node           The pool of the read node.
      * @param collectionPath The path of the collection.
      * @return               The requested collection.
      */
-    private Collection getCollection(String collectionPath) {
+    private Collection getCollection(CollectionPool node, String collectionPath) {
         try {
             // Attempt to retrieve the collection from the database
-            Collection collection = existDB.getCollection(collectionPath);
+            Collection collection = existDB.getReadCollection(node, collectionPath);
 
             // If collection retrieval fails, throw an exception
             if (collection == null) {
@@ -134,112 +625,136 @@ public class XQueryDao {
     }
 
     /**
-     * Converts an XML string into a DOM Document object.
+     * Maps one result resource to the objects of the specified class it contains, in a single
+     * streaming pass. Classes with a generated codec are read through StAX; otherwise XML resources
+     * push their SAX events straight into the mapper, so no intermediate string or DOM is built when
+     * the driver can avoid it.
      *
-     * @param content    The XML content.
-     * @return           The parsed Document object.
-     * @throws Exception If an error occurs during parsing.
+     * @param resource   The result resource.
+     * @param clazz      The class to which the objects will be mapped.
+     * @param <T>        The type of the class to return.
+     * @return           The objects mapped from the resource.
+     * @throws Exception If an error occurs during parsing or mapping.
      */
-    private Document parseXMLContent(String content) throws Exception {
-        try {
-            // Create a DocumentBuilderFactory and DocumentBuilder for parsing the XML
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-
-            // Parse the XML content and return the resulting Document
-            return builder.parse(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
-        } catch (Exception e) {
-            logger.log(Level.SEVERE, "Error parsing XML: " + content, e);
-            throw new Exception("Error parsing XML", e);
-        }
+    private <T> List<T> mapResource(Resource resource, Class<T> clazz) throws Exception {
+        return mapResource(resource, clazz, null);
     }
 
     /**
-     * Maps the content of an XML document to a list of objects of the specified class.
+     * Maps one result resource, adding the time spent to a profile.
      *
+     * @param resource   The result resource.
      * @param clazz      The class to which the objects will be mapped.
-     * @param doc        The XML document containing the data.
+     * @param phases     Accumulates the time of each phase, or {@code null} if the query is not profiled.
      * @param <T>        The type of the class to return.
-     * @return           A list of objects mapped from the XML document.
-     * @throws Exception If an error occurs during mapping.
+     * @return           The objects mapped from the resource.
+     * @throws Exception If an error occurs during parsing or mapping.
      */
-    private <T> List<T> mapToObjects(Class<T> clazz, Document doc) throws Exception {
-        List<T> objList = new ArrayList<>();
-
-        // Get all elements with the tag name corresponding to the class name
-        NodeList nodes = doc.getElementsByTagName(XMLFileUtil.getObjectTagName(clazz));
-
-        // Iterate over the nodes and map each one to an object
-        for (int i = 0; i < nodes.getLength(); i++) {
-            Element bookElement = (Element) nodes.item(i);
-            T obj = clazz.getDeclaredConstructor().newInstance();  // Create a new instance of the class
-
-            // Map the fields of the object from the XML element
-            mapFieldsToObject(clazz, obj, bookElement);
-
-            // Add the mapped object to the list
-            objList.add(obj);
+    private <T> List<T> mapResource(Resource resource, Class<T> clazz, Phases phases) throws Exception {
+        long start = System.nanoTime();
+        List<T> objects;
+        if (resource instanceof XMLResource && XMLCodecs.find(clazz) == null) {
+            objects = new ArrayList<>();
+            ContentSize.Measuring handler = ContentSize.measuring(XMLStreamMapper.contentHandler(clazz, objects::add));
+            ((XMLResource) resource).getContentAsSAX(handler);
+            contentBytes.add(handler.getBytes());
+        } else {
+            String content = (String) resource.getContent();
+            contentBytes.add(ContentSize.utf8Length(content));
+            objects = XMLStreamMapper.readObjects(content, clazz);
         }
-
-        return objList;  // Return the list of mapped objects
+        long elapsed = System.nanoTime() - start;
+        mapTimer.record(elapsed);
+        objectsMapped.add(objects.size());
+        if (phases != null) {
+            phases.mapNanos += elapsed;
+        }
+        return objects;
     }
 
     /**
-     * Maps the fields of an object from the XML element's content.
+     * Fetches one result resource, which the remote driver transfers only when it is asked for.
      *
-     * @param clazz      The class to map the fields to.
-     * @param obj        The object to populate with the field values.
-     * @param element    The XML element containing the data for the object.
-     * @param <T>        The type of the class to map the fields to.
-     * @throws Exception If an error occurs during the field mapping.
+     * @param resourceSet     The result set.
+     * @param index           The index of the resource.
+     * @param phases          Accumulates the time of each phase, or {@code null} if the query is not profiled.
+     * @return                The resource.
+     * @throws XMLDBException if the resource cannot be fetched.
      */
-    private <T> void mapFieldsToObject(Class<T> clazz, T obj, Element element) throws Exception {
-        // Iterate through each declared field of the class
-        for (Field field : clazz.getDeclaredFields()) {
-            field.setAccessible(true);  // Allow access to private fields
-
-            // Retrieve the elements that correspond to the field name
-            NodeList nodes = element.getElementsByTagName(field.getName());
-
-            // If the element exists in the XML
-            if (nodes.getLength() > 0) {
-                String value = nodes.item(0).getTextContent();  // Get the content of the element
+    private Resource fetch(ResourceSet resourceSet, long index, Phases phases) throws XMLDBException {
+        long start = System.nanoTime();
+        Resource resource = resourceSet.getResource(index);
+        long elapsed = System.nanoTime() - start;
+        fetchTimer.record(elapsed);
+        if (phases != null) {
+            phases.fetchNanos += elapsed;
+        }
+        return resource;
+    }
 
-                // Convert the string value to the appropriate field type
-                Object convertedValue = convertValue(field.getType(), value);
+    /**
+     * Hands the profile of a query to the slow-query log if the query reached its threshold.
+     *
+     * @param query      The query.
+     * @param collection The collection the query ran on.
+     * @param compiled   The lease on the compiled form of the query, dumped if the log captures plans.
+     * @param phases     The time of each phase.
+     * @param resources  The number of result resources.
+     * @param objects    The number of mapped objects.
+     */
+    private void logIfSlow(ParameterizedQuery query, Collection collection, CompiledQueryCache.Lease compiled, Phases phases,
+                           long resources, long objects) {
+        if (!slowQueryLog.isSlow(phases.total())) {
+            return;
+        }
+        String plan = slowQueryLog.capturesPlan() ? dumpPlan(collection, compiled) : null;
+        slowQueryLog.log(new QueryProfile(query.getCollectionPath(), query.getQuery(), query.getVariables().keySet(),
+                phases.compileNanos, phases.executeNanos, phases.fetchNanos, phases.mapNanos, resources, objects, plan));
+    }
 
-                // Set the converted value to the field of the object
-                field.set(obj, convertedValue);
+    /**
+     * Dumps the compiled expression of a query, as optimized by eXist-db, which shows the index
+     * use and the order of evaluation.
+     *
+     * @param collection The collection the query ran on.
+     * @param compiled   The lease on the compiled form of the query.
+     * @return           The dump, or {@code null} if the driver cannot produce one.
+     */
+    private static String dumpPlan(Collection collection, CompiledQueryCache.Lease compiled) {
+        try {
+            Service service = collection.getService("XQueryService", "1.0");
+            if (service instanceof EXistXQueryService && compiled.getExpression() != null) {
+                StringWriter plan = new StringWriter();
+                ((EXistXQueryService) service).dump(compiled.getExpression(), plan);
+                return plan.toString();
             }
+        } catch (XMLDBException e) {
+            logger.log(Level.WARNING, "Cannot dump the compiled query.", e);
+        }
+        return null;
+    }
 
-            field.setAccessible(false);  // Revert the accessibility of the field
+    /**
+     * The time spent in each phase of a profiled query, in nanoseconds.
+     */
+    private static final class Phases {
+        private long compileNanos;
+        private long executeNanos;
+        private long fetchNanos;
+        private long mapNanos;
+
+        private long total() {
+            return compileNanos + executeNanos + fetchNanos + mapNanos;
         }
     }
 
     /**
-     * Converts a string value to the appropriate type based on the field's type.
+     * Reads a compact value from a result set.
      *
-     * @param fieldType  The type of the field to convert the value to.
-     * @param value      The string value to be converted.
-     * @return           The converted value.
-     * @throws Exception If the conversion fails.
+     * @param <R> The type of the value.
      */
-    private Object convertValue(Class<?> fieldType, String value) throws Exception {
-        if (fieldType == String.class) {
-            return value;
-        } else if (fieldType == int.class || fieldType == Integer.class) {
-            return Integer.parseInt(value);
-        } else if (fieldType == long.class || fieldType == Long.class) {
-            return Long.parseLong(value);
-        } else if (fieldType == double.class || fieldType == Double.class) {
-            return Double.parseDouble(value);
-        } else if (fieldType == boolean.class || fieldType == Boolean.class) {
-            return Boolean.parseBoolean(value);
-        } else if (fieldType == java.util.Date.class) {
-            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
-            return sdf.parse(value);
-        } else {
-            throw new Exception("Unsupported field type: " + fieldType.getName());
-        }
+    @FunctionalInterface
+    private interface ResultReader<R> {
+        R read(ResourceSet resourceSet) throws Exception;
     }
 }
@@ -0,0 +1,37 @@
+package org.phinix.lib.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A Counter accumulates a quantity, such as objects mapped or errors. Updates neither allocate nor
+ * lock.
+ */
+public final class Counter {
+    private final String name;
+    private final LongAdder value = new LongAdder();
+
+    Counter(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void increment() {
+        value.increment();
+    }
+
+    public void add(long amount) {
+        value.add(amount);
+    }
+
+    public long getValue() {
+        return value.sum();
+    }
+
+    @Override
+    public String toString() {
+        return name + "=" + getValue();
+    }
+}
@@ -0,0 +1,13 @@
+package org.phinix.lib.metrics;
+
+/**
+ * A Gauge reads a current value when metrics are exported, such as the number of borrowed
+ * collection handles. It costs nothing until it is read.
+ */
+@FunctionalInterface
+public interface Gauge {
+    /**
+     * @return the current value.
+     */
+    double getValue();
+}
@@ -0,0 +1,25 @@
+package org.phinix.lib.metrics;
+
+/**
+ * A MetricsExporter publishes the metrics of an {@code ExistDB} instance to a monitoring system.
+ *
+ * <p>Exporters are found with {@link java.util.ServiceLoader}: list the implementation in
+ * {@code META-INF/services/org.phinix.lib.metrics.MetricsExporter} and give it a public no-arg
+ * constructor. Each instance gets its own exporter, started once the instance is connected and
+ * stopped when it shuts down. An exporter usually reads the registry periodically; it must not
+ * block the thread that starts it.</p>
+ */
+public interface MetricsExporter {
+    /**
+     * Starts publishing the metrics of an instance.
+     *
+     * @param instanceName the name of the {@code ExistDB} instance.
+     * @param registry     its metrics.
+     */
+    void start(String instanceName, MetricsRegistry registry);
+
+    /**
+     * Stops publishing, e.g. after a last export.
+     */
+    void stop();
+}
@@ -0,0 +1,108 @@
+package org.phinix.lib.metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MetricsMBean exposes a {@link MetricsRegistry} through JMX, with one read-only attribute per
+ * value: {@code <timer>.count}, {@code .meanMillis}, {@code .p50Millis}, {@code .p99Millis} and
+ * {@code .maxMillis} for each timer, and the name of each counter and gauge. Attributes are
+ * listed again on every request, so metrics created later appear too.
+ */
+class MetricsMBean implements DynamicMBean {
+    private static final String[] TIMER_ATTRIBUTES = {"count", "meanMillis", "p50Millis", "p99Millis", "maxMillis"};
+
+    private final MetricsRegistry registry;
+
+    MetricsMBean(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Counter counter = registry.getCounters().get(attribute);
+        if (counter != null) {
+            return counter.getValue();
+        }
+        Gauge gauge = registry.getGauges().get(attribute);
+        if (gauge != null) {
+            return gauge.getValue();
+        }
+
+        int separator = attribute.lastIndexOf('.');
+        Timer timer = separator > 0 ? registry.getTimers().get(attribute.substring(0, separator)) : null;
+        if (timer != null) {
+            switch (attribute.substring(separator + 1)) {
+                case "count":
+                    return timer.getCount();
+                case "meanMillis":
+                    return timer.getMeanMillis();
+                case "p50Millis":
+                    return timer.getPercentileMillis(0.5);
+                case "p99Millis":
+                    return timer.getPercentileMillis(0.99);
+                case "maxMillis":
+                    return timer.getMaxNanos() / 1_000_000.0;
+                default:
+                    break;
+            }
+        }
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList values = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                values.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                // Left out, as the JMX contract allows
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName), "No operation: " + actionName);
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (String timer : registry.getTimers().keySet()) {
+            for (String value : TIMER_ATTRIBUTES) {
+                String type = value.equals("count") ? "long" : "double";
+                attributes.add(new MBeanAttributeInfo(timer + "." + value, type, timer + " " + value, true, false, false));
+            }
+        }
+        for (Map.Entry<String, Counter> counter : registry.getCounters().entrySet()) {
+            attributes.add(new MBeanAttributeInfo(counter.getKey(), "long", counter.getKey(), true, false, false));
+        }
+        for (String gauge : registry.getGauges().keySet()) {
+            attributes.add(new MBeanAttributeInfo(gauge, "double", gauge, true, false, false));
+        }
+        return new MBeanInfo(getClass().getName(), "eXist-db client metrics",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[0], null);
+    }
+}
@@ -0,0 +1,138 @@
+package org.phinix.lib.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * MetricsRegistry holds the named {@link Timer timers}, {@link Counter counters} and
+ * {@link Gauge gauges} of one {@code ExistDB} instance, and publishes them through JMX and the
+ * {@link MetricsExporter exporters} found on the class path.
+ *
+ * <p>Looking a metric up by name is meant for setup: instrumented classes keep the returned
+ * timers and counters in fields, so that recording is a plain increment.</p>
+ */
+public class MetricsRegistry {
+    private static final Logger logger = Logger.getLogger(MetricsRegistry.class.getName());
+    public static final String JMX_DOMAIN = "org.phinix.lib";
+
+    private final Map<String, Timer> timers = new ConcurrentSkipListMap<>();
+    private final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+    private final Map<String, Gauge> gauges = new ConcurrentSkipListMap<>();
+    private final List<MetricsExporter> exporters = new ArrayList<>(); // Guarded by this
+    private ObjectName objectName;                                     // Guarded by this
+
+    /**
+     * Retrieves a timer, creating it on first use.
+     *
+     * @param name the name of the timed operation (e.g. {@code query.execute}).
+     * @return     the timer.
+     */
+    public Timer timer(String name) {
+        return timers.computeIfAbsent(name, Timer::new);
+    }
+
+    /**
+     * Retrieves a counter, creating it on first use.
+     *
+     * @param name the name of the counted quantity (e.g. {@code query.objects}).
+     * @return     the counter.
+     */
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, Counter::new);
+    }
+
+    /**
+     * Registers a gauge, replacing any gauge with the same name.
+     *
+     * @param name  the name of the measured value (e.g. {@code pool.active}).
+     * @param gauge reads the value.
+     */
+    public void gauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * @return the timers by name, sorted by name.
+     */
+    public Map<String, Timer> getTimers() {
+        return Collections.unmodifiableMap(timers);
+    }
+
+    /**
+     * @return the counters by name, sorted by name.
+     */
+    public Map<String, Counter> getCounters() {
+        return Collections.unmodifiableMap(counters);
+    }
+
+    /**
+     * @return the gauges by name, sorted by name.
+     */
+    public Map<String, Gauge> getGauges() {
+        return Collections.unmodifiableMap(gauges);
+    }
+
+    /**
+     * Publishes the metrics as the MBean {@code org.phinix.lib:type=Metrics,name=<instanceName>}
+     * and starts the exporters found with {@link ServiceLoader}. Failures are logged, as metrics
+     * must not keep the instance from working.
+     *
+     * @param instanceName the name of the {@code ExistDB} instance.
+     */
+    public synchronized void start(String instanceName) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(JMX_DOMAIN + ":type=Metrics,name=" + ObjectName.quote(instanceName));
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name); // Left by an instance of the same name that was not shut down
+            }
+            server.registerMBean(new MetricsMBean(this), name);
+            objectName = name;
+        } catch (JMException | RuntimeException e) {
+            logger.log(Level.WARNING, "Cannot register the metrics MBean of " + instanceName, e);
+        }
+
+        for (MetricsExporter exporter : ServiceLoader.load(MetricsExporter.class)) {
+            try {
+                exporter.start(instanceName, this);
+                exporters.add(exporter);
+                logger.info("Metrics exporter started: " + exporter.getClass().getName());
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Cannot start metrics exporter " + exporter.getClass().getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Stops the exporters and unregisters the MBean.
+     */
+    public synchronized void stop() {
+        for (MetricsExporter exporter : exporters) {
+            try {
+                exporter.stop();
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Error stopping metrics exporter " + exporter.getClass().getName(), e);
+            }
+        }
+        exporters.clear();
+
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                logger.log(Level.WARNING, "Cannot unregister the metrics MBean " + objectName, e);
+            }
+            objectName = null;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package org.phinix.lib.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A Timer records the durations of one operation: their count, total and maximum, and a histogram
+ * from which percentiles are estimated.
+ *
+ * <p>The histogram has a fixed set of buckets, four per power of two, so a percentile is known
+ * within 25% and {@link #record} only increments counters: it neither allocates nor locks, and
+ * can be called from any thread on the hot path.</p>
+ */
+public final class Timer {
+    private static final int SUB_BUCKET_BITS = 2;                   // Four buckets per power of two
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final String name;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+    Timer(String name) {
+        this.name = name;
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Records one duration.
+     *
+     * @param nanos the duration in nanoseconds; negative values count as zero.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        count.increment();
+        totalNanos.add(value);
+        buckets[bucketOf(value)].increment();
+
+        long max;
+        while (value > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, value)) {
+            // Retry until this value is stored or a larger one is
+        }
+    }
+
+    /**
+     * Records the time elapsed since a start time taken with {@link System#nanoTime()}.
+     *
+     * @param startNanos the start time.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * @return the mean duration in milliseconds, or 0 if nothing was recorded.
+     */
+    public double getMeanMillis() {
+        long n = count.sum();
+        return n == 0 ? 0 : toMillis(totalNanos.sum()) / n;
+    }
+
+    /**
+     * Estimates a percentile of the recorded durations.
+     *
+     * @param quantile                  the quantile, between 0 and 1 (e.g. {@code 0.99}).
+     * @return                          the upper bound of the bucket holding the quantile, in milliseconds, or 0 if nothing was recorded.
+     * @throws IllegalArgumentException if the quantile is not between 0 and 1.
+     */
+    public double getPercentileMillis(double quantile) {
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("Quantile must be between 0 and 1.");
+        }
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return toMillis(Math.min(upperBound(i), maxNanos.get()));
+            }
+        }
+        return toMillis(maxNanos.get());
+    }
+
+    /**
+     * Finds the bucket of a duration.
+     *
+     * @param nanos the non-negative duration.
+     * @return      the index of its bucket.
+     */
+    static int bucketOf(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Gives the largest duration of a bucket.
+     *
+     * @param bucket the index of the bucket.
+     * @return       its upper bound in nanoseconds.
+     */
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        long width = 1L << shift;
+        return lower > Long.MAX_VALUE - width ? Long.MAX_VALUE : lower + width - 1;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public String toString() {
+        return name + "{count=" + getCount() + ", mean=" + String.format("%.3f", getMeanMillis()) + "ms, p99="
+                + String.format("%.3f", getPercentileMillis(0.99)) + "ms, max=" + String.format("%.3f", toMillis(getMaxNanos())) + "ms}";
+    }
+}
@@ -0,0 +1,29 @@
+package org.phinix.lib.service;
+
+/**
+ * A CollectionChangeListener is told when a collection of an {@link ExistDB} instance changes
+ * through this library, so that anything derived from it (compiled queries, cached results) can
+ * be dropped. Register listeners with {@link ExistDB#addCollectionChangeListener}.
+ */
+@FunctionalInterface
+public interface CollectionChangeListener {
+    /**
+     * What changed in a collection.
+     */
+    enum ChangeType {
+        /** Documents were stored, updated or removed. */
+        CONTENT,
+        /** The collection was created or removed. */
+        STRUCTURE,
+        /** The index configuration of the collection changed. */
+        SCHEMA
+    }
+
+    /**
+     * Called after a collection has changed.
+     *
+     * @param collectionPath the path of the changed collection.
+     * @param type           what changed.
+     */
+    void collectionChanged(String collectionPath, ChangeType type);
+}
@@ -0,0 +1,347 @@
+package org.phinix.lib.service;
+
+import org.xmldb.api.base.Collection;
+import org.xmldb.api.base.XMLDBException;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The {@link CollectionPool} keeps open {@link Collection} handles keyed by collection path, so
+ * repeated operations on the same collection reuse an authenticated handle instead of going through
+ * a new {@code DatabaseManager} lookup every time.
+ *
+ * <p>The pool is bounded by the total number of handles (idle and borrowed). Borrowers wait up to
+ * the configured timeout for a free slot. Idle handles are health-checked before they are handed out
+ * and are closed by a background evictor once they stay unused longer than the idle timeout.</p>
+ *
+ * <p>Handles are returned by closing the {@link PooledCollection} wrapper obtained from
+ * {@link #borrow(String)}, which makes the pool usable with try-with-resources.</p>
+ */
+public class CollectionPool implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(CollectionPool.class.getName());
+
+    private final CollectionFactory factory;
+    private final int maxTotal;
+    private final long borrowTimeoutMillis;
+    private final long idleTimeoutMillis;
+
+    private final Semaphore permits; // One permit per handle, idle or borrowed
+    private final Map<String, ConcurrentLinkedDeque<IdleEntry>> idle = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService evictor;
+    private volatile boolean closed;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder active = new LongAdder();
+
+    /**
+     * Opens new collection handles for the pool.
+     */
+    @FunctionalInterface
+    public interface CollectionFactory {
+        /**
+         * Opens a collection handle for the given path.
+         *
+         * @param path            the path of the collection (e.g., "/db/books").
+         * @return                the opened collection, or {@code null} if it does not exist.
+         * @throws XMLDBException if the collection cannot be opened.
+         */
+        Collection open(String path) throws XMLDBException;
+    }
+
+    /**
+     * Creates a new pool.
+     *
+     * @param factory             the factory used to open handles on a pool miss.
+     * @param maxTotal            the maximum number of handles (idle plus borrowed) across all paths.
+     * @param borrowTimeoutMillis how long a borrower waits for a free slot before failing.
+     * @param idleTimeoutMillis   how long a handle may stay idle before it is evicted.
+     */
+    public CollectionPool(CollectionFactory factory, int maxTotal, long borrowTimeoutMillis, long idleTimeoutMillis) {
+        if (maxTotal <= 0) {
+            throw new IllegalArgumentException("Pool size must be greater than zero.");
+        }
+        this.factory = factory;
+        this.maxTotal = maxTotal;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.permits = new Semaphore(maxTotal, true);
+
+        // Run the evictor at half the idle timeout so handles never outlive it by much
+        long evictionPeriod = Math.max(1, idleTimeoutMillis / 2);
+        this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "existdb-collection-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.evictor.scheduleWithFixedDelay(this::evictIdle, evictionPeriod, evictionPeriod, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a handle for the given collection path. The returned handle must be closed to give it
+     * back to the pool.
+     *
+     * @param path            the path of the collection.
+     * @return                a pooled handle, or {@code null} if the collection does not exist.
+     * @throws XMLDBException if no slot becomes free in time or the collection cannot be opened.
+     */
+    public Collection borrow(String path) throws XMLDBException {
+        if (closed) {
+            throw new IllegalStateException("Collection pool is closed.");
+        }
+        // Reuse an idle handle for this path; it already holds a slot
+        Collection collection = pollHealthy(path);
+        if (collection != null) {
+            hits.increment();
+            active.increment();
+            return new PooledCollection(this, path, collection);
+        }
+
+        acquirePermit(path);
+        try {
+            // Another borrower may have returned a handle for this path while we waited
+            collection = pollHealthy(path);
+            if (collection != null) {
+                permits.release();
+                hits.increment();
+                active.increment();
+                return new PooledCollection(this, path, collection);
+            }
+
+            // Nothing reusable, open a new handle
+            misses.increment();
+            collection = factory.open(path);
+            if (collection == null) {
+                permits.release();
+                return null;
+            }
+            active.increment();
+            return new PooledCollection(this, path, collection);
+        } catch (XMLDBException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Takes the most recently returned idle handle for a path that passes the health check, closing
+     * the ones that fail it.
+     *
+     * @param path the path of the collection.
+     * @return     a healthy idle handle, or {@code null} if there is none.
+     */
+    private Collection pollHealthy(String path) {
+        ConcurrentLinkedDeque<IdleEntry> entries = idle.get(path);
+        IdleEntry entry;
+        while (entries != null && (entry = entries.pollFirst()) != null) {
+            if (isHealthy(entry.collection)) {
+                return entry.collection;
+            }
+            closeQuietly(entry.collection);
+            evictions.increment();
+            permits.release();
+        }
+        return null;
+    }
+
+    /**
+     * Gives a handle back to the pool. Called by {@link PooledCollection#close()}.
+     *
+     * @param path       the path the handle was borrowed for.
+     * @param collection the underlying collection handle.
+     */
+    void release(String path, Collection collection) {
+        active.decrement();
+        if (!closed && isHealthy(collection)) {
+            // The handle keeps its slot while it sits idle
+            idle.computeIfAbsent(path, key -> new ConcurrentLinkedDeque<>())
+                    .offerFirst(new IdleEntry(collection, System.currentTimeMillis()));
+        } else {
+            closeQuietly(collection);
+            permits.release();
+        }
+    }
+
+    /**
+     * Closes and drops every idle handle kept for a path. Borrowed handles are not affected.
+     *
+     * @param path the path of the collection.
+     */
+    public void clear(String path) {
+        ConcurrentLinkedDeque<IdleEntry> entries = idle.remove(path);
+        if (entries != null) {
+            for (IdleEntry entry : entries) {
+                closeQuietly(entry.collection);
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * Waits for a free slot, counting the borrow as a wait if the pool was exhausted.
+     *
+     * @param path            the path being borrowed, for logging.
+     * @throws XMLDBException if no slot is freed before the borrow timeout.
+     */
+    private void acquirePermit(String path) throws XMLDBException {
+        if (permits.tryAcquire()) {
+            return;
+        }
+        waits.increment();
+
+        // The pool is exhausted; try to free a slot held by an idle handle of another path
+        if (!evictOneIdle() || !permits.tryAcquire()) {
+            try {
+                if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    logger.warning("Timed out waiting for a pooled collection: " + path);
+                    throw new XMLDBException();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new XMLDBException();
+            }
+        }
+    }
+
+    /**
+     * Closes the least recently used idle handle of any path, freeing its slot.
+     *
+     * @return {@code true} if a handle was evicted.
+     */
+    private boolean evictOneIdle() {
+        for (ConcurrentLinkedDeque<IdleEntry> entries : idle.values()) {
+            IdleEntry entry = entries.pollLast();
+            if (entry != null) {
+                closeQuietly(entry.collection);
+                evictions.increment();
+                permits.release();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Closes idle handles that have not been used for longer than the idle timeout.
+     */
+    private void evictIdle() {
+        long deadline = System.currentTimeMillis() - idleTimeoutMillis;
+        for (ConcurrentLinkedDeque<IdleEntry> entries : idle.values()) {
+            Iterator<IdleEntry> iterator = entries.descendingIterator(); // Oldest entries are at the tail
+            while (iterator.hasNext()) {
+                IdleEntry entry = iterator.next();
+                if (entry.lastUsed > deadline) {
+                    break;
+                }
+                if (entries.removeLastOccurrence(entry)) {
+                    closeQuietly(entry.collection);
+                    evictions.increment();
+                    permits.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks whether a handle can still be used.
+     *
+     * @param collection the collection to check.
+     * @return           {@code true} if the collection is still open.
+     */
+    private boolean isHealthy(Collection collection) {
+        try {
+            return collection.isOpen();
+        } catch (XMLDBException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Closes a collection, logging instead of propagating failures.
+     *
+     * @param collection the collection to close.
+     */
+    private void closeQuietly(Collection collection) {
+        try {
+            collection.close();
+        } catch (XMLDBException e) {
+            logger.log(Level.FINE, "Error closing pooled collection.", e);
+        }
+    }
+
+    /**
+     * Closes every idle handle and stops the evictor. Handles still borrowed are closed when returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        for (String path : idle.keySet()) {
+            clear(path);
+        }
+    }
+
+    /** @return the number of borrows served by an idle handle. */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /** @return the number of borrows that had to open a new handle. */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /** @return the number of borrows that found the pool exhausted and had to wait. */
+    public long getWaits() {
+        return waits.sum();
+    }
+
+    /** @return the number of handles closed by eviction or failed health checks. */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /** @return the number of handles currently borrowed. */
+    public int getActiveCount() {
+        return active.intValue();
+    }
+
+    /** @return the number of handles currently idle in the pool. */
+    public int getIdleCount() {
+        int count = 0;
+        for (ConcurrentLinkedDeque<IdleEntry> entries : idle.values()) {
+            count += entries.size();
+        }
+        return count;
+    }
+
+    /** @return the maximum number of handles the pool keeps. */
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    /**
+     * An idle handle together with the time it was returned.
+     */
+    private static final class IdleEntry {
+        private final Collection collection;
+        private final long lastUsed;
+
+        private IdleEntry(Collection collection, long lastUsed) {
+            this.collection = collection;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package org.phinix.lib.service;
+
+import org.xmldb.api.base.CompiledExpression;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * CompiledQueryCache keeps the {@link CompiledExpression}s returned by {@code XQueryService.compile}
+ * so that a query text that is run again is executed without being parsed and compiled again.
+ *
+ * <p>This only pays off in embedded mode. The remote driver's compiled expression holds nothing
+ * but the query text, which {@code execute} sends to the server again, while {@code compile} costs
+ * an extra round trip, so {@link ExistDB} disables the cache in remote mode and queries are then
+ * run with a single {@code query} call.</p>
+ *
+ * <p>Entries are keyed by node (the {@link CollectionPool} the query runs on), collection path
+ * and query text, and the least recently used key is evicted once {@code maxEntries} keys are
+ * cached. A compiled expression holds its evaluation context, so it is never shared: callers
+ * {@link #lease lease} one, execute it and close the lease to give it back. Several idle
+ * expressions can be kept per key for concurrent callers.</p>
+ *
+ * <p>Keys of a collection, of its ancestors and of its descendants are invalidated when its
+ * structure or index configuration changes (see {@link CollectionChangeListener}).</p>
+ */
+public class CompiledQueryCache implements CollectionChangeListener {
+    private static final Logger logger = Logger.getLogger(CompiledQueryCache.class.getName());
+    private static final int MAX_IDLE_PER_KEY = 8; // Idle compiled copies kept for concurrent callers of one query
+
+    private final int maxEntries;
+    private final LinkedHashMap<Key, ArrayDeque<CompiledExpression>> entries; // In access order, guarded by this
+    private long generation; // Incremented on every invalidation, guarded by this
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxEntries the number of distinct queries kept; {@code 0} disables caching.
+     */
+    public CompiledQueryCache(int maxEntries) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("Cache size must not be negative.");
+        }
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Leases the compiled form of a query. On a miss the lease is empty: compile the query and
+     * {@link Lease#setExpression set} it, so it is cached when the lease is closed.
+     *
+     * @param node           the pool of the node the query runs on.
+     * @param collectionPath the path of the collection the query runs against.
+     * @param query          the query text.
+     * @return               the lease; close it once the results have been read.
+     */
+    public synchronized Lease lease(CollectionPool node, String collectionPath, String query) {
+        Key key = new Key(node, collectionPath, query);
+        if (maxEntries == 0) {
+            return new Lease(key, generation, null); // Disabled, so neither a hit nor a miss
+        }
+        ArrayDeque<CompiledExpression> idle = entries.get(key);
+        CompiledExpression expression = idle != null ? idle.poll() : null;
+        if (expression != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return new Lease(key, generation, expression);
+    }
+
+    /**
+     * Gives a compiled expression back once its results have been read.
+     *
+     * @param lease the closed lease.
+     */
+    private synchronized void release(Lease lease) {
+        if (maxEntries == 0 || lease.generation != generation) {
+            return; // Leased before an invalidation, which are rare enough to drop it whatever the path
+        }
+        lease.expression.reset();
+
+        ArrayDeque<CompiledExpression> idle = entries.computeIfAbsent(lease.key, key -> new ArrayDeque<>());
+        if (idle.size() < MAX_IDLE_PER_KEY) {
+            idle.push(lease.expression);
+        }
+
+        // Evict the least recently used queries
+        Iterator<ArrayDeque<CompiledExpression>> eldest = entries.values().iterator();
+        while (entries.size() > maxEntries && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Drops the compiled queries of a collection, its ancestors and its descendants.
+     *
+     * @param collectionPath the path of the changed collection.
+     */
+    public synchronized void invalidate(String collectionPath) {
+        boolean removed = entries.keySet().removeIf(key -> pathsOverlap(collectionPath, key.collectionPath));
+        if (removed) {
+            invalidations++;
+            logger.log(Level.FINE, "Compiled queries invalidated for " + collectionPath);
+        }
+        generation++;
+    }
+
+    /**
+     * Drops every compiled query.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        generation++;
+    }
+
+    @Override
+    public void collectionChanged(String collectionPath, ChangeType type) {
+        // Compiled queries depend on where they run, not on the documents they read
+        if (type != ChangeType.CONTENT) {
+            invalidate(collectionPath);
+        }
+    }
+
+    /**
+     * Checks whether two collection paths are the same collection or one contains the other.
+     *
+     * @param first  a collection path.
+     * @param second another collection path.
+     * @return       {@code true} if a change to one may affect queries on the other.
+     */
+    static boolean pathsOverlap(String first, String second) {
+        String a = trimSlash(first);
+        String b = trimSlash(second);
+        if (a.length() > b.length()) {
+            String swap = a;
+            a = b;
+            b = swap;
+        }
+        return b.startsWith(a) && (b.length() == a.length() || b.charAt(a.length()) == '/');
+    }
+
+    private static String trimSlash(String path) {
+        return path.endsWith("/") && path.length() > 1 ? path.substring(0, path.length() - 1) : path;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the share of leases served from the cache, between 0 and 1.
+     */
+    public synchronized double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * @return the number of distinct queries currently cached.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return {@code true} if compiled queries are kept, {@code false} if queries should not be compiled separately.
+     */
+    public boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    /**
+     * A compiled expression borrowed from the cache for one execution.
+     */
+    public final class Lease implements AutoCloseable {
+        private final Key key;
+        private final long generation;
+        private CompiledExpression expression;
+        private boolean discarded;
+        private boolean closed;
+
+        private Lease(Key key, long generation, CompiledExpression expression) {
+            this.key = key;
+            this.generation = generation;
+            this.expression = expression;
+        }
+
+        /**
+         * @return the cached compiled expression, or {@code null} on a miss.
+         */
+        public CompiledExpression getExpression() {
+            return expression;
+        }
+
+        /**
+         * Sets the expression compiled after a miss, to be cached when the lease is closed.
+         *
+         * @param expression the compiled expression.
+         */
+        public void setExpression(CompiledExpression expression) {
+            this.expression = expression;
+        }
+
+        /**
+         * Keeps the expression out of the cache, e.g. because its execution failed.
+         */
+        public void discard() {
+            discarded = true;
+        }
+
+        /**
+         * Gives the expression back to the cache unless it was discarded.
+         */
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (!discarded && expression != null) {
+                release(this);
+            }
+        }
+    }
+
+    /**
+     * The identity of a cached query.
+     */
+    private static final class Key {
+        private final CollectionPool node;
+        private final String collectionPath;
+        private final String query;
+
+        private Key(CollectionPool node, String collectionPath, String query) {
+            this.node = node;
+            this.collectionPath = collectionPath;
+            this.query = query;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return node == other.node && collectionPath.equals(other.collectionPath) && query.equals(other.query);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(node), collectionPath, query);
+        }
+    }
+}
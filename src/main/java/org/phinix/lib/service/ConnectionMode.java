@@ -0,0 +1,17 @@
+package org.phinix.lib.service;
+
+/**
+ * The ways an {@link ExistDB} instance can reach the database.
+ */
+public enum ConnectionMode {
+    /**
+     * Connects to a running eXist-db server over XML-RPC (e.g. {@code xmldb:exist://localhost:8080/exist/xmlrpc}).
+     */
+    REMOTE,
+
+    /**
+     * Starts an eXist-db broker inside the current JVM and talks to it directly ({@code xmldb:exist:///db}),
+     * with no HTTP or XML-RPC serialization in between.
+     */
+    EMBEDDED
+}
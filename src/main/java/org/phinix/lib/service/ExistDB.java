@@ -1,56 +1,179 @@
 package org.phinix.lib.service;
 
-import org.xmldb.api.DatabaseManager;
+import org.exist.xmldb.DatabaseInstanceManager;
+import org.phinix.lib.metrics.MetricsRegistry;
+import org.phinix.lib.metrics.Timer;
 import org.xmldb.api.base.Collection;
 import org.xmldb.api.base.Database;
 import org.xmldb.api.base.XMLDBException;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * The {@link ExistDB} class provides a singleton utility for managing connections
- * to an eXist-db database instance. It handles initialization, testing connections,
- * retrieving collections, and shutting down the database driver.
+ * The {@link ExistDB} class provides a utility for managing connections to eXist-db database
+ * instances. It handles initialization, testing connections, retrieving collections, and
+ * shutting down the database driver.
  *
- * <p>This class ensures that only one instance of the database connection is created
- * and reused throughout the application.</p>
+ * <p>Instances are named and kept in a registry, so one JVM can hold independent clients per
+ * shard, replica or tenant, each with its own URI, credentials, pool sizes and timeouts (see
+ * {@link ExistDBConfig}). {@link #getInstance(String, String)} keeps returning the instance named
+ * {@link ExistDBConfig#DEFAULT_NAME}.</p>
+ *
+ * <p>The database is reached either remotely over XML-RPC or, in {@link ConnectionMode#EMBEDDED}
+ * mode, through a broker started inside the current JVM from an eXist-db configuration file or
+ * data directory.</p>
+ *
+ * <p>Collection handles are kept in a {@link CollectionPool} per node, so callers must close the
+ * collections they get from {@link #getCollection(String)} or {@link #getReadCollection(String)}
+ * to give them back to the pool. Reads may be spread across several read nodes by the configured
+ * {@link LoadBalancingPolicy}.</p>
+ *
+ * <p>Each instance keeps a {@link MetricsRegistry} of operation timers, counters and pool and
+ * cache gauges, published over JMX as {@code org.phinix.lib:type=Metrics,name=<instance name>}.</p>
  */
 public class ExistDB {
-    private static final String URI = "xmldb:exist://localhost:8080/exist/xmlrpc"; // URI for connecting to the eXist-db server
+    private static final String XMLDB_PREFIX = "xmldb:"; // Stripped by DatabaseManager, not accepted by the driver
     private static final Logger logger = Logger.getLogger(ExistDB.class.getName());
-    private static volatile ExistDB instance; // Database global instance (Singleton)
+    private static final Map<String, ExistDB> instances = new ConcurrentHashMap<>(); // Registered instances by name
 
     private final Database database;
+    private final ExistDBConfig config;
+    private final String uri; // URI for connecting to the eXist-db server, without the collection path
     private final String user;
     private final String password;
+    private final CollectionPool collectionPool;
+    private final List<CollectionPool> readPools;
+    private final CompiledQueryCache compiledQueryCache;
+    private final QueryResultCache queryResultCache;
+    private final List<CollectionChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+    private final List<Runnable> shutdownHooks = new CopyOnWriteArrayList<>();
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final Timer borrowTimer = metrics.timer("collection.get");
 
     /**
      * Private constructor to initialize the eXist-db connection.
      *
-     * @param user       the username for authentication.
-     * @param password   the password for authentication.
+     * @param config     the connection settings.
      * @throws Exception if initialization or connection to the database fails.
      */
-    private ExistDB(String user, String password) throws Exception {
-        validateCredentials(user, password); // Validate user credentials
+    private ExistDB(ExistDBConfig config) throws Exception {
+        validateCredentials(config.getUser(), config.getPassword()); // Validate user credentials
 
-        this.user = user;
-        this.password = password;
+        this.config = config;
+        this.uri = config.getUri();
+        this.user = config.getUser();
+        this.password = config.getPassword();
 
-        // Load and initialize the eXist-db driver
+        // Load and initialize an eXist-db driver owned by this instance
         String driver = "org.exist.xmldb.DatabaseImpl";
         try {
             Class<?> client = Class.forName(driver);
             this.database = (Database) client.getDeclaredConstructor().newInstance();
             database.setProperty("create-database", "true");
-            DatabaseManager.registerDatabase(database);
+            if (config.getMode() == ConnectionMode.EMBEDDED) {
+                configureEmbedded(config); // The broker starts on the first local collection request
+            }
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Error initializing eXist-db database driver.", e);
             throw new RuntimeException("Failed to initialize eXist-db driver.", e);
         }
 
         testRootCollection(); // Verify the root collection is accessible
+
+        // Keep opened collection handles for reuse instead of looking them up on every call
+        this.collectionPool = createPool(uri);
+
+        // One pool per read node; without read nodes, reads go to the primary
+        List<CollectionPool> pools = new ArrayList<>();
+        for (String readUri : config.getReadUris()) {
+            pools.add(createPool(readUri));
+        }
+        this.readPools = pools.isEmpty() ? List.of(collectionPool) : List.copyOf(pools);
+
+        // Reuse compiled queries until the collections they run on change. Only the embedded driver
+        // keeps a compiled form; the remote one would pay a compile round trip for nothing.
+        this.compiledQueryCache = new CompiledQueryCache(config.getMode() == ConnectionMode.EMBEDDED ? config.getCompiledQueryCacheSize() : 0);
+        addCollectionChangeListener(compiledQueryCache);
+
+        // Optionally keep mapped results until the collections they were read from change
+        this.queryResultCache = new QueryResultCache(config.getResultCacheSize(), config.getResultCacheTtlMillis());
+        addCollectionChangeListener(queryResultCache);
+
+        registerGauges();
+        metrics.start(config.getName());
+    }
+
+    /**
+     * Registers the gauges of the collection pools and caches. Read pools are named
+     * {@code pool.read<index>}, only if read nodes are configured.
+     */
+    private void registerGauges() {
+        registerPoolGauges("pool", collectionPool);
+        if (readPools.get(0) != collectionPool) {
+            for (int i = 0; i < readPools.size(); i++) {
+                registerPoolGauges("pool.read" + i, readPools.get(i));
+            }
+        }
+        metrics.gauge("queryCache.hitRate", compiledQueryCache::getHitRate);
+        metrics.gauge("queryCache.evictions", compiledQueryCache::getEvictions);
+        metrics.gauge("resultCache.hitRate", queryResultCache::getHitRate);
+        metrics.gauge("resultCache.evictions", queryResultCache::getEvictions);
+    }
+
+    private void registerPoolGauges(String prefix, CollectionPool pool) {
+        metrics.gauge(prefix + ".active", pool::getActiveCount);
+        metrics.gauge(prefix + ".idle", pool::getIdleCount);
+        metrics.gauge(prefix + ".hits", pool::getHits);
+        metrics.gauge(prefix + ".misses", pool::getMisses);
+        metrics.gauge(prefix + ".waits", pool::getWaits);
+        metrics.gauge(prefix + ".evictions", pool::getEvictions);
+    }
+
+    /**
+     * Creates the collection pool of a node.
+     *
+     * @param nodeUri the URI of the node, without the collection path.
+     * @return        the pool.
+     */
+    private CollectionPool createPool(String nodeUri) {
+        return new CollectionPool(path -> openCollection(nodeUri, path),
+                config.getPoolSize(), config.getBorrowTimeoutMillis(), config.getIdleTimeoutMillis());
+    }
+
+    /**
+     * Opens a collection through the driver owned by this instance. Unlike {@code DatabaseManager},
+     * the driver expects URIs without the {@code xmldb:} prefix.
+     *
+     * @param nodeUri         the URI of the node, with or without the {@code xmldb:} prefix.
+     * @param path            the path of the collection.
+     * @return                the collection, or {@code null} if it does not exist.
+     * @throws XMLDBException if the collection cannot be opened.
+     */
+    private Collection openCollection(String nodeUri, String path) throws XMLDBException {
+        String driverUri = nodeUri.startsWith(XMLDB_PREFIX) ? nodeUri.substring(XMLDB_PREFIX.length()) : nodeUri;
+        return database.getCollection(driverUri + path, user, password);
+    }
+
+    /**
+     * Points the driver at the configuration and data directory of the embedded broker.
+     *
+     * @param config          the connection settings.
+     * @throws XMLDBException if the driver rejects a property.
+     */
+    private void configureEmbedded(ExistDBConfig config) throws XMLDBException {
+        if (config.getConfigurationFile() != null) {
+            database.setProperty("configuration", config.getConfigurationFile().toAbsolutePath().toString());
+        }
+        if (config.getDataDirectory() != null) {
+            database.setProperty("data-dir", config.getDataDirectory().toAbsolutePath().toString());
+        }
+        logger.info("Starting embedded eXist-db broker.");
     }
 
     /**
@@ -75,9 +198,9 @@ public class ExistDB {
      * @throws XMLDBException if the connection fails or the user is unauthorized.
      */
     private void testRootCollection() throws XMLDBException {
-        try (Collection rootCollection = DatabaseManager.getCollection(URI + "/db", user, password)) {
+        try (Collection rootCollection = openCollection(uri, "/db")) {
             if (rootCollection != null) {
-                logger.info("Successfully connected to eXist-db.");
+                logger.info("Successfully connected to eXist-db: " + config.getName());
             } else {
                 logger.warning("Connection to eXist-db failed. Root collection is null.");
                 throw new RuntimeException("Connection to eXist-db failed.");
@@ -89,30 +212,83 @@ public class ExistDB {
     }
 
     /**
-     * Retrieves the singleton instance of the {@code ExistDB}.
+     * Retrieves the default instance of the {@code ExistDB}, connected to the default remote server.
      *
-     * @param user       the username for authentication.
-     * @param password   the password for authentication.
-     * @return           the singleton instance of {@code ExistDB}.
-     * @throws Exception if initialization of the instance fails.
+     * @param user                   the username for authentication.
+     * @param password               the password for authentication.
+     * @return                       the default instance of {@code ExistDB}.
+     * @throws IllegalStateException if the default instance already exists with other credentials.
+     * @throws Exception             if initialization of the instance fails.
      */
     public static ExistDB getInstance(String user, String password) throws Exception {
-        if (instance == null) {
+        return getInstance(ExistDBConfig.remote(user, password));
+    }
+
+    /**
+     * Retrieves the instance registered under the configuration's name, creating it from the given
+     * settings (remote or embedded) if it does not exist yet.
+     *
+     * @param config                 the connection settings.
+     * @return                       the instance registered under {@code config.getName()}.
+     * @throws IllegalStateException if an instance with that name already exists for another URI or user.
+     * @throws Exception             if initialization of the instance fails.
+     */
+    public static ExistDB getInstance(ExistDBConfig config) throws Exception {
+        ExistDB existing = instances.get(config.getName());
+        if (existing == null) {
             synchronized (ExistDB.class) {
-                if (instance == null) {
-                    instance = new ExistDB(user, password);
+                existing = instances.get(config.getName());
+                if (existing == null) {
+                    existing = new ExistDB(config);
+                    instances.put(config.getName(), existing);
+                    return existing;
                 }
             }
         }
-        return instance;
+
+        // Never hand out an instance bound to another target or user than the one asked for
+        if (!existing.uri.equals(config.getUri()) || !existing.user.equals(config.getUser())
+                || !existing.password.equals(config.getPassword())) {
+            throw new IllegalStateException("eXist-db instance '" + config.getName() + "' already exists with other settings.");
+        }
+        return existing;
     }
 
     /**
-     * Resets the singleton instance, allowing a new instance to be created.
+     * Creates and registers a new instance.
+     *
+     * @param config                 the connection settings.
+     * @return                       the new instance.
+     * @throws IllegalStateException if an instance with the same name is already registered.
+     * @throws Exception             if initialization of the instance fails.
+     */
+    public static ExistDB create(ExistDBConfig config) throws Exception {
+        synchronized (ExistDB.class) {
+            if (instances.containsKey(config.getName())) {
+                throw new IllegalStateException("eXist-db instance '" + config.getName() + "' already exists.");
+            }
+            ExistDB existDB = new ExistDB(config);
+            instances.put(config.getName(), existDB);
+            return existDB;
+        }
+    }
+
+    /**
+     * Looks up a registered instance by name.
+     *
+     * @param name the instance name.
+     * @return     the instance, or {@code null} if none is registered under that name.
+     */
+    public static ExistDB getInstance(String name) {
+        return instances.get(name);
+    }
+
+    /**
+     * Resets the default instance, allowing a new one to be created.
      */
     public static void resetInstance() {
         synchronized (ExistDB.class) {
-            instance = null;
+            instances.remove(ExistDBConfig.DEFAULT_NAME);
             logger.info("eXist-db instance has been reset.");
         }
     }
@@ -123,7 +299,7 @@ public class ExistDB {
      * @return {@code true} if the connection is successful, {@code false} otherwise.
      */
     public boolean testConnection() {
-        try (Collection testCollection = DatabaseManager.getCollection(URI + "/db", user, password)) {
+        try (Collection testCollection = openCollection(uri, "/db")) {
             boolean success = testCollection != null;
             logger.info("Connection test " + (success ? "succeeded." : "failed."));
             return success;
@@ -134,19 +310,74 @@ public class ExistDB {
     }
 
     /**
-     * Retrieves a collection from the eXist-db database.
+     * Retrieves a collection from the primary eXist-db node. Use it for writes and for reads that
+     * must see them immediately. The handle is borrowed from the collection pool and must be closed
+     * (preferably with try-with-resources) to give it back.
      *
      * @param path                      the path to the collection in the database.
-     * @return                          the {@code Collection} instance.
+     * @return                          the pooled {@code Collection} instance, or {@code null} if it does not exist.
      * @throws XMLDBException           if the collection retrieval fails.
      * @throws IllegalArgumentException if the path is null or empty.
      */
     public Collection getCollection(String path) throws XMLDBException {
+        return borrow(collectionPool, path);
+    }
+
+    /**
+     * Retrieves a collection for reading from the node chosen by the load-balancing policy.
+     * The handle must be closed to give it back to the pool.
+     *
+     * @param path                      the path to the collection in the database.
+     * @return                          the pooled {@code Collection} instance, or {@code null} if it does not exist.
+     * @throws XMLDBException           if the collection retrieval fails.
+     * @throws IllegalArgumentException if the path is null or empty.
+     */
+    public Collection getReadCollection(String path) throws XMLDBException {
+        return borrow(getReadPool(), path);
+    }
+
+    /**
+     * Chooses the node the next read goes to, using the load-balancing policy. Callers that need
+     * to know the node, e.g. to reuse what they compiled on it, borrow from it with
+     * {@link #getReadCollection(CollectionPool, String)}.
+     *
+     * @return the pool of the chosen read node.
+     */
+    public CollectionPool getReadPool() {
+        return readPools.size() == 1 ? readPools.get(0) : config.getLoadBalancingPolicy().select(readPools);
+    }
+
+    /**
+     * Retrieves a collection for reading from a given read node. The handle must be closed to give
+     * it back to the pool.
+     *
+     * @param node                      the pool of the read node, as returned by {@link #getReadPool()}.
+     * @param path                      the path to the collection in the database.
+     * @return                          the pooled {@code Collection} instance, or {@code null} if it does not exist.
+     * @throws XMLDBException           if the collection retrieval fails.
+     * @throws IllegalArgumentException if the path is null or empty.
+     */
+    public Collection getReadCollection(CollectionPool node, String path) throws XMLDBException {
+        return borrow(node, path);
+    }
+
+    /**
+     * Borrows a collection handle from a pool.
+     *
+     * @param pool            the pool of the node to read from.
+     * @param path            the path to the collection in the database.
+     * @return                the pooled {@code Collection} instance, or {@code null} if it does not exist.
+     * @throws XMLDBException if the collection retrieval fails.
+     */
+    private Collection borrow(CollectionPool pool, String path) throws XMLDBException {
         if (path == null || path.trim().isEmpty()) {
             throw new IllegalArgumentException("Collection path must not be null or empty.");
         }
+        long start = System.nanoTime();
         try {
-            return DatabaseManager.getCollection(URI + path, user, password);
+            Collection collection = pool.borrow(path);
+            borrowTimer.recordSince(start);
+            return collection;
         } catch (XMLDBException e) {
             logger.log(Level.SEVERE, "Failed to retrieve collection at path: " + path, e);
             throw e;
@@ -154,19 +385,164 @@ public class ExistDB {
     }
 
     /**
-     * Shuts down the eXist-db connection and deregisters the database driver.
+     * Retrieves the pool of collection handles of the primary node, e.g. to read its hit, miss and wait counters.
+     *
+     * @return the collection pool of this instance.
+     */
+    public CollectionPool getCollectionPool() {
+        return collectionPool;
+    }
+
+    /**
+     * Retrieves the pools of the read nodes, in the order of the configured read URIs.
+     *
+     * @return the read pools, or only the primary pool if no read node is configured.
+     */
+    public List<CollectionPool> getReadPools() {
+        return readPools;
+    }
+
+    /**
+     * Retrieves the cache of compiled queries shared by the DAOs of this instance, e.g. to read its hit rate.
+     *
+     * @return the compiled query cache.
+     */
+    public CompiledQueryCache getCompiledQueryCache() {
+        return compiledQueryCache;
+    }
+
+    /**
+     * Retrieves the cache of query results shared by the DAOs of this instance. It is disabled
+     * unless {@link ExistDBConfig.Builder#resultCache} was set.
+     *
+     * @return the query result cache.
+     */
+    public QueryResultCache getQueryResultCache() {
+        return queryResultCache;
+    }
+
+    /**
+     * Retrieves the metrics of this instance, which the DAOs record their operations in.
+     *
+     * @return the metrics registry.
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Registers a listener told about every collection change made through this instance.
+     *
+     * @param listener the listener.
+     */
+    public void addCollectionChangeListener(CollectionChangeListener listener) {
+        changeListeners.add(listener);
+    }
+
+    /**
+     * Removes a listener registered with {@link #addCollectionChangeListener}.
+     *
+     * @param listener the listener.
+     */
+    public void removeCollectionChangeListener(CollectionChangeListener listener) {
+        changeListeners.remove(listener);
+    }
+
+    /**
+     * Tells the registered listeners that a collection has changed. Called by the DAOs after every write.
+     *
+     * @param collectionPath the path of the changed collection.
+     * @param type           what changed.
+     */
+    public void fireCollectionChanged(String collectionPath, CollectionChangeListener.ChangeType type) {
+        for (CollectionChangeListener listener : changeListeners) {
+            try {
+                listener.collectionChanged(collectionPath, type);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Collection change listener failed.", e);
+            }
+        }
+    }
+
+    /**
+     * Registers a task run by {@link #shutdown()} before the collection pools are closed, e.g. to
+     * store buffered writes. Hooks run in the order they were added.
+     *
+     * @param hook the task.
+     */
+    public void addShutdownHook(Runnable hook) {
+        shutdownHooks.add(hook);
+    }
+
+    /**
+     * Removes a task registered with {@link #addShutdownHook}.
+     *
+     * @param hook the task.
+     */
+    public void removeShutdownHook(Runnable hook) {
+        shutdownHooks.remove(hook);
+    }
+
+    /**
+     * Retrieves the settings this instance was created with.
+     *
+     * @return the connection settings.
+     */
+    public ExistDBConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Retrieves the name this instance is registered under.
+     *
+     * @return the instance name.
+     */
+    public String getName() {
+        return config.getName();
+    }
+
+    /**
+     * Shuts down the eXist-db connection, closes the pooled collections and removes the instance
+     * from the registry. The shutdown hooks run first, while the connection is still open. In
+     * embedded mode the in-process broker is stopped as well.
      */
     public void shutdown() {
         synchronized (this) {
-            try {
-                if (database != null) {
-                    database.setProperty("create-database", "false");
-                    DatabaseManager.deregisterDatabase(database);
-                    logger.info("eXist-db connection has been shut down.");
+            for (Runnable hook : shutdownHooks) {
+                try {
+                    hook.run();
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "Shutdown hook failed.", e);
                 }
-            } catch (XMLDBException e) {
-                logger.log(Level.WARNING, "Error during eXist-db shutdown.", e);
             }
+            shutdownHooks.clear();
+            for (CollectionPool pool : readPools) {
+                pool.close();
+            }
+            collectionPool.close();
+            compiledQueryCache.clear();
+            queryResultCache.clear();
+            metrics.stop();
+            if (config.getMode() == ConnectionMode.EMBEDDED) {
+                shutdownEmbedded();
+            }
+            instances.remove(config.getName(), this);
+            logger.info("eXist-db connection has been shut down: " + config.getName());
+        }
+    }
+
+    /**
+     * Stops the embedded broker through the {@code DatabaseInstanceManager} service of the root collection.
+     */
+    private void shutdownEmbedded() {
+        try (Collection root = openCollection(uri, "/db")) {
+            if (root != null) {
+                DatabaseInstanceManager manager = (DatabaseInstanceManager) root.getService("DatabaseInstanceManager", "1.0");
+                manager.shutdown();
+                logger.info("Embedded eXist-db broker has been shut down.");
+            }
+        } catch (XMLDBException e) {
+            logger.log(Level.WARNING, "Error shutting down the embedded eXist-db broker.", e);
         }
     }
 }
@@ -0,0 +1,382 @@
+package org.phinix.lib.service;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The {@link ExistDBConfig} class holds the settings used to create an {@link ExistDB} instance:
+ * its name, how to reach the database, the credentials, and the sizing of the collection pool.
+ *
+ * <p>A remote instance may also list read URIs (e.g. replicas). Reads are then spread across
+ * those nodes by the configured {@link LoadBalancingPolicy}, while writes keep going to the
+ * primary URI.</p>
+ *
+ * <p>Instances are immutable and created through {@link #builder()}:</p>
+ *
+ * <pre>
+ * ExistDBConfig config = ExistDBConfig.builder()
+ *         .mode(ConnectionMode.EMBEDDED)
+ *         .configurationFile(Path.of("conf.xml"))
+ *         .credentials("admin", "admin")
+ *         .build();
+ * </pre>
+ */
+public class ExistDBConfig {
+    public static final String DEFAULT_REMOTE_URI = "xmldb:exist://localhost:8080/exist/xmlrpc"; // URI of a local eXist-db server
+    public static final String EMBEDDED_URI = "xmldb:exist://"; // Paths such as "/db" are appended, giving xmldb:exist:///db
+    public static final String DEFAULT_NAME = "default"; // Name of the instance returned by ExistDB.getInstance(user, password)
+
+    private final String name;
+    private final ConnectionMode mode;
+    private final String uri;
+    private final Path configurationFile;
+    private final Path dataDirectory;
+    private final String user;
+    private final String password;
+    private final int poolSize;
+    private final long borrowTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final int compiledQueryCacheSize;
+    private final int resultCacheSize;
+    private final long resultCacheTtlMillis;
+    private final List<String> readUris;
+    private final LoadBalancingPolicy loadBalancingPolicy;
+    private final SlowQueryLog slowQueryLog;
+
+    /**
+     * Private constructor, use {@link #builder()}.
+     *
+     * @param builder the builder holding the settings.
+     */
+    private ExistDBConfig(Builder builder) {
+        this.name = builder.name;
+        this.mode = builder.mode;
+        this.uri = builder.mode == ConnectionMode.EMBEDDED ? EMBEDDED_URI : builder.uri;
+        this.configurationFile = builder.configurationFile;
+        this.dataDirectory = builder.dataDirectory;
+        this.user = builder.user;
+        this.password = builder.password;
+        this.poolSize = builder.poolSize;
+        this.borrowTimeoutMillis = builder.borrowTimeoutMillis;
+        this.idleTimeoutMillis = builder.idleTimeoutMillis;
+        this.compiledQueryCacheSize = builder.compiledQueryCacheSize;
+        this.resultCacheSize = builder.resultCacheSize;
+        this.resultCacheTtlMillis = builder.resultCacheTtlMillis;
+        this.readUris = List.copyOf(builder.readUris);
+        this.loadBalancingPolicy = builder.loadBalancingPolicy != null ? builder.loadBalancingPolicy : new RoundRobinPolicy();
+        this.slowQueryLog = builder.slowQueryLog;
+    }
+
+    /**
+     * Creates a builder preset for a remote connection to {@link #DEFAULT_REMOTE_URI}.
+     *
+     * @return a new builder.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Creates the configuration of a remote connection to the default server.
+     *
+     * @param user     the username for authentication.
+     * @param password the password for authentication.
+     * @return         the configuration.
+     */
+    public static ExistDBConfig remote(String user, String password) {
+        return builder().credentials(user, password).build();
+    }
+
+    /**
+     * Creates the configuration of an embedded database started from an eXist-db {@code conf.xml} file.
+     *
+     * @param configurationFile the eXist-db configuration file.
+     * @param user              the username for authentication.
+     * @param password          the password for authentication.
+     * @return                  the configuration.
+     */
+    public static ExistDBConfig embedded(Path configurationFile, String user, String password) {
+        return builder().mode(ConnectionMode.EMBEDDED).configurationFile(configurationFile).credentials(user, password).build();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public ConnectionMode getMode() {
+        return mode;
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    public Path getConfigurationFile() {
+        return configurationFile;
+    }
+
+    public Path getDataDirectory() {
+        return dataDirectory;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public long getBorrowTimeoutMillis() {
+        return borrowTimeoutMillis;
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    public int getCompiledQueryCacheSize() {
+        return compiledQueryCacheSize;
+    }
+
+    public int getResultCacheSize() {
+        return resultCacheSize;
+    }
+
+    public long getResultCacheTtlMillis() {
+        return resultCacheTtlMillis;
+    }
+
+    public List<String> getReadUris() {
+        return readUris;
+    }
+
+    public LoadBalancingPolicy getLoadBalancingPolicy() {
+        return loadBalancingPolicy;
+    }
+
+    public SlowQueryLog getSlowQueryLog() {
+        return slowQueryLog;
+    }
+
+    /**
+     * Builder for {@link ExistDBConfig}.
+     */
+    public static class Builder {
+        private String name = DEFAULT_NAME;
+        private ConnectionMode mode = ConnectionMode.REMOTE;
+        private String uri = DEFAULT_REMOTE_URI;
+        private Path configurationFile;
+        private Path dataDirectory;
+        private String user;
+        private String password;
+        private int poolSize = 16;
+        private long borrowTimeoutMillis = 5_000;
+        private long idleTimeoutMillis = 60_000;
+        private int compiledQueryCacheSize = 256;
+        private int resultCacheSize = 0;
+        private long resultCacheTtlMillis = 60_000;
+        private final List<String> readUris = new ArrayList<>();
+        private LoadBalancingPolicy loadBalancingPolicy;
+        private SlowQueryLog slowQueryLog;
+
+        private Builder() {}
+
+        /**
+         * Sets the name the instance is registered under. Defaults to {@link #DEFAULT_NAME}.
+         *
+         * @param name the instance name (e.g. a shard or tenant identifier).
+         * @return     this builder.
+         */
+        public Builder name(String name) {
+            this.name = name;
+            return this;
+        }
+
+        /**
+         * Sets how the database is reached. Defaults to {@link ConnectionMode#REMOTE}.
+         *
+         * @param mode the connection mode.
+         * @return     this builder.
+         */
+        public Builder mode(ConnectionMode mode) {
+            this.mode = mode;
+            return this;
+        }
+
+        /**
+         * Sets the URI of the remote server. Ignored in embedded mode.
+         *
+         * @param uri the XML:DB URI without the collection path.
+         * @return    this builder.
+         */
+        public Builder uri(String uri) {
+            this.uri = uri;
+            return this;
+        }
+
+        /**
+         * Sets the eXist-db {@code conf.xml} used to start the embedded broker.
+         *
+         * @param configurationFile the configuration file.
+         * @return                  this builder.
+         */
+        public Builder configurationFile(Path configurationFile) {
+            this.configurationFile = configurationFile;
+            return this;
+        }
+
+        /**
+         * Sets the directory where the embedded broker keeps its data, overriding the one in {@code conf.xml}.
+         *
+         * @param dataDirectory the data directory.
+         * @return              this builder.
+         */
+        public Builder dataDirectory(Path dataDirectory) {
+            this.dataDirectory = dataDirectory;
+            return this;
+        }
+
+        /**
+         * Sets the credentials used to open collections.
+         *
+         * @param user     the username for authentication.
+         * @param password the password for authentication.
+         * @return         this builder.
+         */
+        public Builder credentials(String user, String password) {
+            this.user = user;
+            this.password = password;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of pooled collection handles.
+         *
+         * @param poolSize the pool size.
+         * @return         this builder.
+         */
+        public Builder poolSize(int poolSize) {
+            this.poolSize = poolSize;
+            return this;
+        }
+
+        /**
+         * Sets how long a caller waits for a pooled collection handle.
+         *
+         * @param borrowTimeoutMillis the timeout in milliseconds.
+         * @return                    this builder.
+         */
+        public Builder borrowTimeoutMillis(long borrowTimeoutMillis) {
+            this.borrowTimeoutMillis = borrowTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * Sets how long an unused collection handle stays open in the pool.
+         *
+         * @param idleTimeoutMillis the timeout in milliseconds.
+         * @return                  this builder.
+         */
+        public Builder idleTimeoutMillis(long idleTimeoutMillis) {
+            this.idleTimeoutMillis = idleTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * Sets how many distinct queries keep their compiled form for reuse. {@code 0} disables the cache.
+         * Only used in {@link ConnectionMode#EMBEDDED embedded} mode; the remote driver does not keep
+         * a compiled form.
+         *
+         * @param compiledQueryCacheSize the number of cached queries.
+         * @return                       this builder.
+         */
+        public Builder compiledQueryCacheSize(int compiledQueryCacheSize) {
+            this.compiledQueryCacheSize = compiledQueryCacheSize;
+            return this;
+        }
+
+        /**
+         * Enables the client-side cache of query results. Disabled ({@code 0}) by default, since
+         * cached results do not see writes made by other clients until they expire.
+         *
+         * @param resultCacheSize      the number of query results kept.
+         * @param resultCacheTtlMillis how long a result stays valid, in milliseconds.
+         * @return                     this builder.
+         */
+        public Builder resultCache(int resultCacheSize, long resultCacheTtlMillis) {
+            this.resultCacheSize = resultCacheSize;
+            this.resultCacheTtlMillis = resultCacheTtlMillis;
+            return this;
+        }
+
+        /**
+         * Adds a node that serves reads. Without read nodes every read goes to the primary URI.
+         *
+         * @param readUri the XML:DB URI of the node, without the collection path.
+         * @return        this builder.
+         */
+        public Builder addReadUri(String readUri) {
+            this.readUris.add(readUri);
+            return this;
+        }
+
+        /**
+         * Sets how reads are spread across the read nodes. Defaults to {@link RoundRobinPolicy}.
+         *
+         * @param loadBalancingPolicy the policy.
+         * @return                    this builder.
+         */
+        public Builder loadBalancingPolicy(LoadBalancingPolicy loadBalancingPolicy) {
+            this.loadBalancingPolicy = loadBalancingPolicy;
+            return this;
+        }
+
+        /**
+         * Profiles queries and logs the slow ones. Disabled by default.
+         *
+         * @param slowQueryLog the log, or {@code null} to disable it.
+         * @return             this builder.
+         */
+        public Builder slowQueryLog(SlowQueryLog slowQueryLog) {
+            this.slowQueryLog = slowQueryLog;
+            return this;
+        }
+
+        /**
+         * Builds the configuration.
+         *
+         * @return                          the configuration.
+         * @throws IllegalArgumentException if a required setting is missing.
+         */
+        public ExistDBConfig build() {
+            if (name == null || name.isEmpty()) {
+                throw new IllegalArgumentException("Instance name must not be null or empty.");
+            }
+            if (mode == null) {
+                throw new IllegalArgumentException("Connection mode must not be null.");
+            }
+            if (mode == ConnectionMode.REMOTE && (uri == null || uri.isEmpty())) {
+                throw new IllegalArgumentException("Remote URI must not be null or empty.");
+            }
+            if (mode == ConnectionMode.EMBEDDED && configurationFile == null && dataDirectory == null) {
+                throw new IllegalArgumentException("Embedded mode needs a configuration file or a data directory.");
+            }
+            if (compiledQueryCacheSize < 0) {
+                throw new IllegalArgumentException("Compiled query cache size must not be negative.");
+            }
+            if (resultCacheSize < 0 || resultCacheTtlMillis <= 0) {
+                throw new IllegalArgumentException("Result cache size must not be negative and its time to live must be positive.");
+            }
+            if (mode == ConnectionMode.EMBEDDED && !readUris.isEmpty()) {
+                throw new IllegalArgumentException("Read URIs are only supported in remote mode.");
+            }
+            return new ExistDBConfig(this);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package org.phinix.lib.service;
+
+import java.util.List;
+
+/**
+ * A {@link LoadBalancingPolicy} that sends each read to the node with the fewest collection
+ * handles currently borrowed, so slow nodes naturally receive less traffic.
+ */
+public class LeastOutstandingRequestsPolicy implements LoadBalancingPolicy {
+    @Override
+    public CollectionPool select(List<CollectionPool> nodes) {
+        CollectionPool selected = nodes.get(0);
+        for (int i = 1; i < nodes.size(); i++) {
+            CollectionPool candidate = nodes.get(i);
+            if (candidate.getActiveCount() < selected.getActiveCount()) {
+                selected = candidate;
+            }
+        }
+        return selected;
+    }
+}
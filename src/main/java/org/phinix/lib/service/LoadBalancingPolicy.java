@@ -0,0 +1,21 @@
+package org.phinix.lib.service;
+
+import java.util.List;
+
+/**
+ * A {@link LoadBalancingPolicy} chooses which eXist-db node serves a read when an {@link ExistDB}
+ * instance is configured with several read URIs. Every node is represented by its
+ * {@link CollectionPool}, whose active count is the number of requests it is currently serving.
+ *
+ * <p>Implementations must be thread-safe, since they are called concurrently by every reader.</p>
+ */
+@FunctionalInterface
+public interface LoadBalancingPolicy {
+    /**
+     * Selects the node for the next read.
+     *
+     * @param nodes the collection pools of the read nodes, never empty.
+     * @return      the selected pool.
+     */
+    CollectionPool select(List<CollectionPool> nodes);
+}
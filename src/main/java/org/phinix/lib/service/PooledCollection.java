@@ -0,0 +1,127 @@
+package org.phinix.lib.service;
+
+import org.xmldb.api.base.Collection;
+import org.xmldb.api.base.Resource;
+import org.xmldb.api.base.Service;
+import org.xmldb.api.base.XMLDBException;
+
+/**
+ * A {@link Collection} handle borrowed from a {@link CollectionPool}. Every call is delegated to the
+ * underlying collection, except {@link #close()}, which gives the handle back to the pool instead
+ * of closing the connection.
+ */
+final class PooledCollection implements Collection {
+    private final CollectionPool pool;
+    private final String path;
+    private final Collection delegate;
+    private boolean returned;
+
+    /**
+     * Wraps a collection borrowed from the pool.
+     *
+     * @param pool     the pool the handle belongs to.
+     * @param path     the path the handle was borrowed for.
+     * @param delegate the underlying collection.
+     */
+    PooledCollection(CollectionPool pool, String path, Collection delegate) {
+        this.pool = pool;
+        this.path = path;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public String getName() throws XMLDBException {
+        return delegate.getName();
+    }
+
+    @Override
+    public Service[] getServices() throws XMLDBException {
+        return delegate.getServices();
+    }
+
+    @Override
+    public Service getService(String name, String version) throws XMLDBException {
+        return delegate.getService(name, version);
+    }
+
+    @Override
+    public Collection getParentCollection() throws XMLDBException {
+        return delegate.getParentCollection();
+    }
+
+    @Override
+    public int getChildCollectionCount() throws XMLDBException {
+        return delegate.getChildCollectionCount();
+    }
+
+    @Override
+    public String[] listChildCollections() throws XMLDBException {
+        return delegate.listChildCollections();
+    }
+
+    @Override
+    public Collection getChildCollection(String name) throws XMLDBException {
+        return delegate.getChildCollection(name);
+    }
+
+    @Override
+    public int getResourceCount() throws XMLDBException {
+        return delegate.getResourceCount();
+    }
+
+    @Override
+    public String[] listResources() throws XMLDBException {
+        return delegate.listResources();
+    }
+
+    @Override
+    public Resource createResource(String id, String type) throws XMLDBException {
+        return delegate.createResource(id, type);
+    }
+
+    @Override
+    public void removeResource(Resource resource) throws XMLDBException {
+        delegate.removeResource(resource);
+    }
+
+    @Override
+    public void storeResource(Resource resource) throws XMLDBException {
+        delegate.storeResource(resource);
+    }
+
+    @Override
+    public Resource getResource(String id) throws XMLDBException {
+        return delegate.getResource(id);
+    }
+
+    @Override
+    public String createId() throws XMLDBException {
+        return delegate.createId();
+    }
+
+    @Override
+    public boolean isOpen() throws XMLDBException {
+        return !returned && delegate.isOpen();
+    }
+
+    @Override
+    public String getProperty(String name) throws XMLDBException {
+        return delegate.getProperty(name);
+    }
+
+    @Override
+    public void setProperty(String name, String value) throws XMLDBException {
+        delegate.setProperty(name, value);
+    }
+
+    /**
+     * Returns the handle to the pool. Closing the same handle twice has no further effect.
+     */
+    @Override
+    public synchronized void close() {
+        if (!returned) {
+            returned = true;
+            pool.release(path, delegate);
+        }
+    }
+}
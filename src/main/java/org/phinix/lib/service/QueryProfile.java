@@ -0,0 +1,119 @@
+package org.phinix.lib.service;
+
+import java.util.Set;
+
+/**
+ * The profile of one executed query: where its time went, phase by phase, and how many results it
+ * returned. Written to the {@link SlowQueryLog} when the query is slower than its threshold.
+ *
+ * <p>Only the names of the bound variables are kept, never their values, so profiles can be
+ * logged without leaking the data the query was run with.</p>
+ */
+public class QueryProfile {
+    private final String collectionPath;
+    private final String query;
+    private final Set<String> variableNames;
+    private final long compileNanos;
+    private final long executeNanos;
+    private final long fetchNanos;
+    private final long mapNanos;
+    private final long resources;
+    private final long objects;
+    private final String plan;
+
+    /**
+     * Creates the profile of a query.
+     *
+     * @param collectionPath the path of the collection the query ran on.
+     * @param query          the query text.
+     * @param variableNames  the names of the bound variables.
+     * @param compileNanos   the time spent compiling, or 0 if the compiled query was reused.
+     * @param executeNanos   the time spent executing on the server.
+     * @param fetchNanos     the time spent fetching the result resources.
+     * @param mapNanos       the time spent mapping the resources to objects.
+     * @param resources      the number of result resources.
+     * @param objects        the number of mapped objects.
+     * @param plan           the compiled expression as dumped by eXist-db, or {@code null} if it was not captured.
+     */
+    public QueryProfile(String collectionPath, String query, Set<String> variableNames, long compileNanos, long executeNanos,
+                        long fetchNanos, long mapNanos, long resources, long objects, String plan) {
+        this.collectionPath = collectionPath;
+        this.query = query;
+        this.variableNames = Set.copyOf(variableNames);
+        this.compileNanos = compileNanos;
+        this.executeNanos = executeNanos;
+        this.fetchNanos = fetchNanos;
+        this.mapNanos = mapNanos;
+        this.resources = resources;
+        this.objects = objects;
+        this.plan = plan;
+    }
+
+    public String getCollectionPath() {
+        return collectionPath;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public Set<String> getVariableNames() {
+        return variableNames;
+    }
+
+    public long getCompileNanos() {
+        return compileNanos;
+    }
+
+    public long getExecuteNanos() {
+        return executeNanos;
+    }
+
+    public long getFetchNanos() {
+        return fetchNanos;
+    }
+
+    public long getMapNanos() {
+        return mapNanos;
+    }
+
+    public long getTotalNanos() {
+        return compileNanos + executeNanos + fetchNanos + mapNanos;
+    }
+
+    public long getResources() {
+        return resources;
+    }
+
+    public long getObjects() {
+        return objects;
+    }
+
+    public String getPlan() {
+        return plan;
+    }
+
+    /**
+     * Formats the profile as one line of {@code key=value} pairs, times in milliseconds, followed
+     * by the query text; the plan, if any, is left out.
+     *
+     * @return the formatted profile.
+     */
+    @Override
+    public String toString() {
+        return "collection=" + collectionPath +
+                " totalMs=" + millis(getTotalNanos()) +
+                " compileMs=" + millis(compileNanos) +
+                " executeMs=" + millis(executeNanos) +
+                " fetchMs=" + millis(fetchNanos) +
+                " mapMs=" + millis(mapNanos) +
+                " resources=" + resources +
+                " objects=" + objects +
+                " variables=" + variableNames +
+                " query=\"" + query.replaceAll("\\s+", " ").trim() + '"';
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3f", nanos / 1_000_000.0);
+    }
+}
@@ -0,0 +1,239 @@
+package org.phinix.lib.service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * QueryResultCache keeps the mapped results of read queries on the client, so repeated reads of
+ * data that rarely changes skip the round trip, the parsing and the mapping.
+ *
+ * <p>Entries are keyed by collection path, query text, bound variables and result class. They
+ * expire {@code ttlMillis} after being stored, and the least recently used entry is evicted once
+ * {@code maxEntries} are cached. Every write made through the DAOs of the same {@link ExistDB}
+ * instance drops the entries of the written collection, of its ancestors and of its descendants
+ * (see {@link CollectionChangeListener}); writes made by other clients are only seen once the
+ * entries expire.</p>
+ *
+ * <p>Cached lists are immutable and their objects are shared between callers, which must treat
+ * them as read-only.</p>
+ */
+public class QueryResultCache implements CollectionChangeListener {
+    private static final Logger logger = Logger.getLogger(QueryResultCache.class.getName());
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LinkedHashMap<Key, Entry> entries; // In access order, guarded by this
+    private long generation; // Incremented on every invalidation, guarded by this
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+    private long invalidations;
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxEntries the number of query results kept; {@code 0} disables caching.
+     * @param ttlMillis  how long a result stays valid after it is stored.
+     */
+    public QueryResultCache(int maxEntries, long ttlMillis) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("Cache size must not be negative.");
+        }
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("Time to live must be greater than zero.");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttlMillis * 1_000_000;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * @return {@code true} if results are cached at all.
+     */
+    public boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    /**
+     * Looks up the results of a query.
+     *
+     * @param collectionPath the path of the collection the query runs against.
+     * @param query          the query text.
+     * @param variables      the bound variables.
+     * @param type           the class the results are mapped to.
+     * @param <T>            the type of the results.
+     * @return               the cached results, or {@code null} if there are none or they expired.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> List<T> get(String collectionPath, String query, Map<String, Object> variables, Class<T> type) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Key key = new Key(collectionPath, query, variables, type);
+        Entry entry = entries.get(key);
+        if (entry != null && System.nanoTime() - entry.storedAt > ttlNanos) {
+            entries.remove(key);
+            expirations++;
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return (List<T>) entry.results;
+    }
+
+    /**
+     * Reads the invalidation generation. Take it before running a query and pass it to
+     * {@link #put}, so results read before a concurrent write are not cached after it.
+     *
+     * @return the current generation.
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Stores the complete results of a query.
+     *
+     * @param collectionPath the path of the collection the query ran against.
+     * @param query          the query text.
+     * @param variables      the bound variables.
+     * @param type           the class the results were mapped to.
+     * @param results        the results.
+     * @param generation     the generation read before the query ran.
+     * @param <T>            the type of the results.
+     */
+    public synchronized <T> void put(String collectionPath, String query, Map<String, Object> variables, Class<T> type,
+                                     List<T> results, long generation) {
+        if (!isEnabled() || generation != this.generation) {
+            return; // A write happened while the query ran
+        }
+        entries.put(new Key(collectionPath, query, variables, type), new Entry(List.copyOf(results), System.nanoTime()));
+
+        // Evict the least recently used results
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (entries.size() > maxEntries && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Drops the results of queries on a collection, its ancestors and its descendants.
+     *
+     * @param collectionPath the path of the changed collection.
+     */
+    public synchronized void invalidate(String collectionPath) {
+        generation++;
+        if (entries.keySet().removeIf(key -> CompiledQueryCache.pathsOverlap(collectionPath, key.collectionPath))) {
+            invalidations++;
+            logger.log(Level.FINE, "Query results invalidated for " + collectionPath);
+        }
+    }
+
+    /**
+     * Drops every cached result.
+     */
+    public synchronized void clear() {
+        generation++;
+        entries.clear();
+    }
+
+    @Override
+    public void collectionChanged(String collectionPath, ChangeType type) {
+        invalidate(collectionPath);
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the share of lookups served from the cache, between 0 and 1.
+     */
+    public synchronized double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getExpirations() {
+        return expirations;
+    }
+
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * @return the number of query results currently cached, including expired ones not yet looked up.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * The results of one query and when they were stored.
+     */
+    private static final class Entry {
+        private final List<?> results;
+        private final long storedAt;
+
+        private Entry(List<?> results, long storedAt) {
+            this.results = results;
+            this.storedAt = storedAt;
+        }
+    }
+
+    /**
+     * The identity of a cached query.
+     */
+    private static final class Key {
+        private final String collectionPath;
+        private final String query;
+        private final Map<String, Object> variables;
+        private final Class<?> type;
+
+        private Key(String collectionPath, String query, Map<String, Object> variables, Class<?> type) {
+            this.collectionPath = collectionPath;
+            this.query = query;
+            this.variables = variables;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return collectionPath.equals(other.collectionPath) && query.equals(other.query)
+                    && variables.equals(other.variables) && type == other.type;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(collectionPath, query, variables, type);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package org.phinix.lib.service;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link LoadBalancingPolicy} that hands reads to the nodes in turn.
+ */
+public class RoundRobinPolicy implements LoadBalancingPolicy {
+    private final AtomicInteger next = new AtomicInteger();
+
+    @Override
+    public CollectionPool select(List<CollectionPool> nodes) {
+        // floorMod keeps the index valid once the counter wraps around
+        return nodes.get(Math.floorMod(next.getAndIncrement(), nodes.size()));
+    }
+}
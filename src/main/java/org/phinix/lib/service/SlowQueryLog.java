@@ -0,0 +1,158 @@
+package org.phinix.lib.service;
+
+import java.util.logging.Logger;
+
+/**
+ * SlowQueryLog receives the {@link QueryProfile} of every query slower than a threshold and
+ * writes it to a {@link Sink}, by default the {@code java.util.logging} logger of this class.
+ * Enable it with {@link ExistDBConfig.Builder#slowQueryLog}:
+ *
+ * <pre>
+ * ExistDBConfig config = ExistDBConfig.builder()
+ *         .credentials("admin", "admin")
+ *         .slowQueryLog(new SlowQueryLog(200, true, 10, SlowQueryLog.loggingSink()))
+ *         .build();
+ * </pre>
+ *
+ * <p>A threshold of 0 profiles every query. At most {@code maxEntriesPerSecond} profiles are
+ * written per second; the others are dropped and their number is passed with the next profile
+ * written, so a burst of slow queries cannot flood the log.</p>
+ */
+public class SlowQueryLog {
+    private static final Logger logger = Logger.getLogger(SlowQueryLog.class.getName());
+    public static final int DEFAULT_MAX_ENTRIES_PER_SECOND = 10;
+    private static final long WINDOW_NANOS = 1_000_000_000L;
+
+    private final long thresholdNanos;
+    private final boolean capturePlan;
+    private final int maxEntriesPerSecond;
+    private final Sink sink;
+
+    // Rate limiting state, guarded by this
+    private long windowStart = System.nanoTime();
+    private int entriesInWindow;
+    private long suppressed;   // Dropped since the last profile written
+    private long written;
+    private long dropped;
+
+    /**
+     * Creates a slow-query log writing to the logger of this class, without capturing plans.
+     *
+     * @param thresholdMillis the time above which a query is logged, in milliseconds.
+     */
+    public SlowQueryLog(long thresholdMillis) {
+        this(thresholdMillis, false, DEFAULT_MAX_ENTRIES_PER_SECOND, loggingSink());
+    }
+
+    /**
+     * Creates a slow-query log.
+     *
+     * @param thresholdMillis           the time above which a query is logged, in milliseconds.
+     * @param capturePlan               whether to dump the compiled expression of slow queries, which costs a round trip.
+     * @param maxEntriesPerSecond       the number of profiles written per second at most.
+     * @param sink                      where the profiles are written.
+     * @throws IllegalArgumentException if the threshold is negative, the rate is not positive or the sink is null.
+     */
+    public SlowQueryLog(long thresholdMillis, boolean capturePlan, int maxEntriesPerSecond, Sink sink) {
+        if (thresholdMillis < 0) {
+            throw new IllegalArgumentException("Slow query threshold must not be negative.");
+        }
+        if (maxEntriesPerSecond <= 0) {
+            throw new IllegalArgumentException("Slow query log rate must be greater than zero.");
+        }
+        if (sink == null) {
+            throw new IllegalArgumentException("Slow query sink must not be null.");
+        }
+        this.thresholdNanos = thresholdMillis * 1_000_000;
+        this.capturePlan = capturePlan;
+        this.maxEntriesPerSecond = maxEntriesPerSecond;
+        this.sink = sink;
+    }
+
+    /**
+     * Creates the default sink, which writes each profile as one {@code WARNING} record of the
+     * logger of this class, followed by the plan when there is one.
+     *
+     * @return the sink.
+     */
+    public static Sink loggingSink() {
+        return (profile, suppressed) -> {
+            StringBuilder entry = new StringBuilder("Slow query: ").append(profile);
+            if (suppressed > 0) {
+                entry.append(" suppressed=").append(suppressed);
+            }
+            if (profile.getPlan() != null) {
+                entry.append(System.lineSeparator()).append(profile.getPlan());
+            }
+            logger.warning(entry.toString());
+        };
+    }
+
+    /**
+     * Checks whether a query took long enough to be logged.
+     *
+     * @param totalNanos the time the query took, in nanoseconds.
+     * @return           {@code true} if it reached the threshold.
+     */
+    public boolean isSlow(long totalNanos) {
+        return totalNanos >= thresholdNanos;
+    }
+
+    public boolean capturesPlan() {
+        return capturePlan;
+    }
+
+    /**
+     * Writes the profile of a slow query, unless the rate limit of the current second is reached.
+     *
+     * @param profile the profile.
+     */
+    public void log(QueryProfile profile) {
+        long previouslySuppressed;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (now - windowStart >= WINDOW_NANOS) {
+                windowStart = now;
+                entriesInWindow = 0;
+            }
+            if (entriesInWindow >= maxEntriesPerSecond) {
+                suppressed++;
+                dropped++;
+                return;
+            }
+            entriesInWindow++;
+            written++;
+            previouslySuppressed = suppressed;
+            suppressed = 0;
+        }
+
+        // Written outside the lock, so a slow sink does not hold up other queries
+        try {
+            sink.write(profile, previouslySuppressed);
+        } catch (RuntimeException e) {
+            logger.warning("Slow query sink failed: " + e);
+        }
+    }
+
+    public synchronized long getWritten() {
+        return written;
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Where the profiles of slow queries are written, e.g. a logger or a metrics pipeline.
+     */
+    @FunctionalInterface
+    public interface Sink {
+        /**
+         * Writes one profile.
+         *
+         * @param profile    the profile of the slow query.
+         * @param suppressed the number of profiles dropped by the rate limit since the last one written.
+         */
+        void write(QueryProfile profile, long suppressed);
+    }
+}
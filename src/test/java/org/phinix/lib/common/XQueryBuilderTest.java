@@ -0,0 +1,136 @@
+package org.phinix.lib.common;
+
+import org.junit.Test;
+import org.phinix.example.model.Book;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class XQueryBuilderTest {
+
+    @Test
+    public void whereBindsValuesAsVariables() throws XMLSerializableNotFoundException {
+        ParameterizedQuery query = XQueryFactory.query("/db/bookshop", Book.class)
+                .where("year", QueryOperator.LT, 1950)
+                .where("author", "=", "Orwell")
+                .build();
+
+        assertEquals("declare variable $collection external;\n"
+                + "declare variable $p0 external;\n"
+                + "declare variable $p1 external;\n"
+                + "for $item in collection($collection)//book\n"
+                + "where $item/year < $p0 and $item/author = $p1\n"
+                + "return $item", query.getQuery());
+
+        Map<String, Object> expected = new LinkedHashMap<>();
+        expected.put("collection", "/db/bookshop");
+        expected.put("p0", 1950);
+        expected.put("p1", "Orwell");
+        assertEquals(expected, query.getVariables());
+    }
+
+    @Test
+    public void whereEscapesAmpersandsInBoundStrings() throws XMLSerializableNotFoundException {
+        ParameterizedQuery query = XQueryFactory.query("/db/bookshop", Book.class)
+                .where("author", QueryOperator.EQ, "Strunk & White")
+                .build();
+
+        assertEquals("Strunk &amp; White", query.getVariables().get("p0"));
+        assertFalse(query.getQuery().contains("Strunk"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void whereRejectsUnknownFields() throws XMLSerializableNotFoundException {
+        XQueryFactory.query("/db/bookshop", Book.class).where("isbn", QueryOperator.EQ, "0");
+    }
+
+    @Test
+    public void orderByComparesNumericFieldsAsNumbers() throws XMLSerializableNotFoundException {
+        ParameterizedQuery query = XQueryFactory.query("/db/bookshop", Book.class)
+                .orderBy("year", false)
+                .orderBy("title", true)
+                .build();
+
+        assertEquals("declare variable $collection external;\n"
+                + "for $item in collection($collection)//book\n"
+                + "order by number($item/year) descending empty least, $item/title ascending empty least\n"
+                + "return $item", query.getQuery());
+    }
+
+    @Test
+    public void pageCutsTheSortedMatchesWithSubsequence() throws XMLSerializableNotFoundException {
+        ParameterizedQuery query = XQueryFactory.query("/db/bookshop", Book.class)
+                .orderBy("year", true)
+                .page(2, 10)
+                .build();
+
+        assertEquals("declare variable $collection external;\n"
+                + "declare variable $offset external;\n"
+                + "declare variable $limit external;\n"
+                + "let $items :=\n"
+                + "for $item in collection($collection)//book\n"
+                + "order by number($item/year) ascending empty least\n"
+                + "return $item\n"
+                + "return subsequence($items, $offset + 1, $limit)", query.getQuery());
+        assertEquals(20, query.getVariables().get("offset"));
+        assertEquals(10, query.getVariables().get("limit"));
+        assertEquals(20, query.getOffset());
+        assertEquals(10, query.getLimit());
+    }
+
+    @Test
+    public void withTotalReturnsTheCountBeforeTheWindow() throws XMLSerializableNotFoundException {
+        ParameterizedQuery query = XQueryFactory.query("/db/bookshop", Book.class)
+                .limit(5)
+                .withTotal()
+                .build();
+
+        assertTrue(query.includesTotal());
+        assertTrue(query.getQuery().endsWith("return (count($items), subsequence($items, $offset + 1, $limit))"));
+        assertEquals(0, query.getVariables().get("offset"));
+    }
+
+    @Test
+    public void withTotalWithoutWindowReturnsEveryMatch() throws XMLSerializableNotFoundException {
+        ParameterizedQuery query = XQueryFactory.query("/db/bookshop", Book.class)
+                .withTotal()
+                .build();
+
+        assertTrue(query.getQuery().endsWith("return (count($items), $items)"));
+        assertFalse(query.getVariables().containsKey("offset"));
+    }
+
+    @Test
+    public void selectProjectsAfterTheWindow() throws XMLSerializableNotFoundException {
+        ParameterizedQuery query = XQueryFactory.query("/db/bookshop", Book.class)
+                .select("title", "year")
+                .limit(3)
+                .build();
+
+        assertTrue(query.getQuery().endsWith(
+                "return for $item in subsequence($items, $offset + 1, $limit) return <book>{$item/title}{$item/year}</book>"));
+    }
+
+    @Test
+    public void aggregateByGroupsOnTheServer() throws XMLSerializableNotFoundException {
+        ParameterizedQuery query = XQueryFactory.query("/db/bookshop", Book.class)
+                .aggregateBy("author", AggregateFunction.SUM, "year");
+
+        assertEquals("declare variable $collection external;\n"
+                + "<groups>{\n"
+                + "for $item in collection($collection)//book\n"
+                + "group by $key := string(($item/author)[1])\n"
+                + "order by $key empty least\n"
+                + "return <group key=\"{$key}\">{sum($item/year)}</group>\n"
+                + "}</groups>", query.getQuery());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void aggregatesRejectWindows() throws XMLSerializableNotFoundException {
+        XQueryFactory.query("/db/bookshop", Book.class).limit(10).count();
+    }
+}
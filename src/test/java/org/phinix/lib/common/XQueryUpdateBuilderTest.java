@@ -0,0 +1,92 @@
+package org.phinix.lib.common;
+
+import org.junit.Test;
+import org.phinix.example.model.Book;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class XQueryUpdateBuilderTest {
+
+    @Test
+    public void setUpdatesTheValueOrInsertsTheMissingElement() throws XMLSerializableNotFoundException {
+        ParameterizedQuery query = XQueryFactory.update("/db/bookshop", Book.class)
+                .document("dune.xml")
+                .set("year", 1965)
+                .remove("author")
+                .build();
+
+        assertEquals("declare variable $v0 external;\n"
+                + "declare variable $v1 external;\n"
+                + "(for $item in doc($v0)//book\n"
+                + "return (\n"
+                + "  if (exists($item/year)) then update value $item/year with $v1 else update insert <year>{$v1}</year> into $item,\n"
+                + "  update delete $item/author,\n"
+                + "  1))", query.getQuery());
+        assertEquals(Map.of("v0", "/db/bookshop/dune.xml", "v1", "1965"), query.getVariables());
+        assertEquals("/db/bookshop", query.getCollectionPath());
+    }
+
+    @Test
+    public void replaceAndInsertTargetTheMatchingObjects() throws XMLSerializableNotFoundException {
+        ParameterizedQuery query = XQueryFactory.update("/db/bookshop", Book.class)
+                .where("author", QueryOperator.EQ, "Herbert")
+                .replace("title", "Dune Messiah")
+                .insert("author", "Anderson & Herbert")
+                .build();
+
+        assertEquals("declare variable $v0 external;\n"
+                + "declare variable $v1 external;\n"
+                + "declare variable $v2 external;\n"
+                + "declare variable $v3 external;\n"
+                + "(for $item in collection($v0)//book\n"
+                + "where $item/author = $v1\n"
+                + "return (\n"
+                + "  update replace $item/title with <title>{$v2}</title>,\n"
+                + "  update insert <author>{$v3}</author> into $item,\n"
+                + "  1))", query.getQuery());
+        assertEquals("Dune Messiah", query.getVariables().get("v2"));
+        assertEquals("Anderson &amp; Herbert", query.getVariables().get("v3"));
+    }
+
+    @Test
+    public void combineNumbersVariablesAcrossUpdates() throws XMLSerializableNotFoundException {
+        XQueryUpdateBuilder<Book> first = XQueryFactory.update("/db/bookshop/novels", Book.class)
+                .document("dune.xml")
+                .set("year", 1965);
+        XQueryUpdateBuilder<Book> second = XQueryFactory.update("/db/bookshop/essays", Book.class)
+                .where("year", QueryOperator.LT, 1900)
+                .remove("author");
+
+        ParameterizedQuery query = XQueryUpdateBuilder.combine(List.of(first, second));
+
+        assertEquals("declare variable $v0 external;\n"
+                + "declare variable $v1 external;\n"
+                + "declare variable $v2 external;\n"
+                + "declare variable $v3 external;\n"
+                + "(for $item in doc($v0)//book\n"
+                + "return (\n"
+                + "  if (exists($item/year)) then update value $item/year with $v1 else update insert <year>{$v1}</year> into $item,\n"
+                + "  1)),\n"
+                + "(for $item in collection($v2)//book\n"
+                + "where $item/year < $v3\n"
+                + "return (\n"
+                + "  update delete $item/author,\n"
+                + "  1))", query.getQuery());
+        assertEquals("/db/bookshop/essays", query.getVariables().get("v2"));
+        assertEquals(1900, query.getVariables().get("v3"));
+        assertEquals("/db/bookshop/novels", query.getCollectionPath());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void buildRejectsUpdatesWithoutOperations() throws XMLSerializableNotFoundException {
+        XQueryFactory.update("/db/bookshop", Book.class).document("dune.xml").build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setRejectsNullValues() throws XMLSerializableNotFoundException {
+        XQueryFactory.update("/db/bookshop", Book.class).set("title", null);
+    }
+}
@@ -0,0 +1,37 @@
+package org.phinix.lib.dao;
+
+import org.junit.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.SAXParserFactory;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class ContentSizeTest {
+
+    @Test
+    public void utf8LengthMatchesEncodedSize() {
+        String text = "Cien años de soledad – 📚";
+        assertEquals(text.getBytes(StandardCharsets.UTF_8).length, ContentSize.utf8Length(text));
+        char[] chars = text.toCharArray();
+        assertEquals(text.getBytes(StandardCharsets.UTF_8).length, ContentSize.utf8Length(chars, 0, chars.length));
+    }
+
+    @Test
+    public void measuringHandlerCountsMarkupAndText() throws Exception {
+        String xml = "<book id=\"1\"><title>Cien años</title><year>1967</year></book>";
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        ContentSize.Measuring handler = ContentSize.measuring(new DefaultHandler());
+
+        XMLReader reader = factory.newSAXParser().getXMLReader();
+        reader.setContentHandler(handler);
+        reader.parse(new InputSource(new StringReader(xml)));
+
+        assertEquals(xml.getBytes(StandardCharsets.UTF_8).length, handler.getBytes());
+    }
+}
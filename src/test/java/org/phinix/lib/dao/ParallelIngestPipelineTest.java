@@ -0,0 +1,123 @@
+package org.phinix.lib.dao;
+
+import org.junit.Test;
+import org.phinix.example.model.Book;
+import org.w3c.dom.Document;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelIngestPipelineTest {
+
+    @Test
+    public void removeEndOfInputPutsBackExtraMarkers() throws InterruptedException {
+        BlockingQueue<Map.Entry<String, Document>> documents = new ArrayBlockingQueue<>(10);
+        documents.put(entry("a.xml"));
+        documents.put(entry("b.xml"));
+        for (int i = 0; i < 4; i++) {
+            documents.put(ParallelIngestPipeline.END_OF_INPUT);
+        }
+
+        // One worker drains the documents together with every marker
+        List<Map.Entry<String, Document>> chunk = new ArrayList<>();
+        documents.drainTo(chunk);
+
+        assertTrue(ParallelIngestPipeline.removeEndOfInput(chunk, documents));
+        assertEquals(2, chunk.size());
+        assertFalse(chunk.contains(ParallelIngestPipeline.END_OF_INPUT));
+
+        // The three other workers still find a marker each
+        assertEquals(3, documents.size());
+        for (Map.Entry<String, Document> marker : documents) {
+            assertSame(ParallelIngestPipeline.END_OF_INPUT, marker);
+        }
+    }
+
+    @Test
+    public void removeEndOfInputLeavesChunkWithoutMarkers() throws InterruptedException {
+        BlockingQueue<Map.Entry<String, Document>> documents = new ArrayBlockingQueue<>(10);
+        List<Map.Entry<String, Document>> chunk = new ArrayList<>(List.of(entry("a.xml"), entry("b.xml")));
+
+        assertFalse(ParallelIngestPipeline.removeEndOfInput(chunk, documents));
+        assertEquals(2, chunk.size());
+        assertTrue(documents.isEmpty());
+    }
+
+    @Test(timeout = 30_000)
+    public void ingestReportsChunksWhoseStoreThrows() throws Exception {
+        ParallelIngestPipeline pipeline = ParallelIngestPipeline.builder(new ThrowingChunkStore(new IllegalStateException("Collection pool is closed.")))
+                .serializationWorkers(2)
+                .storeWorkers(2)
+                .queueCapacity(4)
+                .chunkSize(5)
+                .build();
+
+        BatchResult result = pipeline.ingest("/db/test", books(50).iterator(), book -> book.getTitle() + ".xml");
+
+        assertEquals(0, result.getStored());
+        assertEquals(50, result.getFailed());
+        assertTrue(result.getFailures().values().stream().allMatch(e -> e instanceof IllegalStateException));
+    }
+
+    @Test(timeout = 30_000)
+    public void ingestReturnsWhenEveryStoreWorkerStopped() throws Exception {
+        ParallelIngestPipeline pipeline = ParallelIngestPipeline.builder(new ThrowingChunkStore(new Error("Store worker died")))
+                .serializationWorkers(2)
+                .storeWorkers(2)
+                .queueCapacity(4)
+                .chunkSize(5)
+                .build();
+
+        BatchResult result = pipeline.ingest("/db/test", books(50).iterator(), book -> book.getTitle() + ".xml");
+
+        assertEquals(0, result.getStored());
+    }
+
+    private static List<Book> books(int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> new Book("Book " + i, "Author", 2000 + i))
+                .collect(Collectors.toList());
+    }
+
+    private static Map.Entry<String, Document> entry(String fileName) {
+        return new AbstractMap.SimpleImmutableEntry<>(fileName, null);
+    }
+
+    /**
+     * A chunk store whose collection exists but whose every store fails.
+     */
+    private static final class ThrowingChunkStore implements ParallelIngestPipeline.ChunkStore {
+        private final Throwable failure;
+
+        private ThrowingChunkStore(Throwable failure) {
+            this.failure = failure;
+        }
+
+        @Override
+        public void checkCollection(String collectionPath) {
+        }
+
+        @Override
+        public ChunkResult storeChunk(String collectionPath, int index, List<Map.Entry<String, Document>> chunk) {
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+            throw (RuntimeException) failure;
+        }
+
+        @Override
+        public void notifyChanged(String collectionPath) {
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.phinix.lib.dao;
+
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+public class WriteBehindBufferTest {
+
+    @Test
+    public void flushKeepsUpdatesWhenTheFlusherThrows() throws Exception {
+        AtomicBoolean poolClosed = new AtomicBoolean(true);
+        WriteBehindBuffer buffer = new WriteBehindBuffer(100, 60_000, (collectionPath, index, writes) -> {
+            if (poolClosed.get()) {
+                throw new IllegalStateException("Collection pool is closed.");
+            }
+            return new ChunkResult(index, writes.size(), new LinkedHashMap<>(), 0);
+        });
+        buffer.put("/db/a", "1.xml", null);
+        buffer.put("/db/b", "2.xml", null);
+        buffer.put("/db/b", "3.xml", null);
+
+        try {
+            buffer.flush();
+            fail("The failure of the flusher must reach the caller.");
+        } catch (IllegalStateException expected) {
+            // The updates of every collection stay buffered
+        }
+        assertEquals(3, buffer.getPendingCount());
+
+        poolClosed.set(false);
+        BatchResult result = buffer.flush();
+        assertEquals(3, result.getStored());
+        assertEquals(0, buffer.getPendingCount());
+        buffer.close();
+    }
+
+    @Test
+    public void flushTriesEveryCollectionAfterAFailure() throws Exception {
+        WriteBehindBuffer buffer = new WriteBehindBuffer(100, 60_000, (collectionPath, index, writes) -> {
+            if (collectionPath.equals("/db/a")) {
+                throw new IllegalStateException("Collection pool is closed.");
+            }
+            return new ChunkResult(index, writes.size(), new LinkedHashMap<>(), 0);
+        });
+        buffer.put("/db/a", "1.xml", null);
+        buffer.put("/db/b", "2.xml", null);
+
+        try {
+            buffer.flush();
+            fail("The failure of the flusher must reach the caller.");
+        } catch (IllegalStateException expected) {
+            assertNotNull(expected.getMessage());
+        }
+        // Only the update of the failed collection is left
+        assertEquals(1, buffer.getPendingCount());
+    }
+}
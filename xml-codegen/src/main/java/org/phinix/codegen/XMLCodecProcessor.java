@@ -0,0 +1,353 @@
+package org.phinix.codegen;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * XMLCodecProcessor generates an {@code XMLCodec} for every class annotated with
+ * {@code @XMLSerializableModel}. The codec is written next to the model as
+ * {@code <ClassName>XMLCodec} and reads and writes the model with straight-line StAX code, calling
+ * its accessors directly and parsing primitives without boxing or reflection.
+ *
+ * <p>Classes that the generated code cannot handle (nested classes, no accessible no-arg
+ * constructor, fields without accessible getters and setters, or field types other than
+ * {@code String}, {@code int}, {@code long}, {@code double}, {@code boolean} and their wrappers)
+ * are skipped with a note; the runtime maps them through reflection instead.</p>
+ */
+@SupportedAnnotationTypes(XMLCodecProcessor.ANNOTATION)
+public class XMLCodecProcessor extends AbstractProcessor {
+    static final String ANNOTATION = "org.phinix.lib.common.XMLSerializableModel";
+    private static final String CODEC_INTERFACE = "org.phinix.lib.common.XMLCodec";
+    private static final String CODEC_SUFFIX = "XMLCodec";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement annotation = processingEnv.getElementUtils().getTypeElement(ANNOTATION);
+        if (annotation == null) {
+            return false;
+        }
+
+        for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+            if (element.getKind() != ElementKind.CLASS) {
+                continue;
+            }
+            TypeElement type = (TypeElement) element;
+            List<FieldModel> fields = analyze(type);
+            if (fields != null) {
+                generate(type, fields);
+            }
+        }
+        return false; // Let other processors see the annotation too
+    }
+
+    /**
+     * Collects the fields of a model class and how to access them.
+     *
+     * @param type the model class.
+     * @return     the fields, or {@code null} if no codec can be generated for the class.
+     */
+    private List<FieldModel> analyze(TypeElement type) {
+        if (type.getNestingKind() != NestingKind.TOP_LEVEL) {
+            return skip(type, "only top-level classes are supported");
+        }
+        boolean hasConstructor = false;
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                hasConstructor = true;
+            }
+        }
+        if (!hasConstructor) {
+            return skip(type, "no accessible no-arg constructor");
+        }
+
+        List<ExecutableElement> methods = ElementFilter.methodsIn(type.getEnclosedElements());
+        List<FieldModel> fields = new ArrayList<>();
+        for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+            if (field.getModifiers().contains(Modifier.STATIC)) {
+                continue;
+            }
+            String name = field.getSimpleName().toString();
+            ValueType valueType = ValueType.of(field.asType());
+            if (valueType == null) {
+                return skip(type, "unsupported type of field " + name);
+            }
+
+            // Use the field directly when the generated class can see it, otherwise its accessors
+            boolean direct = !field.getModifiers().contains(Modifier.PRIVATE);
+            String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+            String getter = direct ? name : findMethod(methods, valueType.isPrimitiveBoolean() ? "is" + capitalized : "get" + capitalized, 0);
+            if (getter == null) {
+                getter = findMethod(methods, "get" + capitalized, 0);
+            }
+            String setter = direct ? name : findMethod(methods, "set" + capitalized, 1);
+            if (getter == null || setter == null || field.getModifiers().contains(Modifier.FINAL)) {
+                return skip(type, "no accessible getter and setter for field " + name);
+            }
+            fields.add(new FieldModel(name, valueType, direct, getter, setter));
+        }
+        return fields;
+    }
+
+    /**
+     * Finds a non-private, non-static method by name and parameter count.
+     *
+     * @param methods        the methods of the class.
+     * @param name           the method name.
+     * @param parameterCount the number of parameters.
+     * @return               the method name, or {@code null} if there is no such method.
+     */
+    private String findMethod(List<ExecutableElement> methods, String name, int parameterCount) {
+        for (ExecutableElement method : methods) {
+            if (method.getSimpleName().contentEquals(name) && method.getParameters().size() == parameterCount
+                    && !method.getModifiers().contains(Modifier.PRIVATE) && !method.getModifiers().contains(Modifier.STATIC)) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reports that no codec is generated for a class.
+     *
+     * @param type   the model class.
+     * @param reason why the class is skipped.
+     * @return       always {@code null}.
+     */
+    private List<FieldModel> skip(TypeElement type, String reason) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                "No XMLCodec generated for " + type.getQualifiedName() + ": " + reason + ". Reflection will be used.", type);
+        return null;
+    }
+
+    /**
+     * Writes the codec source of a model class.
+     *
+     * @param type   the model class.
+     * @param fields the fields of the class.
+     */
+    private void generate(TypeElement type, List<FieldModel> fields) {
+        String packageName = ((PackageElement) type.getEnclosingElement()).getQualifiedName().toString();
+        String simpleName = type.getSimpleName().toString();
+        String codecName = simpleName + CODEC_SUFFIX;
+        String tagName = simpleName.toLowerCase(Locale.ROOT); // Same rule as XMLFileUtil.getObjectTagName
+
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(
+                    (packageName.isEmpty() ? "" : packageName + ".") + codecName, type);
+            try (PrintWriter out = new PrintWriter(file.openWriter())) {
+                if (!packageName.isEmpty()) {
+                    out.println("package " + packageName + ";");
+                    out.println();
+                }
+                out.println("import javax.annotation.processing.Generated;");
+                out.println("import javax.xml.stream.XMLStreamConstants;");
+                out.println("import javax.xml.stream.XMLStreamException;");
+                out.println("import javax.xml.stream.XMLStreamReader;");
+                out.println("import javax.xml.stream.XMLStreamWriter;");
+                out.println();
+                out.println("/**");
+                out.println(" * Reads and writes {@link " + simpleName + "} without reflection. Generated, do not edit.");
+                out.println(" */");
+                out.println("@Generated(\"" + XMLCodecProcessor.class.getName() + "\")");
+                out.println("public final class " + codecName + " implements " + CODEC_INTERFACE + "<" + simpleName + "> {");
+
+                writeRead(out, simpleName, fields);
+                out.println();
+                writeWrite(out, simpleName, tagName, fields);
+
+                out.println("}");
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Cannot write " + codecName + ": " + e.getMessage(), type);
+        }
+    }
+
+    /**
+     * Writes the {@code read} method: the first element named after each field provides its value.
+     */
+    private void writeRead(PrintWriter out, String simpleName, List<FieldModel> fields) {
+        out.println("    @Override");
+        out.println("    public " + simpleName + " read(XMLStreamReader reader) throws XMLStreamException {");
+        out.println("        " + simpleName + " object = new " + simpleName + "();");
+        for (FieldModel field : fields) {
+            out.println("        boolean " + field.seenVariable() + " = false;");
+        }
+        out.println("        int depth = 1;");
+        out.println("        try {");
+        out.println("            while (depth > 0) {");
+        out.println("                int event = reader.next();");
+        out.println("                if (event == XMLStreamConstants.START_ELEMENT) {");
+        out.println("                    String name = reader.getLocalName();");
+        String keyword = "if";
+        for (FieldModel field : fields) {
+            out.println("                    " + keyword + " (!" + field.seenVariable() + " && name.equals(\"" + field.name + "\")) {");
+            out.println("                        " + field.seenVariable() + " = true;");
+            out.println("                        " + field.assign(field.valueType.parse("reader.getElementText()")) + ";");
+            keyword = "} else if";
+        }
+        if (fields.isEmpty()) {
+            out.println("                    depth++;");
+        } else {
+            out.println("                    } else {");
+            out.println("                        depth++;");
+            out.println("                    }");
+        }
+        out.println("                } else if (event == XMLStreamConstants.END_ELEMENT) {");
+        out.println("                    depth--;");
+        out.println("                }");
+        out.println("            }");
+        out.println("        } catch (IllegalArgumentException e) {");
+        out.println("            throw new XMLStreamException(\"Cannot parse " + simpleName + "\", reader.getLocation(), e);");
+        out.println("        }");
+        out.println("        return object;");
+        out.println("    }");
+    }
+
+    /**
+     * Writes the {@code write} method: one child element per non-null field.
+     */
+    private void writeWrite(PrintWriter out, String simpleName, String tagName, List<FieldModel> fields) {
+        out.println("    @Override");
+        out.println("    public void write(XMLStreamWriter writer, " + simpleName + " object) throws XMLStreamException {");
+        out.println("        writer.writeStartElement(\"" + tagName + "\");");
+        for (FieldModel field : fields) {
+            String indent = "        ";
+            if (!field.valueType.primitive) {
+                out.println("        if (" + field.read() + " != null) {");
+                indent = "            ";
+            }
+            out.println(indent + "writer.writeStartElement(\"" + field.name + "\");");
+            out.println(indent + "writer.writeCharacters(" + field.valueType.format(field.read()) + ");");
+            out.println(indent + "writer.writeEndElement();");
+            if (!field.valueType.primitive) {
+                out.println("        }");
+            }
+        }
+        out.println("        writer.writeEndElement();");
+        out.println("    }");
+    }
+
+    /**
+     * A field of a model class and the code used to read and write it.
+     */
+    private static final class FieldModel {
+        private final String name;
+        private final ValueType valueType;
+        private final boolean direct;
+        private final String getter;
+        private final String setter;
+
+        private FieldModel(String name, ValueType valueType, boolean direct, String getter, String setter) {
+            this.name = name;
+            this.valueType = valueType;
+            this.direct = direct;
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        private String seenVariable() {
+            return "seen_" + name;
+        }
+
+        private String read() {
+            return direct ? "object." + getter : "object." + getter + "()";
+        }
+
+        private String assign(String value) {
+            return direct ? "object." + setter + " = " + value : "object." + setter + "(" + value + ")";
+        }
+    }
+
+    /**
+     * The field types the generated code supports, with their parse and format expressions.
+     */
+    private enum ValueType {
+        STRING(false, "%s", "%s"),
+        INT(true, "Integer.parseInt(%s)", "Integer.toString(%s)"),
+        INTEGER(false, "Integer.valueOf(%s)", "%s.toString()"),
+        LONG_PRIMITIVE(true, "Long.parseLong(%s)", "Long.toString(%s)"),
+        LONG(false, "Long.valueOf(%s)", "%s.toString()"),
+        DOUBLE_PRIMITIVE(true, "Double.parseDouble(%s)", "Double.toString(%s)"),
+        DOUBLE(false, "Double.valueOf(%s)", "%s.toString()"),
+        BOOLEAN_PRIMITIVE(true, "Boolean.parseBoolean(%s)", "Boolean.toString(%s)"),
+        BOOLEAN(false, "Boolean.valueOf(%s)", "%s.toString()");
+
+        private final boolean primitive;
+        private final String parsePattern;
+        private final String formatPattern;
+
+        ValueType(boolean primitive, String parsePattern, String formatPattern) {
+            this.primitive = primitive;
+            this.parsePattern = parsePattern;
+            this.formatPattern = formatPattern;
+        }
+
+        private static ValueType of(TypeMirror type) {
+            switch (type.getKind()) {
+                case INT:
+                    return INT;
+                case LONG:
+                    return LONG_PRIMITIVE;
+                case DOUBLE:
+                    return DOUBLE_PRIMITIVE;
+                case BOOLEAN:
+                    return BOOLEAN_PRIMITIVE;
+                case DECLARED:
+                    switch (type.toString()) {
+                        case "java.lang.String":
+                            return STRING;
+                        case "java.lang.Integer":
+                            return INTEGER;
+                        case "java.lang.Long":
+                            return LONG;
+                        case "java.lang.Double":
+                            return DOUBLE;
+                        case "java.lang.Boolean":
+                            return BOOLEAN;
+                        default:
+                            return null;
+                    }
+                default:
+                    return null;
+            }
+        }
+
+        private boolean isPrimitiveBoolean() {
+            return this == BOOLEAN_PRIMITIVE;
+        }
+
+        private String parse(String expression) {
+            return String.format(parsePattern, expression);
+        }
+
+        private String format(String expression) {
+            return String.format(formatPattern, expression);
+        }
+    }
+}